@@ -28,12 +28,12 @@
  */
 package org.europabarbarorum.cuf.font;
 
+import org.europabarbarorum.cuf.font.impl.ARGBCanvas;
 import org.europabarbarorum.cuf.font.impl.CUFGlyph;
 import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
-import java.util.TreeMap;
 import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension.CUFGlyphDimensionImpl;
 import org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty;
 import org.europabarbarorum.cuf.support.Escapes;
@@ -62,6 +62,8 @@ public class CUFFont {
 
     /**
      * Constructs a CUFFont object.
+     * Pass a {@link CachingSource} to keep glyphs of characters which occur more than once in memory,
+     * and to share them between multiple {@link CUFFont} objects.
      * @param reader the {@link #backend} used by this CUFFont.
      */
     public CUFFont (CUFSource reader) {
@@ -83,8 +85,49 @@ public class CUFFont {
             g.drawImage(render(source, colorCode), baseX, baseY, null);
         }
     }
+
+    /**
+     * Draws text on a Graphics object by copying glyphs from a {@link GlyphAtlas}, instead of rendering it
+     * as an image first. The text is drawn in the colour of the {@link GlyphAtlas}.
+     * Drawing stops early if {@link #isCancelled() } returns true.
+     * @param source text to draw
+     * @param g {@link Graphics} object to draw on
+     * @param baseX x-offset of the text relative to the origin of the Graphic's bounding box
+     * @param baseY y-offset of the text relative to the origin of the Graphic's bounding box
+     * @param atlas a {@link GlyphAtlas} of the {@link #getBackend() backend} of this font
+     */
+    @SuppressWarnings("unchecked")
+    public void drawText (String source, Graphics g, int baseX, int baseY,
+                          GlyphAtlas atlas) {
+        if (isPrepared()) {
+            int hmap = propGet(CUFProperty.LayoutXOffset);
+            baseX += (hmap < 0 ? 0 : hmap);
+            int xoff = baseX;
+            baseY += propGet(CUFProperty.Baseline);
+            for (String s : source.split(splitPattern)) {
+                if (s.equals("") == false) { // ignore empty lines
+                    ArrayList<?> codes = backend.stringToCodes(s);
+                    CUFGlyphDimension dim;
+                    for (int k = 0, v = 1, l = codes.size(); k < l; ++k, ++v) {
+                        if (isCancelled()) {
+                            return;
+                        }
+                        Object code = codes.get(k);
+                        dim = code == null ? null : backend.getGlyphDimension(code);
+                        if (dim != null) {
+                            atlas.draw(g, code, baseX, baseY - dim.getY());
+                            baseX += v < l
+                                     ? dim.kerning(s.charAt(v))
+                                     : dim.getAdvanceWith();
+                        }
+                    }
+                    baseX = xoff; // reset X to its original offset
+                }
+                baseY += propGet(CUFProperty.VSize);
+            }
+        }
+    }
     private int jobSize;
-    private TreeMap<Character, CUFGlyph> job;
     /**
      * A pattern for use in {@link String#split(java.lang.String) } to split source text around newline characters.
      * This is used for calculating render dimensions of arbitrary text in {@link #drawText(java.lang.String, java.awt.Graphics, int, int, int) }.
@@ -101,7 +144,6 @@ public class CUFFont {
     public BufferedImage render (String source, int colorCode) {
         signalProgress(Messages.CalculateRenderDimensions);
         jobSize = source.length();
-        job = new TreeMap<Character, CUFGlyph>();
         String[] lines = source.split(splitPattern);
         CUFGlyphDimension dim = calculateRenderDimensions(lines);
         signalProgress(Messages.CreateEmptyRender);
@@ -132,6 +174,8 @@ public class CUFFont {
 
     /**
      * Renders text on an image.
+     * If the image is of type {@link BufferedImage#TYPE_INT_ARGB} glyphs are drawn directly into its
+     * backing array through an {@link ARGBCanvas}, and overlapping glyphs are blended.
      * @param source the lines of text to render
      * @param image a preallocated {@link BufferedImage} to render the source on
      * @param baseX x offset to start drawing on the image (typically 0)
@@ -156,21 +200,29 @@ public class CUFFont {
             baseY += yoff;
 
             int progress = 0;
+            ARGBCanvas canvas = ARGBCanvas.of(image);
 
             for (String s : source) {
                 if (s.equals("") == false) { // ignore empty lines
                     ArrayList<?> codes = backend.stringToCodes(s);
                     CUFGlyph glyph;
                     for (int k = 0, v = 1, l = codes.size(); k < l; ++k, ++v) {
+                        if (isCancelled()) {
+                            return image;
+                        }
                         Object code = codes.get(k);
                         // count nulls as well
-                        if (code != null) {
-                            glyph = job.get(s.charAt(k));//backend.getGlyph(code);
-                            image = glyph.writeToBitMap(image,
-                                                        baseX,
-                                                        baseY - glyph.
-                                    getDimension().getY(), // compute offset so that all glyphs rest on the base line
-                                                        colorCode);
+                        glyph = code == null ? null : backend.getGlyph(code);
+                        if (glyph != null) {
+                            // compute offset so that all glyphs rest on the base line
+                            int y = baseY - glyph.getDimension().getY();
+                            if (canvas == null) {
+                                image = glyph.writeToBitMap(image, baseX, y,
+                                                            colorCode);
+                            }
+                            else {
+                                glyph.writeToCanvas(canvas, baseX, y, colorCode);
+                            }
                             if (v < l) {
                                 baseX += glyph.getDimension().kerning(
                                         s.charAt(v)); // advance X position
@@ -195,6 +247,18 @@ public class CUFFont {
         return image;
     }
 
+    /**
+     * Check whether the current render should be abandoned. This method is called between glyphs;
+     * if it returns true {@link #renderOnImage(java.lang.String[], java.awt.image.BufferedImage, int, int, int) }
+     * returns immediately, leaving the image partially rendered, and
+     * {@link #calculateRenderDimensions(java.lang.String) } returns the dimensions measured so far.
+     * This implementation always returns false.
+     * @return true if rendering should stop, false if not.
+     */
+    protected boolean isCancelled () {
+        return false;
+    }
+
     /**
      * Signal the progress of a render.
      * @param message describing how far the rendering process has progressed.
@@ -270,7 +334,6 @@ public class CUFFont {
 
         int hsize = propGet(CUFProperty.HSize);
         int vsize = propGet(CUFProperty.VSize);
-        CUFGlyph glyph;
         CUFGlyphDimension curdim;
         ArrayList<?> codes = backend.stringToCodes(
                 source);
@@ -280,19 +343,12 @@ public class CUFFont {
                                  hsize,
                                  vsize
         };
-        boolean contains;
         if (codes != null && source.equals("") == false) {
-            for (int k = 0, v = 1, l = codes.size(); k < l; ++k, ++v) {
+            for (int k = 0, v = 1, l = codes.size(); k < l && !isCancelled(); ++k, ++v) {
                 Object code = codes.get(k);
                 if (code != null) {
-                    contains = job.containsKey(source.charAt(k));
-                    glyph = contains ? job.get(source.charAt(k)) : backend.
-                            getGlyph(code);
-                    if (glyph != null) {
-                        if (!contains) {
-                            job.put(source.charAt(k), glyph);
-                        }
-                        curdim = glyph.getDimension();
+                    curdim = backend.getGlyphDimension(code);
+                    if (curdim != null) {
                         ++jobOffset;
                         dims[0] += curdim.getWidth();
                         dims[1] = dims[1] < curdim.getHeight()
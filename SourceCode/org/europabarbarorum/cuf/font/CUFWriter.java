@@ -29,10 +29,23 @@
 package org.europabarbarorum.cuf.font;
 
 import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.europabarbarorum.cuf.font.impl.FormatConstants;
 import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CharTable;
 import org.europabarbarorum.cuf.font.impl.CharTableEntry;
 import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension.BatchKerning;
+import org.europabarbarorum.cuf.font.impl.ResolutionPlan;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.RandomAccessFile;
@@ -44,6 +57,8 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty;
+import org.europabarbarorum.cuf.support.ChannelSink;
+import org.europabarbarorum.cuf.support.Classloader;
 import org.europabarbarorum.cuf.support.CompileJob.FileJob;
 import org.europabarbarorum.cuf.support.DefaultOption;
 import org.europabarbarorum.cuf.support.IOHelp;
@@ -51,6 +66,9 @@ import org.europabarbarorum.cuf.support.MimeTag;
 import org.europabarbarorum.cuf.support.OptionMap;
 import org.europabarbarorum.cuf.support.ResourceHelp;
 import org.europabarbarorum.cuf.support.ResourceHelp.BundleKey;
+import org.europabarbarorum.cuf.support.ResourceHelp.PositiveInteger;
+import org.europabarbarorum.cuf.support.Setting;
+import org.europabarbarorum.cuf.support.Setting.Modifiable;
 
 /**
  * Object to write out a font in CUF format.
@@ -68,7 +86,7 @@ public class CUFWriter<C> extends FileJob {
     private int hsize = 0;
     private final File outfile;
     // character tables
-    private final TreeMap<Character, Integer> cTable;  // chartable
+    private final int[] cTable;  // chartable: glyph code by character, or -1
     private final TreeMap<Character, KernInfo> kTable; // kerning table
     private final OptionMap options;
 
@@ -90,18 +108,33 @@ public class CUFWriter<C> extends FileJob {
         this.data = data;
         this.options = opts;
         this.outfile = resultFile;
-        this.cTable = new TreeMap<Character, Integer>();
+        this.cTable = new int[CharTable.LIMIT];
+        Arrays.fill(cTable, -1);
         this.kTable = data.kerningEnabled() ? new TreeMap<Character, KernInfo>() : null;
     }
 
     @Override
     protected void compile () throws Exception {
         postUpdate(Messages.Start, outfile);
-        File tempfile = createTempFile("temporary-cuf-file-", ".cuf",
-                                       null);
-        stage1(tempfile);
-        stage2(tempfile, outfile);
-        tempfile.delete();
+        switch (options.getOption(OutputMode.class)) {
+            case Staged:
+                File tempfile = createTempFile("temporary-cuf-file-", ".cuf",
+                                               null);
+                stage1(tempfile);
+                stage2(tempfile, outfile);
+                tempfile.delete();
+                break;
+            default:
+                File partial = createPartialFile(".cuf");
+                try {
+                    direct(partial);
+                    replaceDestination(partial);
+                }
+                finally {
+                    partial.delete();
+                }
+                break;
+        }
     }
 
     /**
@@ -201,6 +234,54 @@ public class CUFWriter<C> extends FileJob {
         return CUFProperties;
     }
 
+    /**
+     * Size of the direct buffer used to stage output to a {@link FileChannel}.
+     */
+    private static final int CHANNEL_BUFFER_SIZE = 0x10000;
+
+    /**
+     * Writes the CUF file in a single pass. Room for the header, char table and meta tables is
+     * reserved up front; glyph bitmaps and kerning tables are streamed into the destination
+     * after that region and the reserved region is back-patched with a gather write at the end.
+     * @param outfile the file to write to; this is a temporary file which replaces the destination once complete.
+     * @throws Exception if an error occurs.
+     */
+    private void direct (File outfile) throws Exception {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(outfile, "rw");
+            file.setLength(0L);
+            FileChannel channel = file.getChannel();
+
+            int reserved = FormatConstants.START_OF_GLYPH_META_TABLES.value()
+                    + (data.getCharTable().size() << 3);
+            postUpdate(Messages.Reserve, reserved, outfile);
+            channel.position(reserved);
+
+            ChannelSink sink = new ChannelSink(channel, CHANNEL_BUFFER_SIZE);
+            postUpdate(Messages.WriteGlyphs, outfile);
+            convert(writeGlyphs(sink));
+            sink.flush();
+
+            postUpdate(Messages.Patch, outfile);
+            ByteBuffer[] head = new ByteBuffer[] {
+                ByteBuffer.wrap(MimeTag.CUFFont.tag()),
+                ByteBuffer.wrap(prepareCUFProperties()),
+                ByteBuffer.wrap(prepareCharTable()),
+                ByteBuffer.wrap(this.glyphMetaTables)
+            };
+            channel.position(0L);
+            while (head[head.length - 1].hasRemaining()) {
+                channel.write(head);
+            }
+        }
+        finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
     private void stage1 (File outfile) throws Exception {
         postUpdate(Messages.Stage1);
 
@@ -222,79 +303,155 @@ public class CUFWriter<C> extends FileJob {
 
     class KernInfo {
 
-        private final CUFGlyphDimension dim;
+        private final byte[] row;
 
         private KernInfo () {
-            this.dim = null;
+            this.row = null;
         }
 
         private boolean nulltype () {
-            return this.dim == null;
+            return this.row == null;
         }
 
-        private KernInfo (CUFGlyphDimension dim) {
-            this.dim = dim;
+        private KernInfo (byte[] row) {
+            this.row = row;
         }
 
-        private void write (BufferedOutputStream writer, Set<Character> order,
-                            int def) throws
+        private void write (OutputStream writer, int[] columns, int def) throws
                 Exception {
-            byte[] buf = new byte[order.size()];
+            byte[] buf = new byte[columns.length];
             if (nulltype()) {
                 Arrays.fill(buf, cast(def));
             }
             else {
-                int i = 0;
-                for (Character c : order) {
-                    buf[i] = cast(dim.kerning(c));
-                    ++i;
+                for (int i = 0; i < columns.length; ++i) {
+                    buf[i] = row[columns[i]];
                 }
             }
             writer.write(buf);
         }
     }
+    private char[] kColumns; // characters of the kerning matrix, in char table order
 
-    private void kern (Character c, CUFGlyphDimension dim) {
-        if (this.data.kerningEnabled()) {
-            int def = dim.getAdvanceWith(), w;
-            KernInfo info = kTable.get(c);
-            for (Character k : data.getCharTable().keySet()) {
-                w = dim.kerning(k);
-                if (w != def) {
-                    if (info == null || info.nulltype()) {
-                        info = new KernInfo(dim);
-                        kTable.put(c, info);
-                    }
-                    if (!kTable.containsKey(k)) {
-                        kTable.put(k, new KernInfo());
+    /**
+     * Computes the kerning matrix of all glyphs against all characters in the char table once,
+     * and derives the kerning table from it. Rows which do not differ from the advance width of their
+     * glyph are not stored; all other rows are stored as unsigned bytes and reused when the
+     * kerning tables are written.
+     * @param keys characters of the glyphs, by glyph index.
+     * @param dims dimensions of the glyphs by glyph index, or null for characters without glyph.
+     */
+    private void kern (Character[] keys, CUFGlyphDimension[] dims) throws
+            Exception {
+        Set<Character> all = data.getCharTable().keySet();
+        kColumns = new char[all.size()];
+        int i = 0;
+        for (Character c : all) {
+            kColumns[i] = c;
+            ++i;
+        }
+
+        byte[][] rows = kerningRows(dims);
+        for (i = 0; i < rows.length; ++i) {
+            if (rows[i] != null) {
+                kTable.put(keys[i], new KernInfo(rows[i]));
+            }
+        }
+        byte def;
+        for (i = 0; i < rows.length; ++i) {
+            if (rows[i] != null) {
+                def = cast(dims[i].getAdvanceWith());
+                for (int k = 0; k < kColumns.length; ++k) {
+                    if (rows[i][k] != def && !kTable.containsKey(kColumns[k])) {
+                        kTable.put(kColumns[k], new KernInfo());
                     }
                 }
             }
         }
     }
 
+    private byte[][] kerningRows (final CUFGlyphDimension[] dims) throws
+            Exception {
+        byte[][] rows = new byte[dims.length][];
+        int workers = options.getOption(Rasterization.class) == Rasterization.Parallel
+                ? GlyphWorkers.get()
+                : 1;
+        int max = dims.length;
+        if (workers > 1) {
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    workers,
+                    Classloader.threadFactory("CUFWriter.kerningWorker(%d)"));
+            try {
+                ArrayList<Future<byte[]>> pending = new ArrayList<Future<byte[]>>(max);
+                for (final CUFGlyphDimension dim : dims) {
+                    pending.add(pool.submit(new Callable<byte[]>() {
+
+                        @Override
+                        public byte[] call () throws Exception {
+                            return kerningRow(dim);
+                        }
+                    }));
+                }
+                for (int i = 0; i < max; ++i) {
+                    rows[i] = await(pending.get(i));
+                    postUpdate(i + 1, max, Messages.ComputeKerning, i + 1, max);
+                }
+            }
+            finally {
+                pool.shutdownNow();
+            }
+        }
+        else {
+            for (int i = 0; i < max; ++i) {
+                rows[i] = kerningRow(dims[i]);
+                postUpdate(i + 1, max, Messages.ComputeKerning, i + 1, max);
+            }
+        }
+        return rows;
+    }
+
+    private byte[] kerningRow (CUFGlyphDimension dim) throws Exception {
+        if (dim == null) {
+            return null;
+        }
+        int[] w = new int[kColumns.length];
+        int def = dim.getAdvanceWith();
+        BatchKerning.kerning(dim, kColumns, w);
+        for (int i = 0; i < w.length; ++i) {
+            if (w[i] != def) {
+                byte[] row = new byte[w.length];
+                for (int k = 0; k < w.length; ++k) {
+                    row[k] = cast(w[k]);
+                }
+                return row;
+            }
+        }
+        return null;
+    }
+
     private int extractAdvanceWidth (int dim) throws Exception {
         return dim & dimensionComponent(FormatConstants.GlyphAllocWidth, 0xFF);
     }
 
-    private int[][] padKerning (int[][] tables, BufferedOutputStream writer) throws
+    private int[][] padKerning (int[][] tables, OutputStream writer) throws
             Exception {
         postUpdate(Messages.OrderChars);
         // copy of original tables which will be the re-ordered result
         int[][] tables2 = new int[][] { new int[tables[0].length],
                                         new int[tables[1].length] };
 
-        Set<Character> set = cTable.keySet();
+        Set<Character> set;
         int code = 0, oldCode;
 
         // re-order charactes so that those without kerning are pulled to the front
-        for (Character c : set) {
-            if (!this.data.kerningEnabled() || !kTable.containsKey(c)) {
+        for (char c = 0; c < FormatConstants.__LIMIT__.value(); ++c) {
+            if (cTable[c] >= 0
+                    && (!this.data.kerningEnabled() || !kTable.containsKey(c))) {
 
-                oldCode = cTable.get(c);
+                oldCode = cTable[c];
                 tables2[0][code] = tables[0][oldCode];
                 tables2[1][code] = tables[1][oldCode];
-                cTable.put(c, code);
+                cTable[c] = code;
                 ++code;
             }
         }
@@ -311,10 +468,10 @@ public class CUFWriter<C> extends FileJob {
             // add any characters with kerning tables to the end
             postUpdate(Messages.OrderChars);
             for (Character c : set) {
-                oldCode = cTable.get(c);
+                oldCode = cTable[c];
                 tables2[0][code] = tables[0][oldCode];
                 tables2[1][code] = tables[1][oldCode];
-                cTable.put(c, code);
+                cTable[c] = code;
                 //kTable.get(c).pad(); // ensure uniform lenght of kerning tables
                 ++code;
             }
@@ -324,19 +481,25 @@ public class CUFWriter<C> extends FileJob {
 
                 @Override
                 public int compare (Character o1, Character o2) {
-                    return cTable.get(o1) - cTable.get(o2);
+                    return cTable[o1] - cTable[o2];
                 }
             });
             // add any characters for which kerning is used
             kSet.addAll(set);
+            int[] columns = new int[kz];
+            code = 0;
+            for (Character c : kSet) {
+                columns[code] = Arrays.binarySearch(kColumns, c);
+                ++code;
+            }
             code = 1;
             // write kerning tables
             for (Character c : kSet) {
 
                 kTable.get(c).write(writer,
-                                    kSet,
+                                    columns,
                                     extractAdvanceWidth(
-                        tables2[0][cTable.get(c)]));
+                        tables2[0][cTable[c]]));
                 postUpdate(code, kz, Messages.WriteKerning, code, kz);
                 ++code;
             }
@@ -421,6 +584,150 @@ public class CUFWriter<C> extends FileJob {
         }
     }
 
+    /**
+     * Controls how {@link CUFWriter} produces the CUF file on disk.
+     */
+    public static enum OutputMode implements DefaultOption {
+
+        /**
+         * Glyph data is streamed straight into a file next to the destination after a region reserved for the
+         * header, char table and meta tables; which are back-patched once all glyphs have been written. The file
+         * then replaces the destination, so an existing file is left intact if compilation fails.
+         */
+        Direct,
+        /**
+         * Glyph data is written to a temporary file first and copied to the destination afterwards.
+         */
+        Staged;
+
+        @Override
+        public DefaultOption defaultOption () {
+            return Direct;
+        }
+    }
+
+    /**
+     * Controls whether {@link CUFWriter} rasterizes glyphs and computes kerning pairs on the compile thread
+     * or on a pool of {@link #GlyphWorkers workers}. In either case glyphs are written in char table order, so the
+     * output is the same. Parallel rasterization requires a {@link CUFSource} whose
+     * {@link CUFSource#getGlyph(java.lang.Object) getGlyph} method (and the kerning of the glyphs it returns)
+     * may be called from several threads at once.
+     */
+    public static enum Rasterization implements DefaultOption {
+
+        /**
+         * Glyphs are obtained one at a time on the compile thread.
+         */
+        Sequential,
+        /**
+         * Glyphs are obtained on a pool of {@link #GlyphWorkers workers} and reassembled in char table order.
+         */
+        Parallel;
+
+        @Override
+        public DefaultOption defaultOption () {
+            return Sequential;
+        }
+    }
+    /**
+     * {@link Integer} preference which determines how many threads a {@link CUFWriter} uses to
+     * rasterize glyphs if {@link Rasterization#Parallel} is selected. This setting defaults to
+     * the number of cores available to the program.
+     */
+    public static final Setting<Integer> GlyphWorkers =
+            new Setting<Integer>("cuf.compiler.glyphworkers",
+                                 "" + Runtime.getRuntime().availableProcessors(),
+                                 new PositiveInteger(),
+                                 Modifiable.Conf);
+
+    /**
+     * Supplies glyphs in char table order. If more than one worker is used glyphs are requested ahead of
+     * time from a thread pool, but never more than a fixed window of them is held in memory at once.
+     * If more than one worker is used, glyphs of a {@link TopLevelSource} are obtained through a {@link ResolutionPlan},
+     * so that the cost of obtaining them does not depend on the depth of the hierarchy of fonts.
+     */
+    private class GlyphQueue {
+
+        private final ArrayList<Character> keys;
+        private final ArrayList<C> entries;
+        private final ResolutionPlan plan;
+        private int pending = 0;
+        private final ArrayDeque<Future<CUFGlyph>> inFlight;
+        private final ExecutorService pool;
+        private final int window;
+
+        private GlyphQueue (ArrayList<Character> keys, ArrayList<C> entries,
+                            int workers) {
+            this.keys = keys;
+            this.entries = entries;
+            if (workers > 1) {
+                this.plan = data instanceof TopLevelSource
+                            ? new ResolutionPlan(data)
+                            : null;
+                this.window = workers << 2;
+                this.inFlight = new ArrayDeque<Future<CUFGlyph>>(window);
+                this.pool = Executors.newFixedThreadPool(
+                        workers,
+                        Classloader.threadFactory("CUFWriter.glyphWorker(%d)"));
+            }
+            else {
+                this.plan = null;
+                this.window = 0;
+                this.inFlight = null;
+                this.pool = null;
+            }
+        }
+
+        private CUFGlyph glyph (int i) {
+            return plan == null
+                   ? data.getGlyph(entries.get(i))
+                   : plan.getGlyph(keys.get(i));
+        }
+
+        private void fill () {
+            while (inFlight.size() < window && pending < keys.size()) {
+                final int i = pending++;
+                inFlight.add(pool.submit(new Callable<CUFGlyph>() {
+
+                    @Override
+                    public CUFGlyph call () throws Exception {
+                        return glyph(i);
+                    }
+                }));
+            }
+        }
+
+        private CUFGlyph next () throws Exception {
+            if (pool == null) {
+                return glyph(pending++);
+            }
+            fill();
+            return await(inFlight.poll());
+        }
+
+        private void dispose () {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (plan != null) {
+                plan.dispose();
+            }
+        }
+    }
+
+    private static <T> T await (Future<T> task) throws Exception {
+        try {
+            return task.get();
+        }
+        catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof Exception) {
+                throw (Exception) t;
+            }
+            throw e;
+        }
+    }
+
     /**
      * A list of standard {@link BundleKey exception messages} that a {@link CUFWriter}
      * uses to signal errors.
@@ -475,7 +782,7 @@ public class CUFWriter<C> extends FileJob {
         }
     }
 
-    private int[][] writeGlyphs (BufferedOutputStream writer) throws Exception {
+    private int[][] writeGlyphs (OutputStream writer) throws Exception {
 
         Map<Character, C> map = data.getCharTable();
 
@@ -489,33 +796,63 @@ public class CUFWriter<C> extends FileJob {
         int offset = 0, done = 1, k, index = 0;
         int[] offsets = new int[max], dimensions = new int[max];
 
+        ArrayList<Character> order = new ArrayList<Character>(max);
+        ArrayList<C> entries = new ArrayList<C>(max);
+        for (Entry<Character, C> e : map.entrySet()) {
+            if (e.getKey() != FormatConstants.__LIMIT__.value()) {
+                order.add(e.getKey());
+                entries.add(e.getValue());
+            }
+        }
+        GlyphQueue queue = new GlyphQueue(
+                order,
+                entries,
+                options.getOption(Rasterization.class) == Rasterization.Parallel
+                ? GlyphWorkers.get()
+                : 1);
+
+        boolean kerning = data.kerningEnabled();
+        Character[] keys = kerning ? new Character[max] : null;
+        CUFGlyphDimension[] dims = kerning ? new CUFGlyphDimension[max] : null;
+
         byte[] bitmap;
-        for (Character key : map.keySet()) {
-            k = IOHelp.codeOf(key);
-            if (k != FormatConstants.__LIMIT__.value()) { // omit null characters; the CUF format doesn't support those
-
-                glyph = data.getGlyph(map.get(key));
-                if (glyph != null) {
-                    cTable.put(key, index);
-                    offsets[index] = offset;
-                    dim = glyph.getDimension();
-                    dimensions[index] = insertDimension(dim);
-                    kern(key, dim);
-                    bitmap = glyph.getBitMapData();
-                    offset += bitmap.length;
-
-                    writer.write(bitmap);
-                    postUpdate(done, max, Messages.WriterProgress, done, max);
-                }
-                else {
-                    dimensions[index] = 0;
-                    offsets[index] = 0;
+        try {
+            for (Character key : map.keySet()) {
+                k = key;
+                if (k != FormatConstants.__LIMIT__.value()) { // omit null characters; the CUF format doesn't support those
+
+                    glyph = queue.next();
+                    if (glyph != null) {
+                        cTable[k] = index;
+                        offsets[index] = offset;
+                        dim = glyph.getDimension();
+                        dimensions[index] = insertDimension(dim);
+                        if (kerning) {
+                            keys[index] = key;
+                            dims[index] = dim;
+                        }
+                        bitmap = glyph.getBitMapData();
+                        offset += bitmap.length;
+
+                        writer.write(bitmap);
+                        postUpdate(done, max, Messages.WriterProgress, done, max);
+                    }
+                    else {
+                        dimensions[index] = 0;
+                        offsets[index] = 0;
+                    }
+                    ++index;
                 }
-                ++index;
+                ++done;
             }
-            ++done;
+        }
+        finally {
+            queue.dispose();
         }
         this.glyphDataSize = offset;
+        if (kerning) {
+            kern(keys, dims);
+        }
         return padKerning(new int[][] {
                     dimensions,
                     offsets
@@ -570,10 +907,11 @@ public class CUFWriter<C> extends FileJob {
         Arrays.fill(charTable, (byte) FormatConstants.__LIMIT__.value());
 
         // fill in the char table entries that have actual meaning
-        for (Entry<Character, Integer> entry : cTable.entrySet()) {
-            charTable = IOHelp.fillBuffer(
-                    entry.getValue(),
-                    IOHelp.codeOf(entry.getKey()) << 1, 2, charTable, true);
+        for (int c = 0; c < cTable.length; ++c) {
+            if (cTable[c] >= 0) {
+                charTable = IOHelp.fillBuffer(cTable[c], c << 1, 2, charTable,
+                                              true);
+            }
         }
         return charTable;
     }
@@ -0,0 +1,370 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
+import org.europabarbarorum.cuf.font.impl.CUFSourceEditor;
+import org.europabarbarorum.cuf.font.impl.CUFSourceEditor.EditListener;
+import org.europabarbarorum.cuf.font.impl.CUFSourceEditor.EditableSource;
+import org.europabarbarorum.cuf.font.impl.CharTableEntry;
+import org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty;
+import org.europabarbarorum.cuf.font.impl.WrappedSource.ReadThroughSource;
+import org.europabarbarorum.cuf.support.ResourceHelp.PositiveInteger;
+import org.europabarbarorum.cuf.support.Setting;
+import org.europabarbarorum.cuf.support.Setting.Modifiable;
+
+/**
+ * This class keeps glyphs and glyph dimensions of an underlying {@link CUFSource} in memory, so that
+ * looking up the same characters over and over again (as happens when text is laid out or rendered)
+ * does not require the underlying font to render or read them again.
+ * <p>
+ * The cache is bounded by a memory budget: when the combined size of the cached glyph bitmaps exceeds it,
+ * the least recently used entries are evicted first. Entries are invalidated when changes are made through the
+ * {@link CUFSourceEditor} of the underlying font (or of any font further down its hierarchy).
+ * Apart from that a {@link CachingSource} is transparent: it shares the chartable, chartable entries, editor
+ * and {@link CUFProperty CUF properties} of the font it wraps.
+ * </p>
+ * <p>
+ * Caching is opt-in: whoever creates a {@link CachingSource} owns it, and should {@link #dispose() } it once it is
+ * no longer needed, because each {@link CachingSource} registers {@link EditListener} objects with the editors of
+ * the font it wraps. Changes which do not go through an editor, such as registering a
+ * {@link org.europabarbarorum.cuf.font.pipes.Transform} with the pipeline of the wrapped font, are not noticed:
+ * the owner must {@link #invalidate() } the cache after making them.
+ * </p>
+ * @param <C> type of object bound to characters in the chartable of the cached source font.
+ * @author Johan Ouwerkerk
+ */
+public class CachingSource<C> extends ReadThroughSource<C> {
+
+    /**
+     * {@link Integer} preference which determines the default memory budget (in KiB) of a {@link CachingSource}.
+     * This setting defaults to 16384, i.e. 16 MiB.
+     */
+    public static final Setting<Integer> CacheBudget = new Setting<Integer>(
+            "cuf.cache.budget",
+            "16384",
+            new PositiveInteger(),
+            Modifiable.Conf);
+    /**
+     * Estimate of the memory used by a cache entry apart from the glyph bitmap (in bytes).
+     */
+    private static final int OVERHEAD = 96;
+
+    private final LinkedHashMap<Object, Slot> cache =
+            new LinkedHashMap<Object, Slot>(256, 0.75f, true);
+    private final long budget;
+    private long weight = 0L;
+    /**
+     * Incremented whenever entries are invalidated, so that a glyph computed while the font was being edited
+     * is not stored. Guarded by the lock on {@link #cache}.
+     */
+    private long generation = 0L;
+    private final EditListener top, nested;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    /**
+     * Create a new {@link CachingSource} with a memory budget determined by the {@link #CacheBudget} preference.
+     * @param name the {@link #init(java.lang.String) font name} to use.
+     * @param toCache the {@link CUFSource font} to cache.
+     */
+    public CachingSource (String name, CUFSource<C> toCache) {
+        this(name, toCache, CacheBudget.get() * 1024L);
+    }
+
+    /**
+     * Create a new {@link CachingSource}.
+     * @param name the {@link #init(java.lang.String) font name} to use.
+     * @param toCache the {@link CUFSource font} to cache.
+     * @param budget the maximum amount of memory (in bytes) to use for cached glyphs.
+     */
+    public CachingSource (String name, CUFSource<C> toCache, long budget) {
+        super(name, toCache);
+        this.budget = budget;
+        this.top = new Invalidator(this, true);
+        this.nested = new Invalidator(this, false);
+        listen(toCache, top, nested);
+    }
+
+    /**
+     * Stop invalidating this {@link CachingSource} when the font it wraps is edited, and discard all cached information.
+     * This removes the {@link EditListener} objects registered when the cache was created. The cache should not be used
+     * afterwards.
+     */
+    public void dispose () {
+        unlisten(wrapped, top, nested);
+        invalidate();
+    }
+
+    /**
+     * Register {@link EditListener} objects with the {@link CUFSourceEditor} of a font and of all fonts further down its hierarchy.
+     * @param src the font to listen to.
+     * @param top the {@link EditListener} to register with the font itself. Characters it is passed are characters of
+     * the chartable of the given font.
+     * @param nested the {@link EditListener} to register with the fonts the given font is built from. Characters it is passed
+     * do not necessarily correspond to characters of the chartable of the given font.
+     */
+    public static void listen (CUFSource<?> src, EditListener top,
+                                EditListener nested) {
+        if (src instanceof EditableSource && ((EditableSource) src).editingEnabled()) {
+            ((EditableSource) src).getEditor().addEditListener(top);
+        }
+        if (src instanceof TopLevelSource) {
+            for (CUFSource<?> s : ((TopLevelSource<?>) src).getSources()) {
+                listen(s, nested, nested);
+            }
+        }
+    }
+
+    /**
+     * Unregister {@link EditListener} objects registered through
+     * {@link #listen(org.europabarbarorum.cuf.font.CUFSource, org.europabarbarorum.cuf.font.impl.CUFSourceEditor.EditListener, org.europabarbarorum.cuf.font.impl.CUFSourceEditor.EditListener) }.
+     * @param src the font which is listened to.
+     * @param top the {@link EditListener} registered with the font itself.
+     * @param nested the {@link EditListener} registered with the fonts the given font is built from.
+     */
+    public static void unlisten (CUFSource<?> src, EditListener top,
+                                 EditListener nested) {
+        if (src instanceof EditableSource && ((EditableSource) src).editingEnabled()) {
+            ((EditableSource) src).getEditor().removeEditListener(top);
+        }
+        if (src instanceof TopLevelSource) {
+            for (CUFSource<?> s : ((TopLevelSource<?>) src).getSources()) {
+                unlisten(s, nested, nested);
+            }
+        }
+    }
+
+    /**
+     * An entry in the cache: either a glyph, or only its dimension.
+     */
+    private static class Slot {
+
+        private final CUFGlyph glyph;
+        private final CUFGlyphDimension dim;
+        private final int weight;
+
+        private Slot (CUFGlyph glyph, CUFGlyphDimension dim) {
+            this.glyph = glyph;
+            this.dim = dim;
+            this.weight = OVERHEAD + (glyph == null ? 0 : glyph.getBitMapData().length);
+        }
+    }
+
+    /**
+     * An {@link EditListener} which invalidates entries of a {@link CachingSource}.
+     * It only holds a weak reference to its {@link CachingSource}, so that
+     * registering it with an {@link CUFSourceEditor} does not keep the cache in memory.
+     */
+    private static class Invalidator implements EditListener {
+
+        private final WeakReference<CachingSource<?>> ref;
+        private final boolean precise;
+
+        private Invalidator (CachingSource<?> src, boolean precise) {
+            this.ref = new WeakReference<CachingSource<?>>(src);
+            this.precise = precise;
+        }
+
+        @Override
+        public void edited (Character c) {
+            CachingSource<?> src = ref.get();
+            if (src != null) {
+                if (precise && c != null) {
+                    src.invalidate(c);
+                }
+                else {
+                    src.invalidate();
+                }
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public CUFGlyph getGlyph (Object entry) {
+        if (entry == null) {
+            return null;
+        }
+        Slot slot;
+        long gen;
+        synchronized (cache) {
+            slot = cache.get(entry);
+            gen = generation;
+        }
+        if (slot != null && slot.glyph != null) {
+            hits.incrementAndGet();
+            return slot.glyph;
+        }
+        misses.incrementAndGet();
+        CUFGlyph glyph = wrapped.getGlyph(entry);
+        if (glyph != null) {
+            store(entry, new Slot(glyph, null), gen);
+        }
+        return glyph;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public CUFGlyphDimension getGlyphDimension (Object charCode) {
+        if (charCode == null) {
+            return null;
+        }
+        Slot slot;
+        long gen;
+        synchronized (cache) {
+            slot = cache.get(charCode);
+            gen = generation;
+        }
+        if (slot != null) {
+            hits.incrementAndGet();
+            return slot.glyph == null ? slot.dim : slot.glyph.getDimension();
+        }
+        misses.incrementAndGet();
+        CUFGlyphDimension dim = wrapped.getGlyphDimension(charCode);
+        if (dim != null) {
+            store(charCode, new Slot(null, dim), gen);
+        }
+        return dim;
+    }
+
+    /**
+     * Store an entry in the cache, unless entries were invalidated since it was looked up.
+     * @param entry the key of the entry.
+     * @param slot the information to cache.
+     * @param gen the value of {@link #generation} when the entry was looked up.
+     */
+    private void store (Object entry, Slot slot, long gen) {
+        synchronized (cache) {
+            if (gen != generation) {
+                return;
+            }
+            Slot old = cache.put(entry, slot);
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += slot.weight;
+            Iterator<Slot> eldest = cache.values().iterator();
+            while (weight > budget && eldest.hasNext()) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Discard cached information for the glyph which corresponds to the given character.
+     * Entries for which it cannot be determined which character they correspond to are discarded as well.
+     * @param c the character of the glyph, as used by the {@link CUFSourceEditor} of the wrapped font.
+     */
+    public void invalidate (Character c) {
+        synchronized (cache) {
+            ++generation;
+            Iterator<Entry<Object, Slot>> iter = cache.entrySet().iterator();
+            Entry<Object, Slot> e;
+            Object k;
+            while (iter.hasNext()) {
+                e = iter.next();
+                k = e.getKey();
+                if (k instanceof CharTableEntry
+                        ? ((CharTableEntry) k).getChar() == c.charValue()
+                        : !(k instanceof Character) || c.equals(k)) {
+                    weight -= e.getValue().weight;
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discard all cached information.
+     */
+    public void invalidate () {
+        synchronized (cache) {
+            clear();
+        }
+    }
+
+    private void clear () {
+        ++generation;
+        cache.clear();
+        weight = 0L;
+    }
+
+    @Override
+    public int[] getCUFProperties () {
+        return wrapped.getCUFProperties();
+    }
+
+    @Override
+    public int getCUFProperties (CUFProperty index) {
+        return wrapped.getCUFProperties(index);
+    }
+
+    @Override
+    public void setCUFProperties (CUFProperty index, int value) {
+        wrapped.setCUFProperties(index, value);
+    }
+
+    @Override
+    public boolean isAvailable (CUFProperty index) {
+        return wrapped.isAvailable(index);
+    }
+
+    /**
+     * Get the number of lookups which were served from the cache.
+     * @return the number of cache hits so far.
+     */
+    public long getHits () {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups which had to be passed on to the wrapped font.
+     * @return the number of cache misses so far.
+     */
+    public long getMisses () {
+        return misses.get();
+    }
+
+    /**
+     * Get the estimated amount of memory currently used by the cache.
+     * @return the estimated size of all cached entries in bytes.
+     */
+    public long getWeight () {
+        synchronized (cache) {
+            return weight;
+        }
+    }
+}
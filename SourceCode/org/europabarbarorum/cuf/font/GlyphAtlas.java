@@ -0,0 +1,362 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
+import org.europabarbarorum.cuf.font.impl.CUFSourceEditor.EditListener;
+
+/**
+ * This class packs the glyphs of a {@link CUFSource} into a single {@link BufferedImage}, the atlas, and keeps an index of
+ * where each glyph is stored in it. Text can then be drawn by copying sub-rectangles of the atlas with
+ * {@link Graphics#drawImage(java.awt.Image, int, int, int, int, int, int, int, int, java.awt.image.ImageObserver) },
+ * which Java2D can accelerate, instead of painting glyph bitmaps pixel by pixel.
+ * <p>
+ * Glyphs are packed on shelves: rows of glyphs which share a height. The atlas is built incrementally: glyphs are added
+ * as they are requested through {@link #locate(java.lang.Object) }, and the image grows in height as required.
+ * {@link #fill() } adds all glyphs of the font at once, for instance before the atlas is {@link #export(java.io.File, java.io.File) exported}.
+ * All glyphs are drawn in a single colour, fixed when the atlas is created.
+ * The atlas is discarded and rebuilt whenever changes are made through the {@link org.europabarbarorum.cuf.font.impl.CUFSourceEditor}
+ * of the font (or of any font further down its hierarchy). Call {@link #dispose() } once the atlas is no longer needed.
+ * </p>
+ * <p>
+ * Glyphs are written into the atlas through its {@link java.awt.image.WritableRaster}, never through the backing array
+ * of the image, so that Java2D remains free to cache the image in video memory.
+ * </p>
+ * @param <C> type of object bound to characters in the chartable of the font.
+ * @author Johan Ouwerkerk
+ */
+public class GlyphAtlas<C> {
+
+    /**
+     * Initial width of the atlas image.
+     */
+    private static final int WIDTH = 512;
+    /**
+     * Initial height of the atlas image.
+     */
+    private static final int HEIGHT = 64;
+    /**
+     * Space between glyphs, so that filtered scaling of a glyph does not pick up its neighbours.
+     */
+    private static final int PAD = 1;
+    private final CUFSource<C> source;
+    private final int rgb;
+    private final HashMap<C, Rectangle> index = new HashMap<C, Rectangle>();
+    /**
+     * Packed shelves: for each shelf its top edge, height and the x coordinate at which the next glyph goes.
+     */
+    private final ArrayList<int[]> shelves = new ArrayList<int[]>();
+    private BufferedImage image;
+    private int width;
+    private int used;
+    private int version;
+
+    /**
+     * Create a new, empty {@link GlyphAtlas}.
+     * @param source the {@link CUFSource} to take glyphs from.
+     * @param rgb colour to draw glyphs in. Alpha bits of this value are ignored.
+     */
+    public GlyphAtlas (CUFSource<C> source, int rgb) {
+        this.source = source;
+        this.rgb = rgb & 0x00FFFFFF;
+        reset();
+        this.top = new Invalidator(this);
+        this.nested = new Invalidator(this);
+        CachingSource.listen(source, top, nested);
+    }
+    private final EditListener top, nested;
+
+    /**
+     * Stop rebuilding this {@link GlyphAtlas} when the font is edited, and discard all glyphs.
+     * This removes the {@link EditListener} objects registered when the atlas was created.
+     * The atlas should not be used afterwards.
+     */
+    public synchronized void dispose () {
+        CachingSource.unlisten(source, top, nested);
+        reset();
+    }
+
+    /**
+     * An {@link EditListener} which discards the contents of a {@link GlyphAtlas}.
+     * It only holds a weak reference to its {@link GlyphAtlas}, so that
+     * registering it with an editor does not keep the atlas in memory.
+     */
+    private static class Invalidator implements EditListener {
+
+        private final WeakReference<GlyphAtlas<?>> ref;
+
+        private Invalidator (GlyphAtlas<?> atlas) {
+            this.ref = new WeakReference<GlyphAtlas<?>>(atlas);
+        }
+
+        @Override
+        public void edited (Character c) {
+            GlyphAtlas<?> atlas = ref.get();
+            if (atlas != null) {
+                atlas.invalidate();
+            }
+        }
+    }
+
+    private void reset () {
+        index.clear();
+        shelves.clear();
+        used = 0;
+        width = WIDTH;
+        image = null;
+        allocate(HEIGHT);
+    }
+
+    private void allocate (int height) {
+        BufferedImage old = image;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        if (old != null && used > 0) {
+            image.getRaster().setRect(old.getRaster().createChild(
+                    0, 0, old.getWidth(), Math.min(used, old.getHeight()), 0, 0, null));
+        }
+    }
+
+    /**
+     * Discard all glyphs in this atlas. Glyphs are added again as they are requested.
+     * Any {@link BufferedImage} previously obtained from {@link #getImage() } is no longer updated.
+     */
+    public synchronized void invalidate () {
+        reset();
+        ++version;
+    }
+
+    /**
+     * Get the number of times this atlas has been {@link #invalidate() invalidated}. Callers which hold on to
+     * rectangles returned by {@link #locate(java.lang.Object) } can use this to detect they are stale.
+     * @return the number of times the contents of the atlas were discarded.
+     */
+    public synchronized int getVersion () {
+        return version;
+    }
+
+    /**
+     * Get the {@link CUFSource} this atlas takes glyphs from.
+     * @return the font of this atlas.
+     */
+    public CUFSource<C> getSource () {
+        return source;
+    }
+
+    /**
+     * Get the colour glyphs are drawn in.
+     * @return the RGB value of the colour of this {@link GlyphAtlas}, without alpha bits.
+     */
+    public int getColor () {
+        return rgb;
+    }
+
+    /**
+     * Get the atlas image. The image is replaced by a taller one when it runs out of space,
+     * so callers should not hold on to it across calls to {@link #locate(java.lang.Object) }.
+     * @return the {@link BufferedImage} which holds the glyphs packed so far.
+     */
+    public synchronized BufferedImage getImage () {
+        return image;
+    }
+
+    /**
+     * Find the glyph for a given entry in the atlas, adding it if necessary.
+     * @param entry the entry of the glyph, as used by {@link CUFSource#getGlyph(java.lang.Object) }.
+     * @return the area of the atlas image that holds the glyph, or null if the font has no glyph for the entry
+     * or the glyph is empty.
+     */
+    public synchronized Rectangle locate (C entry) {
+        if (entry == null) {
+            return null;
+        }
+        if (index.containsKey(entry)) {
+            return index.get(entry);
+        }
+        Rectangle r = add(source.getGlyph(entry));
+        index.put(entry, r);
+        return r;
+    }
+
+    private Rectangle add (CUFGlyph glyph) {
+        if (glyph == null) {
+            return null;
+        }
+        CUFGlyphDimension dim = glyph.getDimension();
+        int w = dim.getWidth(), h = dim.getHeight();
+        if (w <= 0 || h <= 0) {
+            return null;
+        }
+        if (w > width) {
+            while (w > width) {
+                width <<= 1;
+            }
+            allocate(image.getHeight());
+        }
+        int[] shelf = shelf(w, h);
+        Rectangle r = new Rectangle(shelf[2], shelf[0], w, h);
+        shelf[2] += w + PAD;
+        // the area of a new glyph is still transparent, so the pixels need not be composited
+        byte[] alpha = glyph.getBitMapData();
+        int[] pixels = new int[w * h];
+        for (int i = 0; i < pixels.length; ++i) {
+            int a = alpha[i] & 0xFF;
+            pixels[i] = a == 0 ? 0 : rgb | (a << 24);
+        }
+        image.getRaster().setDataElements(r.x, r.y, w, h, pixels);
+        return r;
+    }
+
+    /**
+     * Find the shelf which fits a glyph and wastes least height, or open a new one.
+     */
+    private int[] shelf (int w, int h) {
+        int[] best = null;
+        for (int[] s : shelves) {
+            if (s[1] >= h && s[2] + w <= width
+                    && (best == null || s[1] < best[1])) {
+                best = s;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        int top = used;
+        used += h + PAD;
+        int height = image.getHeight();
+        if (used > height) {
+            while (used > height) {
+                height <<= 1;
+            }
+            allocate(height);
+        }
+        best = new int[] { top, h, 0 };
+        shelves.add(best);
+        return best;
+    }
+
+    /**
+     * Add all glyphs of the font to this atlas. Glyphs are added from tall to short, which packs them more tightly
+     * than adding them in the order they happen to be requested.
+     */
+    public synchronized void fill () {
+        ArrayList<C> todo = new ArrayList<C>();
+        final HashMap<C, Integer> heights = new HashMap<C, Integer>();
+        for (C entry : source.getCharTable().values()) {
+            if (entry != null && !index.containsKey(entry) && !heights.containsKey(entry)) {
+                CUFGlyphDimension dim = source.getGlyphDimension(entry);
+                heights.put(entry, dim == null ? 0 : dim.getHeight());
+                todo.add(entry);
+            }
+        }
+        Collections.sort(todo, new Comparator<C>() {
+
+            @Override
+            public int compare (C o1, C o2) {
+                return heights.get(o2).compareTo(heights.get(o1));
+            }
+        });
+        for (C entry : todo) {
+            locate(entry);
+        }
+    }
+
+    /**
+     * Draw a glyph from this atlas.
+     * @param g the {@link Graphics} to draw on.
+     * @param entry the entry of the glyph, as used by {@link CUFSource#getGlyph(java.lang.Object) }.
+     * @param x x coordinate of the top left corner of the glyph.
+     * @param y y coordinate of the top left corner of the glyph.
+     * @return true if a glyph was drawn, false if the font has no (non-empty) glyph for the entry.
+     */
+    public synchronized boolean draw (Graphics g, C entry, int x, int y) {
+        Rectangle r = locate(entry);
+        if (r == null) {
+            return false;
+        }
+        g.drawImage(image, x, y, x + r.width, y + r.height,
+                    r.x, r.y, r.x + r.width, r.y + r.height, null);
+        return true;
+    }
+
+    /**
+     * Write the complete atlas to disk for visual inspection. This method {@link #fill() fills} the atlas first.
+     * The image is saved as a PNG file. The metrics file is a plain text file with one line per character, listing
+     * the character code followed by the x, y, width and height of its glyph in the image, the advance width and the
+     * y offset of the glyph relative to the base line; separated by tabs.
+     * @param png the file to save the atlas image to.
+     * @param metrics the file to save the metrics to.
+     * @throws IOException if either file cannot be written.
+     */
+    public synchronized void export (File png, File metrics) throws IOException {
+        fill();
+        ImageIO.write(image.getSubimage(0, 0, width, Math.max(1, used)), "png", png);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(metrics), "UTF-8"));
+        try {
+            out.println("# char\tx\ty\twidth\theight\tadvance\ty-offset");
+            for (Map.Entry<Character, C> e : source.getCharTable().entrySet()) {
+                Rectangle r = locate(e.getValue());
+                CUFGlyphDimension dim = source.getGlyphDimension(e.getValue());
+                if (dim == null) {
+                    continue;
+                }
+                out.printf("U+%04X\t%d\t%d\t%d\t%d\t%d\t%d%n",
+                           (int) e.getKey().charValue(),
+                           r == null ? 0 : r.x,
+                           r == null ? 0 : r.y,
+                           r == null ? 0 : r.width,
+                           r == null ? 0 : r.height,
+                           dim.getAdvanceWith(),
+                           dim.getY());
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException(metrics.toString());
+        }
+    }
+}
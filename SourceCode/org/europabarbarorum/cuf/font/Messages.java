@@ -84,6 +84,9 @@ public enum Messages implements BundleKey {
     CopyKerning(CUFWriter.class),
     MetaData(CUFWriter.class),
     CopyGlyphs(CUFWriter.class),
+    Reserve(CUFWriter.class),
+    Patch(CUFWriter.class),
+    ComputeKerning(CUFWriter.class),
     JobTitle(CUFWriter.class);
 
     private Messages (Class type) {
@@ -31,20 +31,33 @@ package org.europabarbarorum.cuf.font;
 import org.europabarbarorum.cuf.font.impl.CUFGlyph;
 import org.europabarbarorum.cuf.font.impl.CharTableEntry;
 import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import org.europabarbarorum.cuf.font.impl.AbstractCUFSource;
 import org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty;
+import org.europabarbarorum.cuf.font.impl.ResolutionPlan.Resolvable;
+import org.europabarbarorum.cuf.font.impl.ResolutionPlan.Step;
 import org.europabarbarorum.cuf.font.MixedSource.MixerCharTableEntry;
+import org.europabarbarorum.cuf.support.Classloader;
 
 /**
  * This class provides a “read-only” view of multiple {@link CUFSource} objects combined into a single font.
+ * Fonts are mixed in the order in which they are added: if more than one font supplies a character, the
+ * {@link MixinMode} of each later font determines whether it replaces the entry of the earlier ones.
+ * @see #prepare(java.util.List)
  * @author Johan Ouwerkerk
  */
 public class MixedSource extends AbstractCUFSource<MixerCharTableEntry>
-        implements TopLevelSource<MixerCharTableEntry> {
+        implements TopLevelSource<MixerCharTableEntry>, Resolvable {
 
     /**
      * Create a {@link MixedSource}. Arguments should be of equal lenght, and may not contain nulls. 
@@ -61,7 +74,7 @@ public class MixedSource extends AbstractCUFSource<MixerCharTableEntry>
                     Messages.MixedListsLengthError.format(sources.length,
                                                           modes.length));
         }
-        mixedFonts = new HashMap<String, Mixed>(sources.length);
+        mixedFonts = new LinkedHashMap<String, Mixed>(sources.length);
         int i = 0;
         for (CUFSource src : sources) {
             if (src == null) {
@@ -80,7 +93,58 @@ public class MixedSource extends AbstractCUFSource<MixerCharTableEntry>
             ++i;
         }
     }
-    private HashMap<String, Mixed> mixedFonts;
+    private LinkedHashMap<String, Mixed> mixedFonts;
+
+    /**
+     * Create and prepare the fonts to mix into a {@link MixedSource}. Creating a font typically involves
+     * reading a file or scanning the characters supported by a system font, so if more than one
+     * processor is available the given tasks are run in parallel. Tasks must not
+     * share fonts which are not yet {@link CUFSource#isPrepared() prepared}.
+     * @param tasks a list of tasks, each of which returns a prepared {@link CUFSource}.
+     * @return the results of the given tasks, in the same order.
+     * @throws Exception the exception thrown by the first task (in order of the list) that failed.
+     */
+    public static CUFSource[] prepare (List<? extends Callable<? extends CUFSource>> tasks)
+            throws Exception {
+        int n = tasks.size();
+        CUFSource[] result = new CUFSource[n];
+        int threads = Math.min(n, Runtime.getRuntime().availableProcessors());
+        if (threads < 2) {
+            for (int i = 0; i < n; ++i) {
+                result[i] = tasks.get(i).call();
+            }
+            return result;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+                                                            Classloader.
+                threadFactory("MixedSource.prepare(%d)"));
+        try {
+            ArrayList<Future<? extends CUFSource>> parts =
+                    new ArrayList<Future<? extends CUFSource>>(n);
+            for (Callable<? extends CUFSource> task : tasks) {
+                parts.add(pool.submit(task));
+            }
+            for (int i = 0; i < n; ++i) {
+                try {
+                    result[i] = parts.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    Throwable t = e.getCause();
+                    if (t instanceof Exception) {
+                        throw (Exception) t;
+                    }
+                    if (t instanceof Error) {
+                        throw (Error) t;
+                    }
+                    throw e;
+                }
+            }
+            return result;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
 
     private void checkPrepared (CUFSource source) {
         if (!source.isPrepared()) {
@@ -181,6 +245,12 @@ public class MixedSource extends AbstractCUFSource<MixerCharTableEntry>
                 entry.character));
     }
 
+    @Override
+    public void resolve (Character c, Step step) {
+        MixerCharTableEntry m = getCharTable().get(c);
+        step.descend(m.source, m.character, null);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public CUFGlyphDimension getGlyphDimension (MixerCharTableEntry entry) {
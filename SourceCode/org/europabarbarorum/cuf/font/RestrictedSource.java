@@ -28,13 +28,22 @@
  */
 package org.europabarbarorum.cuf.font;
 
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
 import org.europabarbarorum.cuf.font.MappedSource.Mapping;
+import org.europabarbarorum.cuf.font.impl.CharTable;
 import org.europabarbarorum.cuf.font.impl.WrappedSource;
 
 /**
  * This class provides a way to restrict a {@link CUFSource} to a subset of its entire character range.
  * This can be useful to trim the fat in a given font or for later re-mapping of the character range.
+ * <p>
+ * If the {@link Restriction} is a {@link CharSetRestriction} the chartable is derived from slices of the
+ * chartable of the restricted font, instead of checking each of its characters in turn. All
+ * {@link Restriction} objects created by the static methods of this class are {@link CharSetRestriction} objects.
+ * </p>
  * @param <C> type of object bound to characters in the chartable of the restricted source font.
  * @see WrappedSource
  * @author Johan Ouwerkerk
@@ -59,18 +68,49 @@ public class RestrictedSource<C> extends MappedSource<C> {
         boolean isSupported (Character c);
     }
 
+    /**
+     * A {@link Restriction} which can describe all characters it supports as a set.
+     */
+    public static interface CharSetRestriction extends Restriction {
+
+        /**
+         * Get the characters supported by this {@link Restriction}.
+         * @return a {@link BitSet} with a bit set for each supported character. The result must not be modified.
+         */
+        BitSet toBitSet ();
+    }
+
+    private static class CharSet implements CharSetRestriction {
+
+        private final BitSet set;
+
+        private CharSet (BitSet set) {
+            this.set = set;
+        }
+
+        @Override
+        public boolean isSupported (Character c) {
+            return set.get(c);
+        }
+
+        @Override
+        public BitSet toBitSet () {
+            return set;
+        }
+    }
+
+    private static BitSet all () {
+        BitSet set = new BitSet(CharTable.LIMIT);
+        set.set(0, CharTable.LIMIT);
+        return set;
+    }
+
     /**
      * Simple {@link Restriction} to accept any character.
      * @return a {@link Restriction} that accepts any character.
      */
     public static Restriction acceptAll () {
-        return new Restriction() {
-
-            @Override
-            public boolean isSupported (Character c) {
-                return true;
-            }
-        };
+        return new CharSet(all());
     }
 
     /**
@@ -78,13 +118,7 @@ public class RestrictedSource<C> extends MappedSource<C> {
      * @return a {@link Restriction} that discards all characters.
      */
     public static Restriction discardAll () {
-        return new Restriction() {
-
-            @Override
-            public boolean isSupported (Character c) {
-                return false;
-            }
-        };
+        return new CharSet(new BitSet());
     }
 
     /**
@@ -103,33 +137,62 @@ public class RestrictedSource<C> extends MappedSource<C> {
             throw new IllegalArgumentException(
                     Messages.InvalidCharRange.format(start, end));
         }
-        return new Restriction() {
-
-            @Override
-            public boolean isSupported (Character c) {
-                return includeRange
-                        == (c.compareTo(start) >= 0 && c.compareTo(end) <= 0);
-            }
-        };
+        BitSet set = includeRange ? new BitSet(CharTable.LIMIT) : all();
+        set.set(start, end + 1, includeRange);
+        return new CharSet(set);
     }
 
     /**
      * Create a {@link Restriction} to limit a {@link RestrictedSource font} to include/exclude
-     * a given collection of characters.
+     * a given collection of characters. The characters are copied: later changes to the
+     * {@link Collection} do not affect the result.
      * @param set the {@link Collection} of characters to restrict the font to.
      * @param includeSet controls whether or not the range parameter defines the characters to include.
      * @return a {@link Restriction} to limit a {@link RestrictedSource font} as specified.
      */
     public static Restriction collection (final Collection<Character> set,
                                           final boolean includeSet) {
-        return new Restriction() {
+        BitSet bits = new BitSet(CharTable.LIMIT);
+        for (Character c : set) {
+            if (c != null) {
+                bits.set(c);
+            }
+        }
+        if (!includeSet) {
+            bits.flip(0, CharTable.LIMIT);
+        }
+        return new CharSet(bits);
+    }
 
-            @Override
-            public boolean isSupported (Character c) {
-                return set.contains(c) == includeSet;
+    /**
+     * Combine {@link Restriction} objects into one which supports only those characters supported by all
+     * of them. If all given {@link Restriction} objects are {@link CharSetRestriction} objects, so is the result.
+     * This allows a single {@link RestrictedSource} to replace a chain of them.
+     * @param restrictions the {@link Restriction} objects to combine.
+     * @return a {@link Restriction} that is the intersection of the given {@link Restriction} objects.
+     */
+    public static Restriction intersect (final Restriction... restrictions) {
+        BitSet set = all();
+        for (Restriction r : restrictions) {
+            if (!(r instanceof CharSetRestriction)) {
+                return new Restriction() {
+
+                    @Override
+                    public boolean isSupported (Character c) {
+                        for (Restriction r : restrictions) {
+                            if (!r.isSupported(c)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                };
             }
-        };
+            set.and(((CharSetRestriction) r).toBitSet());
+        }
+        return new CharSet(set);
     }
+    private final Restriction restriction;
 
     /**
      * Create a {@link CUFSource} that provides only a subset of the characters used by 
@@ -146,5 +209,48 @@ public class RestrictedSource<C> extends MappedSource<C> {
                 return restriction.isSupported(in) ? in : null;
             }
         });
+        this.restriction = restriction;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void deriveCharTable () {
+        if (!(restriction instanceof CharSetRestriction)) {
+            super.deriveCharTable();
+            return;
+        }
+        BitSet supported = ((CharSetRestriction) restriction).toBitSet();
+        Map<Character, C> table = wrapped.getCharTable();
+        BitSet present;
+        if (table instanceof CharTable) {
+            present = ((CharTable<C>) table).toBitSet();
+            present.and(supported);
+        }
+        else if (table instanceof SortedMap) {
+            // visit only the slices of the wrapped chartable which fall in a supported range
+            SortedMap<Character, C> sorted = (SortedMap<Character, C>) table;
+            present = new BitSet(CharTable.LIMIT);
+            int from = supported.nextSetBit(0), to;
+            while (from >= 0 && from < CharTable.LIMIT) {
+                to = supported.nextClearBit(from);
+                SortedMap<Character, C> slice = to >= CharTable.LIMIT
+                                                ? sorted.tailMap((char) from)
+                                                : sorted.subMap((char) from,
+                                                                (char) to);
+                for (Character c : slice.keySet()) {
+                    present.set(c);
+                }
+                from = supported.nextSetBit(to);
+            }
+        }
+        else {
+            present = new BitSet(CharTable.LIMIT);
+            for (Character c : table.keySet()) {
+                if (supported.get(c)) {
+                    present.set(c);
+                }
+            }
+        }
+        charTable = new CharTable.Identity(present);
     }
 }
@@ -0,0 +1,151 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
+import org.europabarbarorum.cuf.font.impl.CharTable;
+
+/**
+ * This class measures the width of text in a {@link CUFSource} the same way {@link CUFFont} lays it out,
+ * without rendering any glyphs. The dimensions of a glyph are looked up the first time its character is measured,
+ * and the kerning of a pair of characters the first time the pair occurs; both are kept for later use.
+ * A {@link TextMeasure} may be used by several threads at once.
+ * @author Johan Ouwerkerk
+ */
+public class TextMeasure {
+
+    private static final Object missing = new Object();
+    private final CUFSource source;
+    private final int[] index = new int[CharTable.LIMIT];
+    private final Object[] glyphs;
+    private final AtomicReferenceArray<Object> dims;
+    /**
+     * Kerning of pairs measured so far, keyed on the position of the first glyph and the second character.
+     */
+    private final ConcurrentHashMap<Integer, Integer> pairs =
+            new ConcurrentHashMap<Integer, Integer>();
+
+    /**
+     * Create a new {@link TextMeasure}.
+     * @param source the {@link CUFSource} to measure text in.
+     */
+    @SuppressWarnings("unchecked")
+    public TextMeasure (CUFSource source) {
+        Map<Character, Object> table = source.getCharTable();
+        Object[] gs = new Object[table.size()];
+        Arrays.fill(index, -1);
+        int n = 0;
+        for (Map.Entry<Character, Object> e : table.entrySet()) {
+            if (e.getValue() != null) {
+                gs[n] = e.getValue();
+                index[e.getKey()] = n;
+                ++n;
+            }
+        }
+        this.source = source;
+        this.glyphs = Arrays.copyOf(gs, n);
+        this.dims = new AtomicReferenceArray<Object>(n);
+    }
+
+    /**
+     * Look up the dimensions of the glyph at a given position. Lookups are done while holding the lock of the
+     * {@link CUFSource}.
+     * @return the dimensions of the glyph, or null if the font has none for it.
+     */
+    @SuppressWarnings("unchecked")
+    private CUFGlyphDimension lookup (int p) {
+        Object dim = dims.get(p);
+        if (dim == null) {
+            synchronized (source) {
+                dim = source.getGlyphDimension(glyphs[p]);
+            }
+            dims.set(p, dim == null ? missing : dim);
+        }
+        return dim == missing ? null : (CUFGlyphDimension) dim;
+    }
+
+    private int advance (int p, char next) {
+        CUFGlyphDimension dim = lookup(p);
+        if (dim == null) {
+            return 0;
+        }
+        Integer key = (p << 16) | next;
+        Integer k = pairs.get(key);
+        if (k == null) {
+            synchronized (source) {
+                k = dim.kerning(next);
+            }
+            pairs.put(key, k);
+        }
+        return k;
+    }
+
+    private int advance (int p) {
+        CUFGlyphDimension dim = lookup(p);
+        return dim == null ? 0 : dim.getAdvanceWith();
+    }
+
+    /**
+     * Measure a single line of text. Characters which are not supported by the font take up no space.
+     * @param line the text to measure.
+     * @return the sum of the advance widths of the glyphs of the text, with kerning applied. This is the
+     * advance width computed by {@link CUFFont#calculateRenderDimensions(java.lang.String)} without the
+     * {@link org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty#HSize} margin it adds.
+     */
+    public int width (CharSequence line) {
+        int w = 0;
+        for (int k = 0, l = line.length(); k < l; ++k) {
+            int p = index[line.charAt(k)];
+            if (p >= 0) {
+                w += k + 1 < l ? advance(p, line.charAt(k + 1)) : advance(p);
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Measure each line of a text.
+     * @param text the text to measure.
+     * @return the {@link #width(java.lang.CharSequence) width} of each line of the text, split as
+     * {@link CUFFont} splits text into lines.
+     * @see CUFFont#splitPattern
+     */
+    public int[] widths (String text) {
+        String[] lines = text.split(CUFFont.splitPattern);
+        int[] result = new int[lines.length];
+        for (int i = 0; i < lines.length; ++i) {
+            result[i] = width(lines[i]);
+        }
+        return result;
+    }
+}
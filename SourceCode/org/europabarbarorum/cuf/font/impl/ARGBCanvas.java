@@ -0,0 +1,140 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.impl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A view of the pixels of a {@link BufferedImage} of type {@link BufferedImage#TYPE_INT_ARGB}
+ * which allows {@link CUFGlyph} objects to be drawn directly into the backing array of the image.
+ * This avoids the colour model conversion {@link BufferedImage#setRGB(int, int, int) } performs for every pixel.
+ * @author Johan Ouwerkerk
+ */
+public final class ARGBCanvas {
+
+    private final int[] pixels;
+    private final int offset;
+    private final int scan;
+    private final int width;
+    private final int height;
+
+    private ARGBCanvas (int[] pixels, int offset, int scan, int width,
+                        int height) {
+        this.pixels = pixels;
+        this.offset = offset;
+        this.scan = scan;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Obtain an {@link ARGBCanvas} for a given {@link BufferedImage}.
+     * @param image the {@link BufferedImage} to draw on.
+     * @return an {@link ARGBCanvas} which writes to the backing array of the given image, or null if
+     * the image does not store its pixels as packed {@link BufferedImage#TYPE_INT_ARGB} values.
+     */
+    public static ARGBCanvas of (BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        if (!(buffer instanceof DataBufferInt)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return null;
+        }
+        int scan = ((SinglePixelPackedSampleModel) raster.getSampleModel()).
+                getScanlineStride();
+        int offset = buffer.getOffset()
+                - raster.getSampleModelTranslateY() * scan
+                - raster.getSampleModelTranslateX();
+        return new ARGBCanvas(((DataBufferInt) buffer).getData(), offset, scan,
+                              raster.getWidth(), raster.getHeight());
+    }
+
+    /**
+     * Draw an alpha map on this {@link ARGBCanvas} using source-over compositing.
+     * The alpha map is clipped against the bounds of the canvas once per row, not per pixel.
+     * @param alpha the alpha map to draw, one byte per pixel.
+     * @param w width of the alpha map.
+     * @param h height of the alpha map.
+     * @param baseX x coordinate of the top left corner of the alpha map on the canvas.
+     * @param baseY y coordinate of the top left corner of the alpha map on the canvas.
+     * @param rgb colour to use for “black” pixels in the alpha map. Alpha bits of this value are ignored.
+     */
+    public void draw (byte[] alpha, int w, int h, int baseX, int baseY,
+                      int rgb) {
+        rgb &= 0x00FFFFFF;
+        int i0 = Math.max(0, -baseY), i1 = Math.min(h, height - baseY);
+        int j0 = Math.max(0, -baseX), j1 = Math.min(w, width - baseX);
+        if (j0 >= j1) {
+            return;
+        }
+        for (int i = i0; i < i1; ++i) {
+            int src = i * w + j0;
+            int dst = offset + (baseY + i) * scan + baseX + j0;
+            for (int j = j0; j < j1; ++j, ++src, ++dst) {
+                int a = alpha[src] & 0xFF;
+                if (a != 0) {
+                    pixels[dst] = over(rgb, a, pixels[dst]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Composite a source colour over a non-premultiplied destination pixel.
+     * @param rgb the colour of the source.
+     * @param a the alpha value of the source, in the range 1-255.
+     * @param dst the destination pixel.
+     * @return the composited pixel.
+     */
+    private static int over (int rgb, int a, int dst) {
+        int da = dst >>> 24;
+        if (a == 0xFF || da == 0) {
+            return rgb | (a << 24);
+        }
+        // weight of the destination colour, scaled by 255
+        int dw = da * (0xFF - a);
+        // result alpha scaled by 255
+        int ra = a * 0xFF + dw;
+        int r = blend((rgb >> 16) & 0xFF, (dst >> 16) & 0xFF, a, dw, ra);
+        int g = blend((rgb >> 8) & 0xFF, (dst >> 8) & 0xFF, a, dw, ra);
+        int b = blend(rgb & 0xFF, dst & 0xFF, a, dw, ra);
+        return ((ra + 0x7F) / 0xFF) << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int blend (int s, int d, int a, int dw, int ra) {
+        return (s * a * 0xFF + d * dw + (ra >> 1)) / ra;
+    }
+}
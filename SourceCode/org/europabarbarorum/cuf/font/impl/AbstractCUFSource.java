@@ -374,9 +374,26 @@ public abstract class AbstractCUFSource<C> implements
         return CUFProperties[index.index()] != PROP_UNAVAILABLE;
     }
 
+    /**
+     * Look up the code of a character in the chartable of this font.
+     * If the chartable is a {@link CharTable} this method does not allocate any objects.
+     * @param c the character to look up.
+     * @return a code which is never negative if the character is supported by this font, or -1 if it is not.
+     * For a {@link CharTable} this is the value of {@link CharTable#codeOf(char) }; otherwise the 16bit value
+     * of the character itself.
+     */
+    @SuppressWarnings("unchecked")
+    public int codeOf (char c) {
+        SortedMap<Character, C> table = getCharTable();
+        if (table instanceof CharTable) {
+            return ((CharTable<C>) table).codeOf(c);
+        }
+        return table.containsKey(c) ? c : -1;
+    }
+
     @Override
     public CUFSource backTrack (Character c) {
-        if (getCharTable().containsKey(c)) {
+        if (codeOf(c) >= 0) {
             return this;
         }
         else {
@@ -72,7 +72,23 @@ public class CUFGlyph {
     }
 
     /**
-     * Draws this glyph on a {@link BufferedImage}
+     * Draws this glyph on an {@link ARGBCanvas}. Pixels of the glyph are composited over
+     * those already on the canvas, so that overlapping glyphs blend.
+     * @param canvas the {@link ARGBCanvas} to draw on
+     * @param baseX x-offset to start drawing at on the canvas
+     * @param baseY y-offset to start drawing at on the canvas
+     * @param colorCode color to use for “black” pixels in the bitmap (“white” ones will be completely translucent).
+     */
+    public void writeToCanvas (ARGBCanvas canvas, int baseX, int baseY,
+                               int colorCode) {
+        canvas.draw(bitmapData, dimension.getWidth(), dimension.getHeight(),
+                    baseX, baseY, colorCode);
+    }
+
+    /**
+     * Draws this glyph on a {@link BufferedImage}.
+     * If the image is of type {@link BufferedImage#TYPE_INT_ARGB} this method uses
+     * {@link #writeToCanvas(org.europabarbarorum.cuf.font.impl.ARGBCanvas, int, int, int) }.
      * @param image image to draw on
      * @param baseX x-offset to start drawing at on the image
      * @param baseY y-offset to start drawing at on the image
@@ -81,6 +97,11 @@ public class CUFGlyph {
      */
     public BufferedImage writeToBitMap (BufferedImage image, int baseX,
                                         int baseY, int colorCode) {
+        ARGBCanvas canvas = ARGBCanvas.of(image);
+        if (canvas != null) {
+            writeToCanvas(canvas, baseX, baseY, colorCode);
+            return image;
+        }
         byte[] bs = bitmapData;
         int pictureHeight = image.getHeight();
         int pictureWidth = image.getWidth();
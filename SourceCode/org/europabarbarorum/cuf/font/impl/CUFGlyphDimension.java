@@ -93,11 +93,57 @@ public interface CUFGlyphDimension {
      */
     public int getSize ();
 
+    /**
+     * A {@link CUFGlyphDimension} which can perform kerning with respect to many characters at once.
+     * Use {@link BatchKerning#kerning(org.europabarbarorum.cuf.font.impl.CUFGlyphDimension, char[], int[]) }
+     * to kern any {@link CUFGlyphDimension} in bulk.
+     */
+    public static interface BatchDimension extends CUFGlyphDimension {
+
+        /**
+         * Bulk version of {@link #kerning(java.lang.Character) }: performs kerning with respect to each of the
+         * given characters in turn. The result for every character is the same as that of
+         * {@link #kerning(java.lang.Character) }, but implementations may use a
+         * {@link Kerner.BatchKerner} to compute many pairs at once.
+         * @param cs the characters with respect to which the current {@link CUFGlyphDimension} should be kerned.
+         * @param out an array of at least {@code cs.length} elements to store the results in.
+         */
+        public void kerning (char[] cs, int[] out);
+    }
+
+    /**
+     * Utility class to perform kerning in bulk on any {@link CUFGlyphDimension}.
+     */
+    public static final class BatchKerning {
+
+        private BatchKerning () {
+        }
+
+        /**
+         * Performs kerning of a {@link CUFGlyphDimension} with respect to each of the given characters in turn.
+         * This uses {@link BatchDimension#kerning(char[], int[]) } if the given {@link CUFGlyphDimension}
+         * supports it, and {@link CUFGlyphDimension#kerning(java.lang.Character) } for each character otherwise.
+         * @param dim the {@link CUFGlyphDimension} to kern.
+         * @param cs the characters with respect to which the given {@link CUFGlyphDimension} should be kerned.
+         * @param out an array of at least {@code cs.length} elements to store the results in.
+         */
+        public static void kerning (CUFGlyphDimension dim, char[] cs, int[] out) {
+            if (dim instanceof BatchDimension) {
+                ((BatchDimension) dim).kerning(cs, out);
+            }
+            else {
+                for (int i = 0; i < cs.length; ++i) {
+                    out[i] = dim.kerning(cs[i]);
+                }
+            }
+        }
+    }
+
     /**
      * A class which implements a merging mechanism for combining a
      * {@link CUFGlyphDimension} from one source with a delta of {@link Edits} from another.
      */
-    public static class MergedDimension implements CUFGlyphDimension {
+    public static class MergedDimension implements BatchDimension {
 
         private final CUFGlyphDimension merged;
         private final Edits edits;
@@ -133,6 +179,18 @@ public interface CUFGlyphDimension {
             return k == null ? merged.kerning(c) : k;
         }
 
+        @Override
+        public void kerning (char[] cs, int[] out) {
+            BatchKerning.kerning(merged, cs, out);
+            Integer k;
+            for (int i = 0; i < cs.length; ++i) {
+                k = edits.kerning(cs[i]);
+                if (k != null) {
+                    out[i] = k;
+                }
+            }
+        }
+
         @Override
         public int getAdvanceWith () {
             Integer a = edits.getAdvanceWidth();
@@ -159,7 +217,7 @@ public interface CUFGlyphDimension {
      * A complete implementation of {@link CUFGlyphDimension} with support for
      * {@link Edits applying edits} and {@link Kerner using kerning}.
      */
-    public static class CUFGlyphDimensionImpl implements CUFGlyphDimension {
+    public static class CUFGlyphDimensionImpl implements BatchDimension {
 
         private final int width;
         private final int height;
@@ -223,6 +281,31 @@ public interface CUFGlyphDimension {
             return k;
         }
 
+        @Override
+        public void kerning (char[] cs, int[] out) {
+            if (kerningImpl instanceof Kerner.BatchKerner) {
+                ((Kerner.BatchKerner) kerningImpl).kerning(cs, out);
+            }
+            else {
+                Integer k;
+                for (int i = 0; i < cs.length; ++i) {
+                    k = kerningImpl.kerning(cs[i]);
+                    out[i] = k == null ? -1 : k;
+                }
+            }
+            int def = getAdvanceWith();
+            Integer k;
+            for (int i = 0; i < cs.length; ++i) {
+                k = edits.kerning(cs[i]);
+                if (k != null) {
+                    out[i] = k;
+                }
+                else if (out[i] < 0) {
+                    out[i] = def;
+                }
+            }
+        }
+
         @Override
         public int getAdvanceWith () {
             Integer aW = edits.getAdvanceWidth();
@@ -29,6 +29,7 @@
 package org.europabarbarorum.cuf.font.impl;
 
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.europabarbarorum.cuf.support.NotEditableException;
 
 /**
@@ -39,6 +40,44 @@ public class CUFSourceEditor {
 
     private TreeMap<Character, EditsImpl> editMap;
     private boolean kerning;
+    private final CopyOnWriteArrayList<EditListener> listeners =
+            new CopyOnWriteArrayList<EditListener>();
+
+    /**
+     * A listener interface to receive notifications of changes made through a {@link CUFSourceEditor}.
+     */
+    public static interface EditListener {
+
+        /**
+         * Signals that the delta of {@link Edits} for a glyph has changed.
+         * @param c the character which corresponds to the changed glyph,
+         * or null if (potentially) all glyphs are affected.
+         */
+        void edited (Character c);
+    }
+
+    /**
+     * Register an {@link EditListener} to be notified of changes made through this {@link CUFSourceEditor}.
+     * @param listener the {@link EditListener} to add.
+     */
+    public void addEditListener (EditListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Unregister an {@link EditListener} previously registered with
+     * {@link #addEditListener(org.europabarbarorum.cuf.font.impl.CUFSourceEditor.EditListener) }.
+     * @param listener the {@link EditListener} to remove.
+     */
+    public void removeEditListener (EditListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void edited (Character c) {
+        for (EditListener l : listeners) {
+            l.edited(c);
+        }
+    }
 
     /**
      * Creates a new {@link CUFSourceEditor}. By default it disables kerning.
@@ -66,6 +105,9 @@ public class CUFSourceEditor {
             uinstallKerning(on);
         }
         this.kerning = on;
+        if (old != on) {
+            edited(null);
+        }
     }
 
     private void uinstallKerning (boolean install) {
@@ -92,11 +134,12 @@ public class CUFSourceEditor {
         }
         EditsImpl edits = editMap.get(c);
         if (edits == null) {
-            edits = new EditsImpl();
+            edits = new EditsImpl(c);
             if (kerning) {
                 edits.installKerning();
             }
             editMap.put(c, edits);
+            edited(c);
         }
         return edits;
     }
@@ -131,6 +174,7 @@ public class CUFSourceEditor {
     public void undoEdits (Character c) {
         if (editMap != null && editMap.containsKey(c)) {
             editMap.remove(c);
+            edited(c);
         }
     }
 
@@ -139,6 +183,7 @@ public class CUFSourceEditor {
      */
     public void undoAllEdits () {
         editMap = null;
+        edited(null);
     }
 
     /**
@@ -321,6 +366,11 @@ public class CUFSourceEditor {
 
         private Integer allocHeight = null, allocWidth = null;
         private TreeMap<Character, Integer> kerning = null;
+        private final Character chr;
+
+        private EditsImpl (Character chr) {
+            this.chr = chr;
+        }
 
         private void installKerning () {
             kerning = new TreeMap<Character, Integer>();
@@ -348,6 +398,7 @@ public class CUFSourceEditor {
         @Override
         public void setY (Integer allocHeight) {
             this.allocHeight = allocHeight;
+            edited(chr);
         }
 
         /**
@@ -368,6 +419,7 @@ public class CUFSourceEditor {
         @Override
         public void setAdvanceWidth (Integer allocWidth) {
             this.allocWidth = allocWidth;
+            edited(chr);
         }
 
         @Override
@@ -381,6 +433,7 @@ public class CUFSourceEditor {
                 throw new KerningNotSupportedException();
             }
             kerning = new TreeMap<Character, Integer>();
+            edited(chr);
         }
 
         @Override
@@ -394,6 +447,7 @@ public class CUFSourceEditor {
             else {
                 this.kerning.put(c, width);
             }
+            edited(chr);
         }
 
         @Override
@@ -0,0 +1,430 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import org.europabarbarorum.cuf.support.IOHelp;
+
+/**
+ * A read-only chartable indexed directly by character.
+ * Which characters are supported is tracked in a bit set over all 16bit characters, and
+ * entries are created from primitive data on demand. This avoids allocating a
+ * {@link java.util.TreeMap} node, a boxed {@link Character} and an entry object for every
+ * character of a font, and replaces tree lookups with array lookups.
+ * <p>
+ * For compatibility with code that expects a {@link SortedMap} this class implements that interface,
+ * but attempts to modify the table throw an {@link UnsupportedOperationException}. Code which
+ * only needs to know the code of a glyph should use {@link #codeOf(char) } instead, which does not
+ * allocate any objects.
+ * </p>
+ * @param <C> the type of entry used in the chartable.
+ * @author Johan Ouwerkerk
+ */
+public abstract class CharTable<C> extends AbstractMap<Character, C> implements
+        SortedMap<Character, C> {
+
+    /**
+     * Number of characters that may be indexed by a {@link CharTable}.
+     */
+    public static final int LIMIT = 0x10000;
+    private final BitSet present;
+    private final int lo, hi;
+    private int size = -1;
+
+    /**
+     * Create a new {@link CharTable}.
+     * @param present the set of characters in the chartable. This set is not copied, and must not be
+     * modified afterwards.
+     */
+    protected CharTable (BitSet present) {
+        this(present, 0, LIMIT);
+    }
+
+    private CharTable (BitSet present, int lo, int hi) {
+        this.present = present;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    /**
+     * Look up the code of a character in this {@link CharTable}.
+     * The code is only meaningful to the font that created this table.
+     * @param c the character to look up.
+     * @return the code of the given character, which is never negative, or -1 if the character is
+     * not in this {@link CharTable}.
+     */
+    public int codeOf (char c) {
+        return contains(c) ? code(c) : -1;
+    }
+
+    /**
+     * Check if a character is in this {@link CharTable}.
+     * @param c the character to look up.
+     * @return true if the given character has an entry in this table, false if not.
+     */
+    public boolean contains (char c) {
+        return c >= lo && c < hi && present.get(c);
+    }
+
+    /**
+     * Get the set of characters in this {@link CharTable}.
+     * @return a new {@link BitSet} with a bit set for each character in this table.
+     */
+    public BitSet toBitSet () {
+        BitSet b = (BitSet) present.clone();
+        b.clear(0, lo);
+        b.clear(hi, LIMIT);
+        return b;
+    }
+
+    /**
+     * Get the code of a character which is known to be in this table.
+     * @param c the character to look up.
+     * @return the code of the given character.
+     */
+    protected abstract int code (char c);
+
+    /**
+     * Create the entry for a character which is known to be in this table.
+     * @param c the character to look up.
+     * @return the entry to use for the given character.
+     */
+    protected abstract C entry (char c);
+
+    @Override
+    public int size () {
+        if (size < 0) {
+            int n = 0;
+            for (int i = present.nextSetBit(lo); i >= 0 && i < hi; i = present.
+                    nextSetBit(i + 1)) {
+                ++n;
+            }
+            size = n;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty () {
+        int i = present.nextSetBit(lo);
+        return i < 0 || i >= hi;
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return key instanceof Character && contains((Character) key);
+    }
+
+    @Override
+    public C get (Object key) {
+        if (containsKey(key)) {
+            return entry((Character) key);
+        }
+        return null;
+    }
+
+    @Override
+    public Comparator<? super Character> comparator () {
+        return null;
+    }
+
+    @Override
+    public SortedMap<Character, C> subMap (Character fromKey, Character toKey) {
+        if (fromKey.charValue() > toKey.charValue()) {
+            throw new IllegalArgumentException();
+        }
+        return view(fromKey, toKey);
+    }
+
+    @Override
+    public SortedMap<Character, C> headMap (Character toKey) {
+        return view(lo, toKey);
+    }
+
+    @Override
+    public SortedMap<Character, C> tailMap (Character fromKey) {
+        return view(fromKey, hi);
+    }
+
+    private SortedMap<Character, C> view (int from, int to) {
+        int start = Math.max(lo, from), end = Math.max(start, Math.min(hi, to));
+        return new View<C>(this, start, end);
+    }
+
+    @Override
+    public Character firstKey () {
+        int i = present.nextSetBit(lo);
+        if (i < 0 || i >= hi) {
+            throw new NoSuchElementException();
+        }
+        return (char) i;
+    }
+
+    @Override
+    public Character lastKey () {
+        int i = present.previousSetBit(hi - 1);
+        if (i < lo) {
+            throw new NoSuchElementException();
+        }
+        return (char) i;
+    }
+
+    @Override
+    public Set<Entry<Character, C>> entrySet () {
+        return new AbstractSet<Entry<Character, C>>() {
+
+            @Override
+            public Iterator<Entry<Character, C>> iterator () {
+                return new Iterator<Entry<Character, C>>() {
+
+                    private int next = present.nextSetBit(lo);
+
+                    @Override
+                    public boolean hasNext () {
+                        return next >= 0 && next < hi;
+                    }
+
+                    @Override
+                    public Entry<Character, C> next () {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Character, C> e = new CharEntry((char) next);
+                        next = present.nextSetBit(next + 1);
+                        return e;
+                    }
+
+                    @Override
+                    public void remove () {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains (Object o) {
+                if (o instanceof Map.Entry) {
+                    Map.Entry e = (Map.Entry) o;
+                    C v = get(e.getKey());
+                    return v != null && v.equals(e.getValue());
+                }
+                return false;
+            }
+
+            @Override
+            public int size () {
+                return CharTable.this.size();
+            }
+        };
+    }
+
+    /**
+     * An entry of a {@link CharTable} which creates its value only when asked for it.
+     * Iterating over the keys of a {@link CharTable} therefore does not create any entries.
+     */
+    private class CharEntry implements Entry<Character, C> {
+
+        private final char key;
+
+        private CharEntry (char key) {
+            this.key = key;
+        }
+
+        @Override
+        public Character getKey () {
+            return key;
+        }
+
+        @Override
+        public C getValue () {
+            return entry(key);
+        }
+
+        @Override
+        public C setValue (C value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (o instanceof Map.Entry) {
+                Map.Entry e = (Map.Entry) o;
+                return getKey().equals(e.getKey()) && getValue().equals(e.
+                        getValue());
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode () {
+            return getKey().hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString () {
+            return key + "=" + getValue();
+        }
+    }
+
+    /**
+     * A range of another {@link CharTable}, as returned by {@link #subMap(java.lang.Character, java.lang.Character) }
+     * and similar methods.
+     * @param <C> the type of entry used in the chartable.
+     */
+    private static class View<C> extends CharTable<C> {
+
+        private final CharTable<C> table;
+
+        private View (CharTable<C> table, int lo, int hi) {
+            super(table.present, lo, hi);
+            this.table = table;
+        }
+
+        @Override
+        protected int code (char c) {
+            return table.code(c);
+        }
+
+        @Override
+        protected C entry (char c) {
+            return table.entry(c);
+        }
+    }
+
+    /**
+     * A {@link CharTable} for fonts which use the characters themselves as entries.
+     * The code of each character is its 16bit value.
+     */
+    public static class Identity extends CharTable<Character> {
+
+        /**
+         * Create a new {@link Identity} chartable.
+         * @param present the set of characters in the chartable. This set is not copied, and must not be
+         * modified afterwards.
+         */
+        public Identity (BitSet present) {
+            super(present);
+        }
+
+        @Override
+        protected int code (char c) {
+            return c;
+        }
+
+        @Override
+        protected Character entry (char c) {
+            return c;
+        }
+    }
+
+    /**
+     * A {@link CharTable} for fonts which use characters of another font as entries.
+     * The code of each character is the 16bit value of its entry.
+     */
+    public static class Remapped extends CharTable<Character> {
+
+        private final char[] map;
+
+        /**
+         * Create a new {@link Remapped} chartable.
+         * @param present the set of characters in the chartable.
+         * @param map the entry of each character in the chartable, indexed by character.
+         * Neither argument is copied, and they must not be modified afterwards.
+         */
+        public Remapped (BitSet present, char[] map) {
+            super(present);
+            this.map = map;
+        }
+
+        @Override
+        protected int code (char c) {
+            return map[c];
+        }
+
+        @Override
+        protected Character entry (char c) {
+            return map[c];
+        }
+    }
+
+    /**
+     * A {@link CharTable} which maps characters to glyph codes of a CUF file, using
+     * {@link CharTableEntry} objects as entries.
+     */
+    public static class Codes extends CharTable<CharTableEntry> {
+
+        private final short[] codes;
+
+        private Codes (BitSet present, short[] codes) {
+            super(present);
+            this.codes = codes;
+        }
+
+        /**
+         * Create a new {@link Codes} chartable from the raw chartable of a CUF file.
+         * @param table the chartable as stored in a CUF file: a glyph code of 2 bytes in little endian order for each
+         * character, where {@link FormatConstants#__LIMIT__} marks unsupported characters.
+         * Like {@link org.europabarbarorum.cuf.support.IOHelp#fromCode(int) } this method treats the
+         * last position in the table as the NULL character.
+         * @return a {@link Codes} chartable that corresponds to the given data.
+         */
+        public static Codes fromCUF (byte[] table) {
+            BitSet present = new BitSet(LIMIT);
+            short[] codes = new short[LIMIT];
+            int limit = FormatConstants.__LIMIT__.value();
+            for (int i = 0; i + 1 < table.length; i += 2) {
+                int code = IOHelp.endianConversion(table, i, 2);
+                if (code != limit) {
+                    char c = IOHelp.fromCode(i >> 1);
+                    codes[c] = (short) code;
+                    present.set(c);
+                }
+            }
+            return new Codes(present, codes);
+        }
+
+        @Override
+        protected int code (char c) {
+            return codes[c] & 0xFFFF;
+        }
+
+        @Override
+        protected CharTableEntry entry (char c) {
+            return new CharTableEntry(code(c), c);
+        }
+    }
+}
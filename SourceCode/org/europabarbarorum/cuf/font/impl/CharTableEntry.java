@@ -60,6 +60,25 @@ public class CharTableEntry {
 	return code;
     }
 
+    /**
+     * Check whether another object is a {@link CharTableEntry} for the same glyph and character.
+     * @param obj the object to compare with.
+     * @return true if the given object is a {@link CharTableEntry} with the same code and character.
+     */
+    @Override
+    public boolean equals (Object obj) {
+        if (obj instanceof CharTableEntry) {
+            CharTableEntry other = (CharTableEntry) obj;
+            return code == other.code && chr == other.chr;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode () {
+        return (code << 16) ^ chr;
+    }
+
     /**
      * Create a string representation of this {@link CharTableEntry}.
      * @return a string representation of this {@link CharTableEntry}.
@@ -44,6 +44,23 @@ public interface Kerner {
      */
     Integer kerning(Character c2);
 
+    /**
+     * A {@link Kerner} which can compute kerning information for many character pairs
+     * sharing the same first character at once, which is generally much cheaper than
+     * querying each pair separately.
+     */
+    public static interface BatchKerner extends Kerner {
+
+        /**
+         * Get kerning information for a number of character pairs.
+         * @param c2 the second characters of the pairs.
+         * @param out an array of at least {@code c2.length} elements to store the results in.
+         * Each element is set to the kerned advance width to use, or a negative value
+         * if no information is available.
+         */
+        void kerning (char[] c2, int[] out);
+    }
+
     /**
      * A {@link Kerner} which returns null for all queries.
      */
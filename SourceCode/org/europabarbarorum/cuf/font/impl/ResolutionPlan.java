@@ -0,0 +1,382 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.impl;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.europabarbarorum.cuf.font.CUFSource;
+import org.europabarbarorum.cuf.font.CachingSource;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension.MergedDimension;
+import org.europabarbarorum.cuf.font.impl.CUFSourceEditor.EditListener;
+import org.europabarbarorum.cuf.font.impl.CUFSourceEditor.Edits;
+
+/**
+ * This class flattens the hierarchy of a {@link CUFSource}. Fonts which wrap other fonts (such as
+ * {@link WrappedSource} and {@link org.europabarbarorum.cuf.font.MixedSource}) look up each glyph in the
+ * chartable of the font they wrap, and merge in their own {@link Edits}; so the cost of obtaining a glyph grows with
+ * the depth of the hierarchy. A {@link ResolutionPlan} resolves each character of a font once into the font
+ * at the bottom of the hierarchy that supplies its glyph (the “leaf”), the chartable entry of the glyph in that font and
+ * the {@link Edits} of all fonts in between. Afterwards glyphs are obtained directly from the leaf.
+ * <p>
+ * Only fonts which implement {@link Resolvable} are flattened, and only if they do not override
+ * the methods which obtain glyphs below the level at which they implement {@link Resolvable}. Any other font
+ * is treated as a leaf. The plan is computed when it is first used, and again after {@link Edits} were added or removed
+ * in any font of the hierarchy; it does not track other changes to the hierarchy (such as changes to chartables).
+ * Call {@link #dispose() } when the plan is no longer needed.
+ * </p>
+ * @author Johan Ouwerkerk
+ */
+public class ResolutionPlan {
+
+    /**
+     * Interface for {@link CUFSource} objects which can tell a {@link ResolutionPlan} where the glyph
+     * for a character comes from, without obtaining the glyph.
+     */
+    public static interface Resolvable {
+
+        /**
+         * Resolve a character one level down the hierarchy of fonts. Implementations call
+         * {@link Step#descend(org.europabarbarorum.cuf.font.CUFSource, java.lang.Character, org.europabarbarorum.cuf.font.impl.CUFSourceEditor.Edits) }
+         * if the glyph is supplied by another font, or {@link Step#supply(org.europabarbarorum.cuf.font.impl.CUFGlyph) } if it is
+         * supplied by the implementation itself. If neither method is called, the character has no glyph.
+         * @param c a character in the chartable of this font.
+         * @param step the {@link Step} to record the result in.
+         */
+        void resolve (Character c, Step step);
+    }
+
+    /**
+     * Records the result of {@link Resolvable#resolve(java.lang.Character, org.europabarbarorum.cuf.font.impl.ResolutionPlan.Step) }.
+     */
+    public static final class Step {
+
+        private CUFSource<?> source;
+        private Character chr;
+        private Edits edits;
+        private CUFGlyph glyph;
+
+        private Step () {
+        }
+
+        private void reset () {
+            source = null;
+            chr = null;
+            edits = null;
+            glyph = null;
+        }
+
+        /**
+         * Signal that the glyph is obtained from another font.
+         * @param src the {@link CUFSource} which supplies the glyph.
+         * @param c the character of the glyph in the chartable of that {@link CUFSource}.
+         * @param e the {@link Edits} to merge with the dimension of the glyph, may be null.
+         */
+        public void descend (CUFSource<?> src, Character c, Edits e) {
+            this.source = src;
+            this.chr = c;
+            this.edits = e;
+        }
+
+        /**
+         * Signal that the glyph does not depend on any other font.
+         * @param g the glyph.
+         */
+        public void supply (CUFGlyph g) {
+            this.glyph = g;
+        }
+    }
+
+    /**
+     * The resolved characters of a font, indexed by character.
+     */
+    private static class Table {
+
+        private final char lo;
+        private final CUFSource<Object>[] leaf;
+        private final Object[] entry;
+        private final Edits[][] edits;
+        private final CUFGlyph[] fixed;
+        private final CUFSource<?>[] origin;
+        private final Character[] tracked;
+
+        @SuppressWarnings("unchecked")
+        private Table (char lo, int size) {
+            this.lo = lo;
+            this.leaf = (CUFSource<Object>[]) new CUFSource<?>[size];
+            this.entry = new Object[size];
+            this.edits = new Edits[size][];
+            this.fixed = new CUFGlyph[size];
+            this.origin = new CUFSource<?>[size];
+            this.tracked = new Character[size];
+        }
+
+        private int index (Character c) {
+            int i = c == null ? -1 : c - lo;
+            return i < 0 || i >= leaf.length ? -1 : i;
+        }
+    }
+    private final CUFSource<?> source;
+    private final EditListener listener;
+    private volatile Table table = null;
+
+    /**
+     * Create a new {@link ResolutionPlan}. The plan is computed when it is first used.
+     * @param src the {@link CUFSource} to flatten. It must be {@link CUFSource#isPrepared() prepared}.
+     */
+    public ResolutionPlan (CUFSource<?> src) {
+        this.source = src;
+        this.listener = new Invalidator(this);
+        CachingSource.listen(src, listener, listener);
+    }
+
+    /**
+     * Stop tracking {@link Edits} of the fonts in the hierarchy, and discard the plan.
+     * This {@link ResolutionPlan} should not be used afterwards.
+     */
+    public void dispose () {
+        CachingSource.unlisten(source, listener, listener);
+        table = null;
+    }
+
+    /**
+     * An {@link EditListener} which marks a {@link ResolutionPlan} as outdated.
+     * It only holds a weak reference to its {@link ResolutionPlan}.
+     */
+    private static class Invalidator implements EditListener {
+
+        private final WeakReference<ResolutionPlan> ref;
+
+        private Invalidator (ResolutionPlan plan) {
+            this.ref = new WeakReference<ResolutionPlan>(plan);
+        }
+
+        @Override
+        public void edited (Character c) {
+            ResolutionPlan plan = ref.get();
+            if (plan != null) {
+                plan.table = null;
+            }
+        }
+    }
+
+    private Table table () {
+        Table t = table;
+        if (t == null) {
+            synchronized (this) {
+                t = table;
+                if (t == null) {
+                    t = compile();
+                    table = t;
+                }
+            }
+        }
+        return t;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Table compile () {
+        Map<Character, ?> keys = source.getCharTable();
+        if (keys.isEmpty()) {
+            return new Table('\u0000', 0);
+        }
+        char lo = Character.MAX_VALUE, hi = Character.MIN_VALUE;
+        for (Character c : keys.keySet()) {
+            lo = c < lo ? c : lo;
+            hi = c > hi ? c : hi;
+        }
+        Table t = new Table(lo, hi - lo + 1);
+        Map<Class<?>, Boolean> checked = new HashMap<Class<?>, Boolean>();
+        ArrayList<Edits> edits = new ArrayList<Edits>();
+        Step step = new Step();
+        for (Character c : keys.keySet()) {
+            int i = c - lo;
+            t.origin[i] = source.backTrack(c);
+            t.tracked[i] = source.trackCharacter(c);
+
+            CUFSource<?> cur = source;
+            Character chr = c;
+            edits.clear();
+            while (cur != null) {
+                if (!cur.getCharTable().containsKey(chr)) {
+                    break;
+                }
+                if (!resolvable(cur, checked)) {
+                    t.leaf[i] = (CUFSource<Object>) cur;
+                    t.entry[i] = cur.getCharTable().get(chr);
+                    break;
+                }
+                step.reset();
+                ((Resolvable) cur).resolve(chr, step);
+                if (step.glyph != null) {
+                    t.fixed[i] = step.glyph;
+                    break;
+                }
+                if (step.edits != null) {
+                    edits.add(step.edits);
+                }
+                cur = step.source;
+                chr = step.chr;
+            }
+            if (!edits.isEmpty()) {
+                t.edits[i] = edits.toArray(new Edits[edits.size()]);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Check whether or not a {@link CUFSource} can be resolved through
+     * {@link Resolvable#resolve(java.lang.Character, org.europabarbarorum.cuf.font.impl.ResolutionPlan.Step) }.
+     * This is the case only if a subclass does not override the methods which obtain glyphs
+     * without overriding that method as well.
+     */
+    private static boolean resolvable (CUFSource<?> src,
+                                       Map<Class<?>, Boolean> checked) {
+        if (!(src instanceof Resolvable)) {
+            return false;
+        }
+        Class<?> type = src.getClass();
+        Boolean b = checked.get(type);
+        if (b == null) {
+            try {
+                Class<?> r = type.getMethod("resolve", Character.class,
+                                         Step.class).getDeclaringClass();
+                b = declaring(type, "getGlyph").isAssignableFrom(r)
+                        && declaring(type, "getGlyphDimension").
+                        isAssignableFrom(r);
+            }
+            catch (Exception e) {
+                b = Boolean.FALSE;
+            }
+            checked.put(type, b);
+        }
+        return b;
+    }
+
+    private static Class<?> declaring (Class<?> type, String name) throws
+            NoSuchMethodException {
+        Method m = type.getMethod(name, Object.class);
+        return m.getDeclaringClass();
+    }
+
+    private CUFGlyphDimension merge (CUFGlyphDimension dim, Edits[] edits) {
+        for (int k = edits.length - 1; k >= 0; --k) {
+            dim = new MergedDimension(dim, edits[k]);
+        }
+        return dim;
+    }
+
+    /**
+     * Obtain the glyph for a character from the leaf font which supplies it.
+     * This is equivalent to {@link CUFSource#getGlyph(java.lang.Object) } on the flattened font with the chartable entry
+     * of the given character.
+     * @param c the character in the chartable of the flattened font.
+     * @return the glyph of the given character or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public CUFGlyph getGlyph (Character c) {
+        Table t = table();
+        int i = t.index(c);
+        if (i < 0) {
+            return null;
+        }
+        if (t.fixed[i] != null) {
+            return t.fixed[i];
+        }
+        if (t.leaf[i] == null) {
+            return null;
+        }
+        CUFGlyph glyph = t.leaf[i].getGlyph(t.entry[i]);
+        if (glyph == null || t.edits[i] == null) {
+            return glyph;
+        }
+        return new CUFGlyph(merge(glyph.getDimension(), t.edits[i]),
+                            glyph.getBitMapData());
+    }
+
+    /**
+     * Obtain the dimension of the glyph for a character from the leaf font which supplies it.
+     * This is equivalent to {@link CUFSource#getGlyphDimension(java.lang.Object) } on the flattened font
+     * with the chartable entry of the given character.
+     * @param c the character in the chartable of the flattened font.
+     * @return the dimension of the glyph of the given character or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public CUFGlyphDimension getGlyphDimension (Character c) {
+        Table t = table();
+        int i = t.index(c);
+        if (i < 0) {
+            return null;
+        }
+        if (t.fixed[i] != null) {
+            return t.fixed[i].getDimension();
+        }
+        if (t.leaf[i] == null) {
+            return null;
+        }
+        CUFGlyphDimension dim = t.leaf[i].getGlyphDimension(t.entry[i]);
+        if (dim == null || t.edits[i] == null) {
+            return dim;
+        }
+        return merge(dim, t.edits[i]);
+    }
+
+    /**
+     * Look up the result of {@link CUFSource#backTrack(java.lang.Character) } on the flattened font.
+     * @param c the character to track.
+     * @return the {@link CUFSource} which originally supplied the character, or null if the character is not supported.
+     */
+    public CUFSource<?> backTrack (Character c) {
+        Table t = table();
+        int i = t.index(c);
+        return i < 0 ? null : t.origin[i];
+    }
+
+    /**
+     * Look up the result of {@link CUFSource#trackCharacter(java.lang.Character) } on the flattened font.
+     * @param c the character to track.
+     * @return the character in the {@link #backTrack(java.lang.Character) original} font, or null if the character is not supported.
+     */
+    public Character trackCharacter (Character c) {
+        Table t = table();
+        int i = t.index(c);
+        return i < 0 ? null : t.tracked[i];
+    }
+
+    /**
+     * Get the {@link CUFSource} flattened by this {@link ResolutionPlan}.
+     * @return the {@link CUFSource} passed to the constructor.
+     */
+    public CUFSource<?> getSource () {
+        return source;
+    }
+}
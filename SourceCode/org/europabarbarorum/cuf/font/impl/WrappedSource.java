@@ -28,8 +28,7 @@
  */
 package org.europabarbarorum.cuf.font.impl;
 
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -49,6 +48,8 @@ import org.europabarbarorum.cuf.font.impl.CUFSourceEditor.Edits;
 import org.europabarbarorum.cuf.font.impl.CharTableEntry;
 import org.europabarbarorum.cuf.font.impl.FormatConstants;
 import org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty;
+import org.europabarbarorum.cuf.font.impl.ResolutionPlan.Resolvable;
+import org.europabarbarorum.cuf.font.impl.ResolutionPlan.Step;
 import org.europabarbarorum.cuf.strings.impl.ControlCharacter;
 import org.europabarbarorum.cuf.support.IOHelp;
 import org.europabarbarorum.cuf.support.IllegalMethodCallException;
@@ -63,7 +64,7 @@ import org.europabarbarorum.cuf.support.NotEditableException;
  * @author Johan Ouwerkerk
  */
 public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implements
-        TopLevelSource<C> {
+        TopLevelSource<C>, Resolvable {
 
     /**
      * A {@link WrappedSource} which remaps characters from the chartable of a
@@ -123,23 +124,50 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
         /**
          * Attempt to append left over characters. This method is useful for relocating
          * characters which had to make way for others in the main logic of the algorithm.
+         * Characters are relocated in ascending order, to the lowest free positions in the chartable.
+         * @param todo the set of all characters to relocate
+         * @param t a {@link Slots} reflecting the current state of the chartable.
+         */
+        protected void appendTodo (BitSet todo, Slots t) {
+            int free = t.nextFree(0);
+            for (int c = todo.nextSetBit(0); c >= 0; c = todo.nextSetBit(c + 1)) {
+                if (free < 0) {
+                    IOHelp.warn(AlgorithmSource.class,
+                                Messages.LeftOverChars,
+                                wrapped.getCufSource());
+                    break;
+                }
+                t.put((char) free, (char) c);
+                free = t.nextFree(free + 1);
+            }
+        }
+
+        /**
+         * Attempt to append left over characters. This method is useful for relocating
+         * characters which had to make way for others in the main logic of the algorithm.
+         * Relocated characters are added to the chartable and removed from the set.
          * @param set the {@link Set} of all characters to relocate
          * @param t a {@link Map} reflecting the current state of the chartable.
+         * @deprecated use {@link #appendTodo(java.util.BitSet, org.europabarbarorum.cuf.font.impl.WrappedSource.AlgorithmSource.Slots) },
+         * which this method delegates to.
          */
+        @Deprecated
         protected void appendTodo (Set<Character> set,
                                    Map<Character, Character> t) {
-            if (set.size() > 0) {
-                Iterator<Character> free = free(t.keySet()).iterator(),
-                        iter = set.iterator();
-                while (free.hasNext() && iter.hasNext()) {
-                    t.put(free.next(), iter.next());
-                    free.remove();
-                    iter.remove();
-                }
-                if (iter.hasNext()) {
-                    IOHelp.warn(AlgorithmSource.class,
-                                Messages.LeftOverChars,
-                                wrapped.getCufSource());
+            Slots slots = new Slots();
+            for (Entry<Character, Character> e : t.entrySet()) {
+                slots.put(e.getKey(), e.getValue());
+            }
+            BitSet todo = new BitSet();
+            for (Character c : set) {
+                todo.set(c);
+            }
+            appendTodo(todo, slots);
+            for (int c = slots.used.nextSetBit(0); c >= 0; c = slots.used.nextSetBit(c + 1)) {
+                Character key = Character.valueOf((char) c);
+                if (!t.containsKey(key)) {
+                    t.put(key, slots.map[c]);
+                    set.remove(slots.map[c]);
                 }
             }
         }
@@ -149,16 +177,53 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
             charTable = chartable();
         }
 
-        private Set<Character> free (Set<Character> set) {
-            Set<Character> free = new HashSet<Character>();
-            Character c;
-            for (int i = 0, l = FormatConstants.__LIMIT__.value(); i < l; ++i) {
-                c = IOHelp.fromCode(i);
-                if (!set.contains(c)) {
-                    free.add(c);
-                }
+        /**
+         * The chartable of an {@link AlgorithmSource} under construction.
+         * Occupied positions are tracked in a {@link BitSet}, and entries are stored in
+         * an array indexed by character.
+         */
+        protected static class Slots {
+
+            private final BitSet used = new BitSet(CharTable.LIMIT);
+            private final char[] map = new char[CharTable.LIMIT];
+
+            /**
+             * Map a character to an entry, replacing any previous entry.
+             * @param key the character in the chartable.
+             * @param entry the character in the wrapped {@link CUFSource font}.
+             */
+            public void put (char key, char entry) {
+                used.set(key);
+                map[key] = entry;
+            }
+
+            /**
+             * Check if a character has been mapped.
+             * @param key the character to check.
+             * @return true if the character is in the chartable, false if not.
+             */
+            public boolean contains (char key) {
+                return used.get(key);
+            }
+
+            /**
+             * Find the next free position in the chartable.
+             * Like {@link AbstractCUFSource#getCharLimit(boolean) } this excludes {@link FormatConstants#__LIMIT__}.
+             * @param from the character to start searching from (inclusive).
+             * @return the first character at or after the given position which has not been mapped, or -1 if there is none.
+             */
+            public int nextFree (int from) {
+                int i = used.nextClearBit(from);
+                return i < FormatConstants.__LIMIT__.value() ? i : -1;
+            }
+
+            /**
+             * Convert to a chartable. This {@link Slots} must not be modified afterwards.
+             * @return a {@link CharTable} with the mappings of this {@link Slots}.
+             */
+            public CharTable<Character> toCharTable () {
+                return new CharTable.Remapped(used, map);
             }
-            return free;
         }
 
         @Override
@@ -170,10 +235,11 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
          * Generate the chartable. This method runs the
          * remapping algorithm of this {@link AlgorithmSource} on the chartable
          * of the wrapped {@link CUFSource font} and returns the result.
+         * Implementations typically build the result in a {@link Slots} object.
          * @return the result of remapping the chartable of the wrapped
          * {@link CUFSource font}.
          */
-        protected abstract TreeMap<Character, Character> chartable ();
+        protected abstract SortedMap<Character, Character> chartable ();
     }
 
     /**
@@ -193,20 +259,20 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
         }
 
         @Override
-        protected TreeMap<Character, Character> chartable () {
-            TreeMap<Character, Character> table = new TreeMap<Character, Character>();
-            HashSet<Character> todo = new HashSet<Character>();
+        protected SortedMap<Character, Character> chartable () {
+            Slots table = new Slots();
+            BitSet todo = new BitSet();
             for (Character c : wrapped.getCharTable().keySet()) {
                 if (include(c)) {
                     table.put(c, c);
-                    if(!wrapped(c)) { todo.add(c); }
+                    if(!wrapped(c)) { todo.set(c); }
                 }
                 else {
                     if(!wrapped(c)) { table.put(c,c); }
                 }
             }
             appendTodo(todo, table);
-            return table;
+            return table.toCharTable();
         }
 
         @Override
@@ -231,6 +297,16 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
                     : new CUFGlyph(dim(), new byte[] { 0x00 });
         }
 
+        @Override
+        public void resolve (Character c, Step step) {
+            if (wrapped(reMap(getCharTable().get(c)))) {
+                super.resolve(c, step);
+            }
+            else {
+                step.supply(new CUFGlyph(dim(), new byte[] { 0x00 }));
+            }
+        }
+
         private CUFGlyphDimension dim () {
             return new CUFGlyphDimensionImpl(1, 1, 1, 1, null, null);
         }
@@ -272,23 +348,21 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
         }
 
         @Override
-        protected TreeMap<Character, Character> chartable () {
-            TreeMap<Character, Character> table = new TreeMap<Character, Character>();
-            HashSet<Character> done = new HashSet<Character>();
+        protected SortedMap<Character, Character> chartable () {
+            Slots table = new Slots();
+            BitSet done = new BitSet();
             Set<Character> set = wrapped.getCharTable().keySet();
-            HashSet<Character> todo = new HashSet<Character>();
-            Character k;
+            BitSet todo = new BitSet();
             for (Character c : set) {
                 if (compat.equals(wrapped.backTrack(c))) {
-                    k = wrapped.trackCharacter(c);
-                    table.put(k, c);
-                    done.add(c);
+                    table.put(wrapped.trackCharacter(c), c);
+                    done.set(c);
                 }
             }
             for (Character c : set) {
-                if (!done.contains(c)) {
-                    if (table.containsKey(c)) {
-                        todo.add(c);
+                if (!done.get(c)) {
+                    if (table.contains(c)) {
+                        todo.set(c);
                     }
                     else {
                         table.put(c, c);
@@ -296,7 +370,7 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
                 }
             }
             appendTodo(todo, table);
-            return table;
+            return table.toCharTable();
         }
     }
 
@@ -355,6 +429,11 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
             return wrapped.getGlyph(entry);
         }
 
+        @Override
+        public void resolve (Character c, Step step) {
+            step.descend(wrapped, c, null);
+        }
+
         private EditableSource ed () {
             if (editingEnabled()) {
                 return (EditableSource) wrapped;
@@ -443,6 +522,12 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
         return merge(impl, e);
     }
 
+    @Override
+    public void resolve (Character c, Step step) {
+        Character w = reMap(getCharTable().get(c));
+        step.descend(wrapped, w, getEdits(w));
+    }
+
     private CUFGlyph merge (CUFGlyph glyph, I code) {
         CUFGlyphDimension dim = glyph.getDimension();
         return new CUFGlyph(merge(dim, code), glyph.getBitMapData());
@@ -539,7 +624,7 @@ public abstract class WrappedSource<C, I> extends AbstractCUFSource<I> implement
      */
     @Override
     public CUFSource backTrack (Character c) {
-        if (charTable.containsKey(c)) {
+        if (codeOf(c) >= 0) {
             return wrapped.backTrack(reMap(getCharTable().get(c)));
         }
         else {
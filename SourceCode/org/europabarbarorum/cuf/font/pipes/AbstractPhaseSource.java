@@ -164,6 +164,32 @@ public abstract class AbstractPhaseSource<C> extends AbstractCUFSource<C> implem
                 }
             };
         }
+
+        /**
+         * Describe the {@link Transform} objects registered in the pipeline, in order.
+         * This description can be used as part of the key to a {@link GlyphCache}.
+         * @return the {@link Transform.CacheableTransform#identity() identities} of all registered
+         * {@link Transform} objects, or null if the pipeline contains a {@link Transform} which is not a
+         * {@link Transform.CacheableTransform} or a {@link Phase} which does not extend {@link Phase.PhaseImpl}.
+         */
+        public String identity () {
+            StringBuilder sb = new StringBuilder();
+            for (Phase p : phases) {
+                if (!(p instanceof Phase.PhaseImpl)) {
+                    return null;
+                }
+                sb.append(p.getClass().getName()).append('[');
+                for (Object t : ((Phase.PhaseImpl) p).transforms()) {
+                    if (!(t instanceof Transform.CacheableTransform)) {
+                        return null;
+                    }
+                    sb.append(((Transform.CacheableTransform) t).identity()).
+                            append(';');
+                }
+                sb.append(']');
+            }
+            return sb.toString();
+        }
     }
     /**
      * The “pipeline” of this {@link PhasedCUFSource}.
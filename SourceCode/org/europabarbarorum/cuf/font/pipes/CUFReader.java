@@ -29,8 +29,14 @@
 package org.europabarbarorum.cuf.font.pipes;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.TreeMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import org.europabarbarorum.cuf.font.impl.CharTable;
 import org.europabarbarorum.cuf.font.impl.FormatConstants;
 import org.europabarbarorum.cuf.font.impl.CUFGlyph;
 import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
@@ -41,9 +47,15 @@ import org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty;
 import org.europabarbarorum.cuf.font.impl.Kerner;
 import org.europabarbarorum.cuf.support.IOHelp;
 import org.europabarbarorum.cuf.support.MimeTag;
+import org.europabarbarorum.cuf.support.ResourceHelp.BooleanResource;
+import org.europabarbarorum.cuf.support.Setting;
+import org.europabarbarorum.cuf.support.Setting.Modifiable;
 
 /**
  * Object to represent the contents of a CUF file as a font.
+ * Once initialised, a {@link CUFReader} supports concurrent calls to {@link #getGlyph(org.europabarbarorum.cuf.font.impl.CharTableEntry) },
+ * {@link #getGlyphDimension(org.europabarbarorum.cuf.font.impl.CharTableEntry) } and kerning: the file is only
+ * accessed through positional reads (or through a read-only mapping, see {@link #MapFiles}).
  * @author Johan Ouwerkerk
  */
 public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
@@ -58,10 +70,11 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
                 long start = offset + getGlyphDataOffset();
 
                 CUFGlyphDimension dimension = getGlyphDimension(entry);
-                args.seek(start);
+                if (dimension == null) {
+                    throw new Exception(Messages.MissingTable.format("readT"));
+                }
                 byte[] buf = new byte[dimension.getSize()];
-
-                int r = args.read(buf, 0, dimension.getSize());
+                int r = read(start, buf);
                 if (r == dimension.getSize()) {
                     return new CUFGlyph(dimension, buf);
                 }
@@ -76,15 +89,41 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
     }
 
     /**
-     * Create a new {@link CUFReader}.
+     * {@link Boolean} preference which determines whether or not a {@link CUFReader} created
+     * using {@link #CUFReader() } maps the CUF file into memory. This setting defaults to false.
+     */
+    public static final Setting<Boolean> MapFiles = new Setting<Boolean>(
+            "cuf.reader.mapped",
+            "false",
+            new BooleanResource(),
+            Modifiable.Conf);
+
+    /**
+     * Create a new {@link CUFReader}. Whether or not the CUF file is mapped into memory
+     * is determined by the {@link #MapFiles} preference.
      */
     public CUFReader () {
+        this(MapFiles.get());
+    }
+
+    /**
+     * Create a new {@link CUFReader}.
+     * @param mapped whether or not to map the CUF file into memory. A mapped {@link CUFReader}
+     * serves glyph bitmaps, meta data tables and kerning information straight from the mapping
+     * instead of reading them from the file each time they are needed. Note that on some platforms
+     * a file cannot be deleted or overwritten while it is mapped.
+     */
+    public CUFReader (boolean mapped) {
         super(false);
+        this.mapped = mapped;
         this.pipeLine.register(StandardPhases.ReadGlyph.phase(), readT());
     }
-    private byte[] glyphOffsetTable = null;
-    private byte[] glyphDimensionTable = null;
+    private volatile byte[] glyphOffsetTable = null;
+    private volatile byte[] glyphDimensionTable = null;
     private RandomAccessFile reader = null;
+    private volatile FileChannel channel = null;
+    private final boolean mapped;
+    private volatile ByteBuffer mapping = null;
 
     /**
      * (Re-)initialise the reader to work with the given source.
@@ -121,6 +160,13 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
                 if (doParse) { // reader is null ergo not initialized/created yet.
                     cufSource = source;
                     reader = new RandomAccessFile(new File(source), "r");
+                    channel = reader.getChannel();
+                    if (mapped) {
+                        mapping = channel.map(FileChannel.MapMode.READ_ONLY,
+                                              0,
+                                              channel.size()).order(
+                                ByteOrder.LITTLE_ENDIAN);
+                    }
                     initParser(); // this will set prepared appropriately
                 }
             }
@@ -136,18 +182,7 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
     @SuppressWarnings("unchecked")
     protected void deriveCharTable () {
         byte[] bs = readCharTable();
-        charTable = new TreeMap<Character, CharTableEntry>();
-
-        for (int canCode = 0, i = 0; i < bs.length; i += 2) {
-
-            canCode = IOHelp.endianConversion(bs, i, 2);
-
-            if (canCode != FormatConstants.__LIMIT__.value()) {
-                Character c = IOHelp.fromCode(i >> 1);
-
-                charTable.put(c, new CharTableEntry(canCode, c));
-            }
-        }
+        charTable = CharTable.Codes.fromCUF(bs == null ? new byte[0] : bs);
     }
 
     /**
@@ -217,6 +252,17 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
             return;
         }
         this.getEditor().toggleKerning(this.supportsKerning());
+        // derive the char table up front, so it is never built concurrently by different threads
+        getCharTable();
+        /*
+         * load the meta data tables up front as well: a lazy read may be interrupted, and the reader may be
+         * closed (and its mapping released) while other threads still look up glyphs.
+         */
+        getGlyphDimensionTable();
+        getGlyphOffsetTable();
+        if (tainted()) {
+            return;
+        }
         this.prepared = true;
     }
 
@@ -228,9 +274,20 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
      *
      * @param charCode index of the glyph in the character table
      * @return offset data in decoded form
+     * @throws IllegalStateException if the offset table could not be read.
      */
     public int getGlyphOffset (int charCode) {
+        ByteBuffer m = mapping;
+        if (m != null) {
+            return m.getInt(FormatConstants.START_OF_GLYPH_META_TABLES.value()
+                    + ((getCUFProperties(CUFProperty.NumberOfGlyphs) + charCode) << 2));
+        }
         byte[] data = getGlyphOffsetTable();
+        if (data == null) {
+            checkTainted("getGlyphOffset");
+            throw new IllegalStateException(Messages.MissingTable.format(
+                    "getGlyphOffset"));
+        }
         return IOHelp.endianConversion(data, charCode << 2, 4);
     }
 
@@ -241,14 +298,20 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
      * of the entire table for faster best/average performance when used repeatedly.
      *
      * @param entry object representing the glyph's entry in the {@link #charTable}.
-     * @return object representing decoded dimension data
+     * @return object representing decoded dimension data, or null if the entry is null or the dimension table
+     * could not be read.
      */
     @Override
     public CUFGlyphDimension getGlyphDimension (CharTableEntry entry) {
         if (entry != null) {
+            ByteBuffer m = mapping;
+            if (m != null) {
+                return convertToDimension(entry, m,
+                                          FormatConstants.START_OF_GLYPH_META_TABLES.value());
+            }
             byte[] data = getGlyphDimensionTable();
 
-            return convertToDimension(entry, data);
+            return data == null ? null : convertToDimension(entry, data);
         }
         else {
             return null;
@@ -285,15 +348,19 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
 
         @Override
         public Integer kerning (Character c2) {
-            CharTableEntry cte = getCharTable().get(c2);
-            return cte == null ? null : lookupKerning(k,
-                                                      map(cte.getCode()));
+            int code = codeOf(c2);
+            return code < 0 ? null : lookupKerning(k, map(code));
         }
 
         private Integer lookupKerning (int offset, int code2) {
             if (offset < 0 || code2 < 0) {
                 return null;
             }
+            ByteBuffer m = mapping;
+            if (m != null) {
+                int pos = offset + startKerningData() + code2;
+                return pos < m.limit() ? m.get(pos) & 0xFF : null;
+            }
             byte[] buf = safeRead(offset + startKerningData() + code2, 1);
             return buf == null ? null : IOHelp.byteConversion(buf, 0, 1, false);
         }
@@ -315,10 +382,9 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
 
     private void readKerningInfo () {
         try {
-            reader.seek(startKerningInfo());
             int k = FormatConstants.KerningPropTableSize.value();
             byte[] bs = new byte[k];
-            int r = reader.read(bs);
+            int r = read(startKerningInfo(), bs);
 
             if (r == k) {
                 FormatConstants[] fcs = new FormatConstants[] {
@@ -363,6 +429,27 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
                 getEdits(code));
     }
 
+    /**
+     * Convert bytes in a {@link ByteBuffer} to a {@link CUFGlyphDimension}.
+     * @param data buffer containing the dimension table.
+     * @param start absolute index in the buffer at which the dimension table begins.
+     * @see #convertToDimension(org.europabarbarorum.cuf.font.impl.CharTableEntry, byte[])
+     */
+    private CUFGlyphDimension convertToDimension (CharTableEntry code,
+                                                  ByteBuffer data,
+                                                  int start) {
+        int offset = start + (code.getCode() << 2);
+        return new CUFGlyphDimensionImpl(
+                data.get(offset + FormatConstants.GlyphWidth.value()) & 0xFF,
+                data.get(offset + FormatConstants.GlyphHeight.value()) & 0xFF,
+                data.get(offset + FormatConstants.GlyphAllocWidth.value()) & 0xFF,
+                IOHelp.sign(
+                data.get(offset + FormatConstants.GlyphAllocHeight.value()) & 0xFF,
+                1),
+                createKerner(code),
+                getEdits(code));
+    }
+
     /**
      * Fetches the table encoding dimensions of glyphs in the CUF File
      * @return bytes in the CUF File representing this dimension table
@@ -420,9 +507,12 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
     }
 
     /**
-     * Close the underlying {@link RandomAccessFile}.
+     * Close the underlying {@link RandomAccessFile}. If the file was mapped into memory,
+     * the mapping is released when it is garbage collected.
+     * This method is synchronized with re-opening the file after a reading thread was interrupted,
+     * so that a closed {@link CUFReader} stays closed.
      */
-    public void close () {
+    public synchronized void close () {
         try {
             reader.close();
         }
@@ -431,6 +521,8 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
 
         }
         reader = null;
+        channel = null;
+        mapping = null;
     }
 
     /**
@@ -486,12 +578,84 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
         }
     }
 
+    /**
+     * Fill a buffer with bytes from the CUF file, without affecting any shared file pointer.
+     * @param from absolute offset in the file of the first byte to read.
+     * @param buf buffer to fill.
+     * @return the number of bytes read, or -1 if the offset is beyond the end of the file.
+     * @throws IOException if reading fails.
+     */
+    private int read (final long from, final byte[] buf) throws IOException {
+        ByteBuffer m = mapping;
+        if (m != null) {
+            return mappedRead(m, from, buf);
+        }
+        while (true) {
+            FileChannel ch = channel;
+            if (ch == null) {
+                throw new ClosedChannelException();
+            }
+            try {
+                return channelRead(ch, from, buf);
+            }
+            catch (ClosedChannelException e) {
+                /*
+                 * A thread interrupted while reading closes the channel for all threads, including those which
+                 * only start reading afterwards: re-open it so the reader remains usable, and retry unless
+                 * this thread was the one interrupted. If the reader was closed, the retry fails.
+                 */
+                reopen(ch);
+                if (e instanceof ClosedByInterruptException) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private int channelRead (FileChannel ch, long from, byte[] buf) throws
+            IOException {
+        ByteBuffer b = ByteBuffer.wrap(buf);
+        while (b.hasRemaining()) {
+            if (ch.read(b, from + b.position()) < 0) {
+                break;
+            }
+        }
+        return b.position() == 0 && buf.length > 0 ? -1 : b.position();
+    }
+
+    private synchronized void reopen (FileChannel closed) throws IOException {
+        if (channel == closed && reader != null) {
+            reader = new RandomAccessFile(new File(cufSource), "r");
+            channel = reader.getChannel();
+        }
+    }
+
+    /**
+     * Copy bytes from the {@link #mapping} into a buffer.
+     * @param source the value of {@link #mapping} to copy from.
+     * @param from absolute index of the first byte to copy.
+     * @param buf buffer to fill.
+     * @return the number of bytes copied, or -1 if the index is beyond the end of the mapping.
+     */
+    private int mappedRead (final ByteBuffer source, final long from,
+                            final byte[] buf) {
+        if (buf.length == 0) {
+            return 0;
+        }
+        if (from >= source.limit()) {
+            return -1;
+        }
+        ByteBuffer view = source.duplicate();
+        view.position((int) from);
+        int got = Math.min(buf.length, view.remaining());
+        view.get(buf, 0, got);
+        return got;
+    }
+
     private byte[] unsafeRead (final long from, final int length) throws
             Exception {
-        int got = 0;
-        reader.seek(from);
         byte[] buf = new byte[length];
-        got = reader.read(buf);
+        int got = read(from, buf);
         if (got == length) {
             return buf;
         }
@@ -503,6 +667,12 @@ public class CUFReader extends AbstractPhaseSource<CharTableEntry> {
             checkTainted("safeRead");
             return unsafeRead(from, length);
         }
+        catch (ClosedByInterruptException e) {
+            // only the interrupted thread is affected, so do not taint the reader
+            IOHelp.handleExceptions(CUFReader.class, "safeRead",
+                                    e, e.getMessage());
+            return null;
+        }
         catch (Exception e) {
             IOHelp.handleExceptions(CUFReader.class, "safeRead",
                                     e, e.getMessage());
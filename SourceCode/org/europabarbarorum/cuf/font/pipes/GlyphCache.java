@@ -0,0 +1,372 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.pipes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension.CUFGlyphDimensionImpl;
+import org.europabarbarorum.cuf.support.IOHelp;
+import org.europabarbarorum.cuf.support.ResourceHelp.BooleanResource;
+import org.europabarbarorum.cuf.support.ResourceHelp.FileResource;
+import org.europabarbarorum.cuf.support.ResourceHelp.PositiveInteger;
+import org.europabarbarorum.cuf.support.Setting;
+import org.europabarbarorum.cuf.support.Setting.Modifiable;
+
+/**
+ * A cache of rendered glyphs on local disk, shared between runs of the program.
+ * Each glyph is stored in a file of its own, named after a hash of its {@link #key(java.lang.String[]) key}.
+ * A key must describe everything that determines the output of rendering a glyph: the font, the
+ * {@link Transform} objects of the rendering pipeline, and the character. Glyphs are therefore never
+ * invalidated: if anything changes, the key changes as well.
+ * <p>
+ * The total size of the cache is kept below the limit of the {@link #Budget} setting by deleting
+ * the least recently used glyphs. Reading a glyph from the cache counts as using it.
+ * </p>
+ * @see SystemFontSource
+ * @author Johan Ouwerkerk
+ */
+public class GlyphCache {
+
+    /**
+     * {@link Boolean} preference which determines whether or not rendered glyphs are
+     * stored in a {@link GlyphCache}. This setting defaults to false.
+     */
+    public static final Setting<Boolean> Enabled = new Setting<Boolean>(
+            "cuf.glyphcache.enabled",
+            "false",
+            new BooleanResource(),
+            Modifiable.Conf);
+    /**
+     * {@link File} preference corresponding to the directory in which a {@link GlyphCache} stores glyphs.
+     */
+    public static final Setting<File> Directory = new Setting<File>(
+            "cuf.glyphcache.dir",
+            System.getProperty("user.home") + File.separator + ".cuf"
+            + File.separator + "glyphs",
+            new FileResource(),
+            Modifiable.Conf);
+    /**
+     * {@link Integer} preference which determines the size (in MiB) up to which a
+     * {@link GlyphCache} may grow. This setting defaults to 64.
+     */
+    public static final Setting<Integer> Budget = new Setting<Integer>(
+            "cuf.glyphcache.size",
+            "64",
+            new PositiveInteger(),
+            Modifiable.Conf);
+    private static final int MAGIC = 0x43554647; // CUFG
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".glyph";
+    private static GlyphCache shared;
+
+    /**
+     * Get the {@link GlyphCache} to use.
+     * @return a {@link GlyphCache} for the {@link #Directory} and {@link #Budget} settings,
+     * or null if the {@link #Enabled} setting is false.
+     */
+    public static synchronized GlyphCache get () {
+        if (!Enabled.get()) {
+            return null;
+        }
+        File dir = Directory.get();
+        long budget = Budget.get() * 1024L * 1024L;
+        if (shared == null || !shared.dir.equals(dir) || shared.budget != budget) {
+            shared = new GlyphCache(dir, budget);
+        }
+        return shared;
+    }
+
+    /**
+     * Derive a cache key from a description of a glyph.
+     * @param parts strings which together describe everything that determines the output of rendering a glyph.
+     * @return a key for use with {@link #read(java.lang.String) } and {@link #write(java.lang.String, org.europabarbarorum.cuf.font.impl.CUFGlyph) }.
+     */
+    public static String key (String... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (String p : parts) {
+                md.update(p.getBytes("UTF-8"));
+                md.update((byte) 0);
+            }
+            return hex(md.digest());
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compute a digest of the contents of a file, for use as part of a key.
+     * @param file the file to digest.
+     * @return a hexadecimal digest of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String digest (File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            for (int r = in.read(buf); r >= 0; r = in.read(buf)) {
+                md.update(buf, 0, r);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return hex(md.digest());
+    }
+
+    private static String hex (byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    private final File dir;
+    private final long budget;
+    private final AtomicLong size = new AtomicLong(-1);
+    private volatile boolean broken = false;
+
+    /**
+     * Create a new {@link GlyphCache}.
+     * @param dir the directory in which to store glyphs. It is created if it does not exist.
+     * @param budget the size (in bytes) up to which the cache may grow.
+     */
+    public GlyphCache (File dir, long budget) {
+        this.dir = dir;
+        this.budget = budget;
+    }
+
+    private File file (String key) {
+        return new File(new File(dir, key.substring(0, 2)), key.substring(2)
+                + SUFFIX);
+    }
+
+    /**
+     * Look up a glyph in this {@link GlyphCache}.
+     * @param key the key of the glyph.
+     * @return the cached glyph, or null if it is not in the cache. The dimension of the glyph does not
+     * provide kerning information or edits.
+     */
+    public CUFGlyph read (String key) {
+        File f = file(key);
+        if (broken || !f.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(f)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(f.getPath());
+            }
+            CUFGlyphDimension dim = new CUFGlyphDimensionImpl(in.readInt(),
+                                                              in.readInt(),
+                                                              in.readInt(),
+                                                              in.readInt());
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            f.setLastModified(System.currentTimeMillis());
+            return new CUFGlyph(dim, data);
+        }
+        catch (Exception e) {
+            // corrupt or truncated: render the glyph again
+            close(in);
+            in = null;
+            long length = f.length();
+            if (f.delete() && size.get() >= 0) {
+                size.addAndGet(-length);
+            }
+            return null;
+        }
+        finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Store a glyph in this {@link GlyphCache}.
+     * If the cache cannot be written, a warning is emitted and the cache is no longer used.
+     * @param key the key of the glyph.
+     * @param glyph the glyph to store.
+     */
+    public void write (String key, CUFGlyph glyph) {
+        if (broken) {
+            return;
+        }
+        File f = file(key);
+        File tmp = new File(f.getParentFile(), f.getName() + "."
+                + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            File parent = f.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException(parent.getPath());
+            }
+            CUFGlyphDimension dim = glyph.getDimension();
+            byte[] data = glyph.getBitMapData();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dim.getWidth());
+            out.writeInt(dim.getHeight());
+            out.writeInt(dim.getAdvanceWith());
+            out.writeInt(dim.getY());
+            out.writeInt(data.length);
+            out.write(data);
+            out.close();
+            out = null;
+            long length = tmp.length();
+            // scan the directory (if not done yet) before the glyph is added to it, so that it is not counted twice
+            size();
+            // renaming replaces a glyph stored by another thread on some platforms
+            long replaced = f.length();
+            if (tmp.renameTo(f)) {
+                if (size.addAndGet(length - replaced) > budget) {
+                    evict();
+                }
+            }
+            else {
+                // another thread stored the same glyph first
+                tmp.delete();
+            }
+        }
+        catch (Exception e) {
+            broken = true;
+            close(out);
+            tmp.delete();
+            IOHelp.warn(GlyphCache.class, Messages.GlyphCacheError, dir, e.
+                    getLocalizedMessage());
+        }
+    }
+
+    private static void close (java.io.Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    private File[] files () {
+        ArrayList<File> list = new ArrayList<File>();
+        File[] subs = dir.listFiles();
+        if (subs != null) {
+            for (File sub : subs) {
+                File[] fs = sub.isDirectory() ? sub.listFiles() : null;
+                if (fs != null) {
+                    for (File f : fs) {
+                        if (f.getName().endsWith(SUFFIX)) {
+                            list.add(f);
+                        }
+                    }
+                }
+            }
+        }
+        return list.toArray(new File[list.size()]);
+    }
+
+    /**
+     * Get the total size of the glyphs in this {@link GlyphCache}.
+     * The directory is scanned the first time this method is called.
+     * @return the size of this {@link GlyphCache} in bytes.
+     */
+    public long size () {
+        long s = size.get();
+        if (s < 0) {
+            s = 0;
+            for (File f : files()) {
+                s += f.length();
+            }
+            if (!size.compareAndSet(-1, s)) {
+                s = size.get();
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Delete the least recently used glyphs until this {@link GlyphCache} is back to three quarters of its budget.
+     */
+    private synchronized void evict () {
+        if (size.get() <= budget) {
+            return;
+        }
+        File[] fs = files();
+        final long[] used = new long[fs.length];
+        Integer[] order = new Integer[fs.length];
+        long total = 0;
+        for (int i = 0; i < fs.length; ++i) {
+            used[i] = fs[i].lastModified();
+            total += fs[i].length();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare (Integer o1, Integer o2) {
+                return used[o1] < used[o2] ? -1 : used[o1] == used[o2] ? 0 : 1;
+            }
+        });
+        long target = budget - (budget >> 2);
+        for (int i = 0; i < order.length && total > target; ++i) {
+            File f = fs[order[i]];
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+            }
+        }
+        size.set(total);
+    }
+}
@@ -49,6 +49,11 @@ public enum Messages implements BundleKey {
      * bytes actually read as arguments.
      */
     NotEnoughData(CUFReader.class),
+    /**
+     * Thrown when a {@link CUFReader} has no glyph meta data table to look up a glyph in.
+     * Takes a method name as argument.
+     */
+    MissingTable(CUFReader.class),
     /**
      * Thrown when a {@link Phase} class listed for exposure is null.
      * Takes no arguments.
@@ -89,7 +94,12 @@ public enum Messages implements BundleKey {
      * {@link Transform transorms} successfully applied and the expected number
      * as arguments.
      */
-    ValidationFailed(Phase.class);
+    ValidationFailed(Phase.class),
+    /**
+     * Emitted when a {@link GlyphCache} cannot store glyphs. Takes the directory of the
+     * cache and an error message as arguments.
+     */
+    GlyphCacheError(GlyphCache.class);
 
     private Messages (Class type) {
         this.type = type;
@@ -28,6 +28,7 @@
  */
 package org.europabarbarorum.cuf.font.pipes;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import org.europabarbarorum.cuf.support.IOHelp;
@@ -127,6 +128,14 @@ public interface Phase<O, I, C> {
         private List<Transform<O, I, A>> list =
                 new LinkedList<Transform<O, I, A>>();
 
+        /**
+         * Get the {@link Transform} objects registered with this {@link PhaseImpl}.
+         * @return a read-only view of the {@link Transform} objects, in the order in which they are applied.
+         */
+        protected List<Transform<O, I, A>> transforms () {
+            return Collections.unmodifiableList(list);
+        }
+
         @Override
         public void set (Transform<O, I, A> transform, int index) {
             if (index > list.size()) {
@@ -34,7 +34,9 @@ import java.awt.font.GlyphMetrics;
 import java.awt.font.GlyphVector;
 import java.awt.geom.Rectangle2D;
 import java.io.RandomAccessFile;
+import java.util.List;
 import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
 import org.europabarbarorum.cuf.font.impl.CharTableEntry;
 
 /**
@@ -176,6 +178,24 @@ public enum StandardPhases {
         public boolean validate (CUFGlyph output, Shape input,Rectangle2D box) {
             return output != null;
         }
+
+        /**
+         * Compute the dimension of the {@link CUFGlyph} that {@link #run(java.lang.Object, java.lang.Object) }
+         * would produce, without rendering the glyph.
+         * @param input the glyph shape object to measure
+         * @param box the alignment box of the glyph
+         * @return the dimension of the glyph, or null if the {@link Transform} of this phase
+         * is not a {@link Transform.ShapeGlyph} which can {@link Transform.ShapeGlyph#measure(java.awt.Shape, java.awt.geom.Rectangle2D) measure}
+         * glyphs.
+         */
+        public CUFGlyphDimension measure (Shape input, Rectangle2D box) {
+            List<Transform<CUFGlyph, Shape, Rectangle2D>> list = transforms();
+            if (input == null || box == null || list.size() != 1
+                    || !(list.get(0) instanceof Transform.ShapeGlyph)) {
+                return null;
+            }
+            return ((Transform.ShapeGlyph) list.get(0)).measure(input, box);
+        }
     }
     
     /**
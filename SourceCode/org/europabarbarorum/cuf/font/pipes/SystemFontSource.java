@@ -31,6 +31,7 @@ package org.europabarbarorum.cuf.font.pipes;
 import org.europabarbarorum.cuf.font.impl.FormatConstants;
 import org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty;
 import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CharTable;
 import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
 import java.awt.Font;
 import java.awt.RenderingHints;
@@ -40,13 +41,31 @@ import java.awt.font.GlyphMetrics;
 import java.awt.font.GlyphVector;
 import java.awt.font.LineMetrics;
 import java.awt.font.TextAttribute;
+import java.awt.font.TransformAttribute;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension.CUFGlyphDimensionImpl;
 import org.europabarbarorum.cuf.font.impl.CharTableEntry;
 import org.europabarbarorum.cuf.font.impl.Kerner;
+import org.europabarbarorum.cuf.support.Classloader;
 import org.europabarbarorum.cuf.support.IOHelp;
+import org.europabarbarorum.cuf.support.ResourceHelp.EnumConstant;
+import org.europabarbarorum.cuf.support.Setting;
+import org.europabarbarorum.cuf.support.Setting.Modifiable;
 
 /**
  * This class provides a way to present system fonts (either read directly from disk or
@@ -69,6 +88,51 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
         setDirection(true);
     }
 
+    /**
+     * Algorithms available to render the shape of a glyph to a bitmap in the
+     * {@link StandardPhases.ShapeGlyph} phase of a {@link SystemFontSource}.
+     * @see #Rasterizer
+     */
+    public static enum ShapeRasterizer {
+
+        /**
+         * Uses {@link Transform.SubResolutionGlyph}, which tests a grid of points in each pixel
+         * against the glyph shape. This is the default.
+         */
+        SubResolution,
+        /**
+         * Uses {@link Transform.ScanlineGlyph}, which computes the coverage of each pixel from
+         * the edges of the glyph outline. This is much faster, and differs from {@link #SubResolution}
+         * only by the rounding error of the points tested by that algorithm.
+         */
+        Scanline;
+
+        /**
+         * Create the {@link Transform} that implements this algorithm.
+         * @return a new {@link Transform.ShapeGlyph} object.
+         */
+        public Transform.ShapeGlyph transform () {
+            switch (this) {
+                case Scanline:
+                    return new Transform.ScanlineGlyph();
+                case SubResolution:
+                default:
+                    return new Transform.SubResolutionGlyph();
+            }
+        }
+    }
+    /**
+     * {@link ShapeRasterizer} preference which determines the {@link Transform} a
+     * {@link SystemFontSource} registers for its {@link StandardPhases.ShapeGlyph} phase
+     * when it is initialised. This setting defaults to {@link ShapeRasterizer#SubResolution}.
+     */
+    public static final Setting<ShapeRasterizer> Rasterizer =
+            new Setting<ShapeRasterizer>(
+            "cuf.font.rasterizer",
+            "SubResolution",
+            new EnumConstant(ShapeRasterizer.class),
+            Modifiable.Conf);
+
 
     /**
      * This method provides a list of {@link Transform} objects intended to maintain compatibility with the
@@ -115,6 +179,26 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
         this.cufSource = source;
     }
 
+    /**
+     * Initialize this {@link SystemFontSource} with a {@link Font} created from a file, and set {@link #cufSource}.
+     * A digest of the file then identifies the font in the key to a {@link GlyphCache}.
+     * @param f the {@link Font} to use for providing glyphs
+     * @param source the new value for {@link #cufSource} to use. This string is used for identification
+     * purposes.
+     * @param file the file the {@link Font} was created from.
+     * @see Font#createFont(int, java.io.File)
+     */
+    public void init (Font f, String source, File file) {
+        this.init(f, source);
+        try {
+            this.fileKey = GlyphCache.digest(file);
+        }
+        catch (IOException e) {
+            IOHelp.handleExceptions(SystemFontSource.class, "init", e, e.
+                    getMessage());
+        }
+    }
+
     /**
      * Common reset logic of the init methods.
      */
@@ -124,6 +208,8 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
         prepared = false;
         context = null;
         cufSource = null;
+        fontKey = null;
+        fileKey = null;
     }
     private FontInformation info;
 
@@ -161,24 +247,13 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
                 return null;
             }
         };
-        Transform<GlyphVector, Font, String> vecSrc = new Transform<GlyphVector, Font, String>() {
-
-            @Override
-            public GlyphVector apply (Font args, String entry) throws
-                    Exception {
-                return args.layoutGlyphVector(context, 
-                        entry.toCharArray(),
-                        0,
-                        entry.length(),
-                        direction);
-            }
-        };
-        this.pipeLine.register(StandardPhases.GetGlyphVector.phase(), vecSrc);
+        this.pipeLine.register(StandardPhases.GetGlyphVector.phase(),
+                               new Layout());
 
         this.pipeLine.register(StandardPhases.AligmentBox.phase(),
                                new Transform.AlignmentBox());
         this.pipeLine.register(StandardPhases.ShapeGlyph.phase(),
-                               new Transform.SubResolutionGlyph());
+                               Rasterizer.get().transform());
 
         Transform.ConditionalTransform[] compats = compatTransforms();
         if (compats != null) {
@@ -210,6 +285,34 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
     }
 
     private int direction;
+
+    /**
+     * The {@link Transform} which lays out a glyph with the {@link FontRenderContext} and run direction of
+     * this {@link SystemFontSource}.
+     */
+    private class Layout implements Transform<GlyphVector, Font, String>,
+                                    Transform.CacheableTransform {
+
+        @Override
+        public GlyphVector apply (Font args, String entry) throws
+                Exception {
+            return args.layoutGlyphVector(context,
+                                          entry.toCharArray(),
+                                          0,
+                                          entry.length(),
+                                          direction);
+        }
+
+        @Override
+        public String identity () {
+            return String.format("%1$s(%2$s,%3$s,%4$s,%5$d)",
+                                 Layout.class.getName(),
+                                 context.getTransform(),
+                                 context.getAntiAliasingHint(),
+                                 context.getFractionalMetricsHint(),
+                                 direction);
+        }
+    }
     /**
      * Set the run direction of the text. This setting may have an effect on kerning 
      * data.
@@ -262,6 +365,16 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
         CUFGlyph glyph = null;
         byte[] bs = null;
 
+        GlyphCache gc = GlyphCache.get();
+        String key = gc == null ? null : cacheKey(entry);
+        if (key != null) {
+            glyph = gc.read(key);
+            if (glyph != null) {
+                return new CUFGlyph(intercept(entry, glyph.getDimension()),
+                                    glyph.getBitMapData());
+            }
+        }
+
         while (ple.hasMoreElements()) {
             p = ple.nextElement();
 
@@ -290,9 +403,105 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
                     break;
             }
         }
-        return intercept(entry,
-                         glyph.getDimension(),
-                         bs == null ? new byte[] {} : bs);
+        if (bs == null) {
+            bs = new byte[] {};
+        }
+        if (key != null) {
+            gc.write(key, new CUFGlyph(glyph.getDimension(), bs));
+        }
+        return new CUFGlyph(intercept(entry, glyph.getDimension()), bs);
+    }
+
+    private volatile String fontKey;
+    private volatile String fileKey;
+
+    /**
+     * Describe the {@link Font} used by this {@link SystemFontSource} for the key to a {@link GlyphCache}.
+     * The font is identified by its names, its attributes and a digest of the file it was read from.
+     * No public API exposes the file of an installed font, so for those a digest of the outlines of a sample
+     * of its glyphs is used instead.
+     * @return a description of the font, or null if some attribute of the font cannot be described.
+     */
+    private String fontKey () {
+        String k = fontKey;
+        if (k != null) {
+            return k.length() == 0 ? null : k;
+        }
+        StringBuilder sb = new StringBuilder(getClass().getName());
+        sb.append('/').append(coverageKey(font));
+        TreeMap<String, String> attrs = new TreeMap<String, String>();
+        for (Map.Entry<TextAttribute, ?> e : font.getAttributes().entrySet()) {
+            Object v = e.getValue();
+            if (v == null) {
+                continue;
+            }
+            String s = v instanceof TransformAttribute
+                       ? ((TransformAttribute) v).getTransform().toString()
+                       : v.toString();
+            if (s.equals(v.getClass().getName() + "@"
+                    + Integer.toHexString(v.hashCode()))) {
+                // no stable description of this value
+                fontKey = "";
+                return null;
+            }
+            attrs.put(e.getKey().toString(), s);
+        }
+        sb.append(attrs);
+        if (fileKey != null) {
+            k = sb.append('/').append(fileKey).toString();
+            fontKey = k;
+            return k;
+        }
+
+        char[] sample = new char[Math.min(32, getCharTable().size())];
+        int step = Math.max(1, getCharTable().size() / Math.max(1, sample.length));
+        int i = 0, n = 0;
+        for (Character c : getCharTable().keySet()) {
+            if (n < sample.length && i % step == 0) {
+                sample[n++] = c;
+            }
+            ++i;
+        }
+        int h = outlineHash(font.createGlyphVector(context, sample).getOutline());
+        sb.append('/').append(new String(sample)).append('/').append(h);
+        k = sb.toString();
+        fontKey = k;
+        return k;
+    }
+
+    private static int outlineHash (Shape outline) {
+        double[] coords = new double[6];
+        PathIterator it = outline.getPathIterator(null);
+        int h = 0;
+        while (!it.isDone()) {
+            int type = it.currentSegment(coords);
+            h = 31 * h + type;
+            for (double d : coords) {
+                long bits = Double.doubleToLongBits(d);
+                h = 31 * h + (int) (bits ^ (bits >>> 32));
+            }
+            it.next();
+        }
+        return h;
+    }
+
+    /**
+     * Compute the key to the glyph of a character in the {@link GlyphCache}. Besides the font and the pipeline,
+     * the key includes a digest of the outline of the glyph itself, so that a glyph whose outline differs
+     * from the one stored is not read from the cache even if the font cannot be told apart.
+     * @param entry the character.
+     * @return the key to the glyph, or null if the glyph cannot be cached because the font or the pipeline
+     * cannot be described.
+     */
+    private String cacheKey (Character entry) {
+        String pipe = pipeLine.identity();
+        String f = pipe == null ? null : fontKey();
+        if (f == null) {
+            return null;
+        }
+        String c = entry.toString();
+        int outline = outlineHash(font.createGlyphVector(context, c).getOutline());
+        return GlyphCache.key(f, pipe, c, Integer.toString(outline));
     }
 
     /**
@@ -304,13 +513,68 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
      * apply here as well. Hence this method is equivalent to calling {@link CUFGlyph#getDimension() } on
      * the result of {@link #getGlyph(java.lang.Character) } on this object.
      * </p>
+     * <p>
+     * The glyph is not rendered if the {@link StandardPhases.ShapeGlyph} phase can
+     * {@link StandardPhases.ShapeGlyph#measure(java.awt.Shape, java.awt.geom.Rectangle2D) measure} it:
+     * in that case the dimension is computed from the {@link GlyphMetrics} and the bounds of the
+     * glyph outline. Otherwise this method falls back to {@link #getGlyph(java.lang.Character) }.
+     * </p>
      * @param entry the character to convert to {@link CUFGlyphDimension}.
      * @return the {@link CUFGlyphDimension} of the glyph found for the entry or null if unsuccessful.
      */
     @Override
+    @SuppressWarnings("unchecked")
     public CUFGlyphDimension getGlyphDimension (Character entry) {
-        CUFGlyph glyph = getGlyph(entry);
-        return glyph == null ? null : glyph.getDimension();
+        if (entry == null) {
+            return null;
+        }
+        Shape cache = null;
+        Rectangle2D box = null;
+        GlyphVector gVector = null;
+        GlyphMetrics gMetrics = null;
+        PipeLineEnumeration ple = pipeLine.enumerate();
+        Phase p;
+        CUFGlyphDimension dim = null;
+
+        GlyphCache gc = GlyphCache.get();
+        String key = gc == null ? null : cacheKey(entry);
+        if (key != null) {
+            CUFGlyph glyph = gc.read(key);
+            if (glyph != null) {
+                return intercept(entry, glyph.getDimension());
+            }
+        }
+
+        while (ple.hasMoreElements() && ple.index() < 4) {
+            p = ple.nextElement();
+
+            switch (ple.index()) {
+                case 1:
+                    gVector = ((Phase<GlyphVector, Font, String>) p).run(
+                            font, entry.toString());
+                    gMetrics = gVector.getGlyphMetrics(0);
+                    cache = gVector.getGlyphOutline(0, 0, 0);
+                    break;
+                case 2:
+                    box = ((Phase<Rectangle2D, GlyphVector, GlyphMetrics>) p).
+                            run(gVector, gMetrics);
+                    break;
+                case 3:
+                    cache = ((Phase<Shape, Shape, FontInformation>) p).run(cache,
+                                                                           info);
+                    break;
+                case 4:
+                    if (p instanceof StandardPhases.ShapeGlyph) {
+                        dim = ((StandardPhases.ShapeGlyph) p).measure(cache, box);
+                    }
+                    break;
+            }
+        }
+        if (dim == null) {
+            CUFGlyph glyph = getGlyph(entry);
+            return glyph == null ? null : glyph.getDimension();
+        }
+        return intercept(entry, dim);
     }
 
     /**
@@ -328,26 +592,125 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
      * If you need reliable handling of characters beyond the BMP (either explicitly discarding them, or
      * re-mapping them in a deterministic fashion) you should subclass this font type...
      * </p>
+     * <p>
+     * Probing every code point of a font is expensive, so the result is shared by all
+     * {@link SystemFontSource} objects that use the same font face.
+     * </p>
      */
     @Override
     @SuppressWarnings("unchecked")
     protected void deriveCharTable () {
-        charTable = new TreeMap<Character, Character>();
-        Character c;
-        int key = 0;
-
-        for (int i = 0; i < Character.MAX_CODE_POINT
-                && key < FormatConstants.__LIMIT__.value(); ++i) {
-            if (Character.isValidCodePoint(i) && font.canDisplay(i)) {
-                c = IOHelp.fromCode(i );
-                if (!charTable.containsKey(c)) {
-                    charTable.put(c, c);
-                    ++key;
+        String key = coverageKey(font);
+        BitSet present = coverage.get(key);
+        if (present == null) {
+            present = probe(font);
+            BitSet previous = coverage.putIfAbsent(key, present);
+            if (previous != null) {
+                present = previous;
+            }
+        }
+        charTable = new CharTable.Identity(present);
+    }
+    /**
+     * Characters supported by fonts which have been probed before, by {@link #coverageKey(java.awt.Font) }.
+     * Which characters a font can display does not depend on its size or transform, so
+     * fonts derived from the same font face share the result of probing it.
+     */
+    private static final ConcurrentHashMap<String, BitSet> coverage =
+            new ConcurrentHashMap<String, BitSet>();
+    /**
+     * Number of code points probed by a single task in {@link #probe(java.awt.Font) }.
+     */
+    private static final int PROBE_CHUNK = 0x4000;
+
+    private static String coverageKey (Font f) {
+        return String.format("%1$s/%2$s/%3$s/%4$d/%5$d",
+                             f.getFontName(Locale.ROOT),
+                             f.getPSName(),
+                             f.getFamily(Locale.ROOT),
+                             f.getStyle(),
+                             f.getNumGlyphs());
+    }
+
+    /**
+     * Probe all code points below {@link Character#MAX_CODE_POINT} with {@link Font#canDisplay(int) }.
+     * The code points are probed in chunks, on a pool of threads if more than one processor is available.
+     * Afterwards the results are folded to characters with {@link IOHelp#fromCode(int) } in order of
+     * code point, until the chartable is full.
+     * @param f the font to probe.
+     * @return the set of characters to use in the chartable of the given font.
+     */
+    private static BitSet probe (final Font f) {
+        int chunks = (Character.MAX_CODE_POINT + PROBE_CHUNK - 1) / PROBE_CHUNK;
+        int threads = Math.min(chunks, Runtime.getRuntime().availableProcessors());
+        ArrayList<Future<BitSet>> parts = new ArrayList<Future<BitSet>>(chunks);
+        ExecutorService pool = threads > 1
+                ? Executors.newFixedThreadPool(threads, Classloader.threadFactory(
+                "SystemFontSource.probe(%d)"))
+                : null;
+        try {
+            if (pool != null) {
+                for (int k = 0; k < chunks; ++k) {
+                    final int start = k * PROBE_CHUNK;
+                    parts.add(pool.submit(new Callable<BitSet>() {
+
+                        @Override
+                        public BitSet call () {
+                            return probe(f, start);
+                        }
+                    }));
+                }
+            }
+
+            BitSet present = new BitSet(CharTable.LIMIT);
+            int limit = FormatConstants.__LIMIT__.value(), key = 0;
+            for (int k = 0; k < chunks && key < limit; ++k) {
+                int start = k * PROBE_CHUNK;
+                BitSet part = null;
+                if (pool != null) {
+                    try {
+                        part = parts.get(k).get();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    catch (ExecutionException e) {
+                        IOHelp.handleExceptions(SystemFontSource.class, "probe",
+                                                e.getCause(), e.getMessage());
+                    }
                 }
+                if (part == null) {
+                    part = probe(f, start);
+                }
+                for (int i = part.nextSetBit(0); i >= 0 && key < limit;
+                        i = part.nextSetBit(i + 1)) {
+                    char c = IOHelp.fromCode(start + i);
+                    if (!present.get(c)) {
+                        present.set(c);
+                        ++key;
+                    }
+                }
+            }
+            return present;
+        }
+        finally {
+            if (pool != null) {
+                pool.shutdownNow();
             }
         }
     }
 
+    private static BitSet probe (Font f, int start) {
+        int end = Math.min(start + PROBE_CHUNK, Character.MAX_CODE_POINT);
+        BitSet part = new BitSet(PROBE_CHUNK);
+        for (int i = start; i < end; ++i) {
+            if (f.canDisplay(i)) {
+                part.set(i - start);
+            }
+        }
+        return part;
+    }
+
     @Override
     public boolean supportsKerning () {
         Object o = this.font.getAttributes().get(TextAttribute.KERNING);
@@ -361,17 +724,26 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
         return null;
     }
 
-    private CUFGlyph intercept (Character c, CUFGlyphDimension d, byte[] data) {
-        return new CUFGlyph(new CUFGlyphDimensionImpl(d.getWidth(),
-                                                  d.getHeight(),
-                                                  d.getAdvanceWith(),
-                                                  d.getY(),
-                                                  getKerner(c),
-                                                  getEdits(c)),
-                            data);
+    private CUFGlyphDimension intercept (Character c, CUFGlyphDimension d) {
+        return new CUFGlyphDimensionImpl(d.getWidth(),
+                                         d.getHeight(),
+                                         d.getAdvanceWith(),
+                                         d.getY(),
+                                         getKerner(c),
+                                         getEdits(c));
     }
 
-    private class KernerImpl implements Kerner {
+    /**
+     * Number of character pairs laid out in a single {@link GlyphVector} when
+     * {@link Kerner.BatchKerner batch kerning} is used.
+     */
+    private static final int KERNING_BATCH = 64;
+    /**
+     * Tolerance (in pixels) for rounding error in glyph positions of a batch.
+     */
+    private static final float KERNING_SLACK = 1f / 64;
+
+    private class KernerImpl implements Kerner.BatchKerner {
 
         private final Character c1;
         private final StandardPhases.GetGlyphVector p;
@@ -387,7 +759,7 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
             String str = new String(new char[] { c1, c2 });
             //try {
             GlyphVector vK = p.run(font, str);
-            if (vK == null) {
+            if (vK == null || vK.getNumGlyphs() < 2) {
                 return null;
             }
             /*
@@ -400,6 +772,124 @@ public class SystemFontSource extends AbstractPhaseSource<Character> {
             str);
             }*/
         }
+
+        /**
+         * Lays out pairs as a single run of text: {@code c1 c2[i] c1 c2[j] ...}, and measures
+         * each second glyph relative to the origin of the first glyph of its pair. Only characters of
+         * scripts which do not require complex layout are batched. A batch in which glyphs cannot be mapped
+         * one-to-one onto characters (ligatures, contextual forms) is measured pair by pair instead.
+         */
+        @Override
+        public void kerning (char[] c2, int[] out) {
+            int[] batch = new int[KERNING_BATCH];
+            int len = 0;
+            boolean simple = simpleLayout(c1);
+            for (int i = 0; i < c2.length; ++i) {
+                if (simple && simpleLayout(c2[i])) {
+                    batch[len] = i;
+                    ++len;
+                    if (len == KERNING_BATCH) {
+                        kerning(c2, batch, len, out);
+                        len = 0;
+                    }
+                }
+                else {
+                    out[i] = kerning(c2, i);
+                }
+            }
+            if (len > 0) {
+                kerning(c2, batch, len, out);
+            }
+        }
+
+        private int kerning (char[] c2, int i) {
+            Integer k = kerning(c2[i]);
+            return k == null ? -1 : k;
+        }
+
+        private void kerning (char[] c2, int[] batch, int len, int[] out) {
+            char[] run = new char[len << 1];
+            for (int i = 0; i < len; ++i) {
+                run[i << 1] = c1;
+                run[(i << 1) + 1] = c2[batch[i]];
+            }
+            GlyphVector v = p.run(font, new String(run));
+            if (!mapped(v, run)) {
+                for (int i = 0; i < len; ++i) {
+                    out[batch[i]] = kerning(c2, batch[i]);
+                }
+                return;
+            }
+            GlyphVector plain = font.createGlyphVector(context, run);
+            Point2D origin;
+            float x, y;
+            int g, lo, hi;
+            for (int i = 0; i < len; ++i) {
+                g = i << 1;
+                origin = v.getGlyphPosition(g);
+                x = (float) -origin.getX();
+                y = (float) -origin.getY();
+                lo = v.getGlyphPixelBounds(g + 1, null, x - KERNING_SLACK, y).x;
+                hi = v.getGlyphPixelBounds(g + 1, null, x + KERNING_SLACK, y).x;
+                /*
+                 * Glyph positions further along the run carry more rounding error than those
+                 * of a pair laid out on its own. If the result is that close to a pixel boundary,
+                 * or the glyphs were substituted, measure the pair separately.
+                 */
+                if (lo == hi
+                        && v.getGlyphCode(g) == plain.getGlyphCode(g)
+                        && v.getGlyphCode(g + 1) == plain.getGlyphCode(g + 1)) {
+                    out[batch[i]] = lo;
+                }
+                else {
+                    out[batch[i]] = kerning(c2, batch[i]);
+                }
+            }
+        }
+
+        private boolean mapped (GlyphVector v, char[] run) {
+            if (v == null || v.getNumGlyphs() != run.length) {
+                return false;
+            }
+            for (int i = 0; i < run.length; ++i) {
+                if (v.getGlyphCharIndex(i) != i) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Test whether a character can be laid out without regard for the characters surrounding it,
+     * apart from kerning. This is a conservative approximation: only characters from the Latin, Greek
+     * and Cyrillic scripts (and common punctuation, digits or symbols) qualify; but not combining marks
+     * nor control or formatting characters.
+     * @param c the character to test.
+     * @return true if the character is safe to measure as part of a longer run of text, false if not.
+     */
+    private static boolean simpleLayout (char c) {
+        switch (Character.getType(c)) {
+            case Character.UNASSIGNED:
+            case Character.CONTROL:
+            case Character.FORMAT:
+            case Character.SURROGATE:
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                return false;
+            default:
+                break;
+        }
+        switch (Character.UnicodeScript.of(c)) {
+            case LATIN:
+            case GREEK:
+            case CYRILLIC:
+            case COMMON:
+                return true;
+            default:
+                return false;
+        }
     }
 
     @Override
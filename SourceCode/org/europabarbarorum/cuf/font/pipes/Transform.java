@@ -32,11 +32,15 @@ import java.awt.Shape;
 import java.awt.font.GlyphMetrics;
 import java.awt.font.GlyphVector;
 import java.awt.font.TextAttribute;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
 import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension.CUFGlyphDimensionImpl;
 
 /**
@@ -106,6 +110,21 @@ public interface Transform<O, I, C> {
         Transform getTransform ();
     }
 
+    /**
+     * Interface for {@link Transform} objects whose output may be stored in a {@link GlyphCache}.
+     * The output of such a {@link Transform} must be fully determined by its input, its context argument and
+     * its {@link #identity() identity}. Subclasses which add configuration of their own must override
+     * {@link #identity() } to include it.
+     */
+    public interface CacheableTransform {
+
+        /**
+         * Describe this {@link Transform} and its configuration.
+         * @return a string which is equal for two {@link Transform} objects only if they produce the same output.
+         */
+        String identity ();
+    }
+
     /**
      * A {@link ConditionalTransform} implementation to provide underlines for {@link SystemFontSource}.
      * @see SingleLineTransform
@@ -187,7 +206,13 @@ public interface Transform<O, I, C> {
      * @see #adjustVerticalAligment(double)
      */
     public static class AlignmentBox implements
-            Transform<Rectangle2D, GlyphVector, GlyphMetrics> {
+            Transform<Rectangle2D, GlyphVector, GlyphMetrics>,
+            CacheableTransform {
+
+        @Override
+        public String identity () {
+            return getClass().getName() + "(" + vAlignment + ")";
+        }
 
         @Override
         public Rectangle2D apply (GlyphVector gVector, GlyphMetrics gMetrics) throws
@@ -236,7 +261,13 @@ public interface Transform<O, I, C> {
      * Note that this class exposes an additional method to control the radius.
      * @see #setSamplingRadius(double)
      */
-    public static class SampleRadiusGlyph extends ShapeGlyph {
+    public static class SampleRadiusGlyph extends ShapeGlyph implements
+            CacheableTransform {
+
+        @Override
+        public String identity () {
+            return getClass().getName() + "(" + samplingRadius + ")";
+        }
 
         @Override
         protected int alpha (Shape s, double x, double y) {
@@ -281,7 +312,13 @@ public interface Transform<O, I, C> {
      * Note that this class exposes an additional method to control the resolution.
      * @see #setResolution(int)
      */
-    public static class SubResolutionGlyph extends ShapeGlyph {
+    public static class SubResolutionGlyph extends ShapeGlyph implements
+            CacheableTransform {
+
+        @Override
+        public String identity () {
+            return getClass().getName() + "(" + resolution + ")";
+        }
 
         @Override
         protected int alpha (Shape s, double x, double y) {
@@ -313,6 +350,325 @@ public interface Transform<O, I, C> {
         private int resolution = 16;
     }
 
+    /**
+     * An implementation of {@link ShapeGlyph} which computes the coverage of each pixel with a scanline algorithm,
+     * instead of testing sample points against the glyph {@link Shape}.
+     * <p>
+     * The outline of the glyph is flattened once into line segments (edges). Each row of pixels is divided
+     * into r sub-scanlines where r is the given resolution. For each sub-scanline the algorithm intersects the
+     * edges that are active on it, and uses the winding rule of the outline (non-zero or even-odd) to determine
+     * which spans of the sub-scanline fall inside the glyph. It then counts the sample points inside each span.
+     * The sub-scanlines and the sample points along them are the same as the r x r sample points of a
+     * {@link SubResolutionGlyph} with the same resolution. Sample points which lie within the flattening error
+     * of a crossing are tested against the glyph {@link Shape} itself, so that they are counted the same way.
+     * </p>
+     * <p>
+     * The number of sample points inside a pixel is converted to an alpha value the same way as in
+     * {@link SubResolutionGlyph}. The cost of this algorithm depends on the number of edges crossed rather than
+     * the number of samples per pixel.
+     * </p>
+     * Note that this class exposes an additional method to control the resolution.
+     * @see #setResolution(int)
+     */
+    public static class ScanlineGlyph extends ShapeGlyph implements
+            CacheableTransform {
+
+        @Override
+        public String identity () {
+            // versioned: earlier versions measured spans instead of counting sample points
+            return getClass().getName() + "(" + resolution + ",2)";
+        }
+
+        /**
+         * Maximum distance between the flattened outline and the actual outline of a glyph, in pixels.
+         */
+        private static final double FLATNESS = 1.0 / 64;
+
+        @Override
+        protected int alpha (Shape s, double x, double y) {
+            return render(s, x, y, 1, 1)[0] & 0xFF;
+        }
+
+        @Override
+        protected byte[] render (Shape s, double x, double y, int cols, int rows) {
+            byte[] data = new byte[cols * rows];
+            if (cols < 1 || rows < 1) {
+                return data;
+            }
+            Edges edges = new Edges(s.getPathIterator(null, FLATNESS));
+            double step = 1.0 / resolution;
+            // left-most sample point of each pixel, computed like SubResolutionGlyph does
+            double[] left = new double[cols];
+            double j = x;
+            for (int l = 0; l < cols; ++l, j += 1.0) {
+                left[l] = j - 0.5;
+            }
+            int[] samples = new int[cols];
+            double[] xs = new double[edges.count];
+            int[] ids = new int[edges.count];
+            int[] active = new int[edges.count];
+            int numActive = 0, next = 0;
+            double i = y;
+
+            for (int r = 0, c = 0; r < rows; ++r, i += 1.0) {
+                Arrays.fill(samples, 0);
+                double ym = i - 0.5;
+                for (int k = 0; k < resolution; ++k) {
+                    double sy = ym + k * step;
+                    // update the active edge list
+                    while (next < edges.count && edges.y0[edges.order[next]] <= sy) {
+                        active[numActive] = edges.order[next];
+                        ++numActive;
+                        ++next;
+                    }
+                    int crossings = 0;
+                    for (int a = 0; a < numActive; ++a) {
+                        int e = active[a];
+                        if (edges.y1[e] <= sy) {
+                            active[a] = active[numActive - 1];
+                            --numActive;
+                            --a;
+                        }
+                        else {
+                            insert(xs, ids, crossings, edges.crossing(e, sy), e);
+                            ++crossings;
+                        }
+                    }
+                    fill(samples, left, xs, ids, crossings, edges);
+                    verify(samples, left, xs, ids, crossings, edges, s, sy);
+                }
+                for (int l = 0; l < cols; ++l, ++c) {
+                    int b0 = SystemFontSource.round(
+                            (0x100 * samples[l]) / (resolution * resolution));
+                    data[c] = (byte) (b0 > 0xFF ? 0xFF : b0);
+                }
+            }
+            return data;
+        }
+
+        /**
+         * Insertion step of an insertion sort of crossings by x coordinate.
+         */
+        private static void insert (double[] xs, int[] ids, int size, double x,
+                                    int id) {
+            int i = size;
+            while (i > 0 && xs[i - 1] > x) {
+                xs[i] = xs[i - 1];
+                ids[i] = ids[i - 1];
+                --i;
+            }
+            xs[i] = x;
+            ids[i] = id;
+        }
+
+        /**
+         * Count the sample points of a sub-scanline which fall inside the glyph, per pixel of a row of pixels.
+         */
+        private void fill (int[] samples, double[] left, double[] xs, int[] ids,
+                           int crossings, Edges edges) {
+            int winding = 0, start = 0;
+            for (int i = 0; i < crossings; ++i) {
+                boolean inside = edges.inside(winding);
+                winding += edges.dir[ids[i]];
+                boolean now = edges.inside(winding);
+                if (!inside && now) {
+                    start = firstSample(left, xs[i]);
+                }
+                else if (inside && !now) {
+                    span(samples, start, firstSample(left, xs[i]));
+                }
+            }
+        }
+
+        /**
+         * Test the sample points which lie within the flattening error of a crossing against the glyph
+         * {@link Shape} itself, and correct the counts of those that fall on the other side of the actual outline.
+         */
+        private void verify (int[] samples, double[] left, double[] xs, int[] ids,
+                             int crossings, Edges edges, Shape s, double sy) {
+            double step = 1.0 / resolution;
+            int done = 0;
+            for (int i = 0; i < crossings; ++i) {
+                double slack = edges.slack[ids[i]];
+                int to = firstSample(left, xs[i] + slack);
+                for (int j = Math.max(done, firstSample(left, xs[i] - slack)); j < to; ++j) {
+                    double sx = left[j / resolution] + (j % resolution) * step;
+                    int winding = 0;
+                    for (int m = 0; m < crossings && xs[m] <= sx; ++m) {
+                        winding += edges.dir[ids[m]];
+                    }
+                    boolean counted = edges.inside(winding);
+                    if (counted != s.contains(sx, sy)) {
+                        samples[j / resolution] += counted ? -1 : 1;
+                    }
+                }
+                done = Math.max(done, to);
+            }
+        }
+
+        /**
+         * Find the first sample point of a sub-scanline at or to the right of a crossing, which is the first one
+         * {@link Shape#contains(double, double) } considers to be on the right of the edge. The sample points of
+         * pixel c lie at left[c] + k / r for k in 0 .. r - 1, like those of a {@link SubResolutionGlyph}.
+         * @return the index of the sample point, counting from the first sample point of the row.
+         */
+        private int firstSample (double[] left, double at) {
+            double step = 1.0 / resolution;
+            int lo = 0, hi = left.length * resolution;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (left[mid / resolution] + (mid % resolution) * step < at) {
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Count the sample points from index a up to (not including) index b.
+         */
+        private void span (int[] samples, int a, int b) {
+            if (b <= a) {
+                return;
+            }
+            int ia = a / resolution, ib = b / resolution;
+            if (ia == ib) {
+                samples[ia] += b - a;
+                return;
+            }
+            samples[ia] += (ia + 1) * resolution - a;
+            for (int i = ia + 1; i < ib; ++i) {
+                samples[i] += resolution;
+            }
+            if (ib < samples.length) {
+                samples[ib] += b - ib * resolution;
+            }
+        }
+
+        /**
+         * Adjust the number of sub-scanlines per row of pixels.
+         * @param res the new resolution to use.
+         * @see ScanlineGlyph the description of the algorithm
+         */
+        public void setResolution (int res) {
+            this.resolution = res;
+        }
+        private int resolution = 16;
+
+        /**
+         * The non-horizontal edges of a flattened outline, sorted by their top y coordinate.
+         */
+        private static class Edges {
+
+            private final boolean evenOdd;
+            private int count = 0;
+            private double[] x0 = new double[64], y0 = new double[64],
+                    x1 = new double[64], y1 = new double[64];
+            private int[] dir = new int[64];
+            /**
+             * How far the crossings of each edge may lie from those of the actual outline, along x.
+             */
+            private double[] slack = new double[64];
+            private final int[] order;
+
+            private Edges (PathIterator it) {
+                this.evenOdd = it.getWindingRule() == PathIterator.WIND_EVEN_ODD;
+                double[] p = new double[6];
+                double mx = 0, my = 0, cx = 0, cy = 0;
+                for (; !it.isDone(); it.next()) {
+                    switch (it.currentSegment(p)) {
+                        case PathIterator.SEG_MOVETO:
+                            add(cx, cy, mx, my);
+                            mx = cx = p[0];
+                            my = cy = p[1];
+                            break;
+                        case PathIterator.SEG_LINETO:
+                            add(cx, cy, p[0], p[1]);
+                            cx = p[0];
+                            cy = p[1];
+                            break;
+                        case PathIterator.SEG_CLOSE:
+                            add(cx, cy, mx, my);
+                            cx = mx;
+                            cy = my;
+                            break;
+                        default:
+                            // flattening iterators do not return curves
+                            throw new IllegalStateException();
+                    }
+                }
+                add(cx, cy, mx, my);
+                Integer[] sorted = new Integer[count];
+                for (int i = 0; i < count; ++i) {
+                    sorted[i] = i;
+                }
+                Arrays.sort(sorted, new Comparator<Integer>() {
+
+                    @Override
+                    public int compare (Integer o1, Integer o2) {
+                        return Double.compare(y0[o1], y0[o2]);
+                    }
+                });
+                order = new int[count];
+                for (int i = 0; i < count; ++i) {
+                    order[i] = sorted[i];
+                }
+            }
+
+            /**
+             * Add an edge, which is implicitly closing a sub path if it is not horizontal.
+             */
+            private void add (double ax, double ay, double bx, double by) {
+                if (ay == by) {
+                    return;
+                }
+                if (count == dir.length) {
+                    int l = count << 1;
+                    x0 = Arrays.copyOf(x0, l);
+                    y0 = Arrays.copyOf(y0, l);
+                    x1 = Arrays.copyOf(x1, l);
+                    y1 = Arrays.copyOf(y1, l);
+                    dir = Arrays.copyOf(dir, l);
+                    slack = Arrays.copyOf(slack, l);
+                }
+                slack[count] = FLATNESS * Math.hypot(bx - ax, by - ay) / Math.abs(by - ay);
+                if (ay < by) {
+                    x0[count] = ax;
+                    y0[count] = ay;
+                    x1[count] = bx;
+                    y1[count] = by;
+                    dir[count] = 1;
+                }
+                else {
+                    x0[count] = bx;
+                    y0[count] = by;
+                    x1[count] = ax;
+                    y1[count] = ay;
+                    dir[count] = -1;
+                }
+                ++count;
+            }
+
+            private boolean inside (int winding) {
+                return evenOdd ? (winding & 1) != 0 : winding != 0;
+            }
+
+            /**
+             * Intersect an edge with a horizontal line. The intersection is computed from the start of the edge
+             * as it was drawn, the same way {@link Shape#contains(double, double) } computes it for a line segment,
+             * so that both agree on which side of the edge a point lies.
+             */
+            private double crossing (int e, double y) {
+                return dir[e] > 0
+                        ? x0[e] + (y - y0[e]) * (x1[e] - x0[e]) / (y1[e] - y0[e])
+                        : x1[e] + (y - y1[e]) * (x0[e] - x1[e]) / (y0[e] - y1[e]);
+            }
+        }
+    }
+
     /**
      * A {@link Transform} implementation to convert a {@link Shape} to a {@link CUFGlyph} for a {@link SystemFontSource}.
      */
@@ -328,42 +684,100 @@ public interface Transform<O, I, C> {
          */
         protected abstract int alpha (Shape s, double x, double y);
 
-        @Override
-        public CUFGlyph apply (Shape args, Rectangle2D box) throws Exception {
-            Rectangle2D r2d = args.getBounds2D();
-            double x = r2d.getX(), y = r2d.getY();
-            double w = r2d.getWidth(), j = 0;
-            double h = r2d.getHeight(), i = 0;
-
-            ArrayList<Byte> list = new ArrayList<Byte>(((int) h) * ((int) w));
-
-            w += x;
-            h += y;
-            for (i = y; i < h; i += 1.0) {
-                for (j = x; j < w; j += 1.0) {
-                    list.add((byte) (alpha(args, j, i) & 0xFF));
+        /**
+         * Render the bitmap of a glyph. Pixels are rendered row by row; the pixel
+         * in row r and column c is rendered for the position (x + c, y + r).
+         * The default implementation evaluates {@link #alpha(java.awt.Shape, double, double) } for each pixel.
+         * @param s the glyph shape object to render
+         * @param x the x coordinate of the first pixel in each row
+         * @param y the y coordinate of the first row
+         * @param cols the number of pixels in each row
+         * @param rows the number of rows
+         * @return the bitmap data: an array of cols * rows alpha values.
+         */
+        protected byte[] render (Shape s, double x, double y, int cols, int rows) {
+            byte[] data = new byte[cols * rows];
+            double i = y, j;
+            for (int r = 0, c = 0; r < rows; ++r, i += 1.0) {
+                j = x;
+                for (int k = 0; k < cols; ++k, ++c, j += 1.0) {
+                    data[c] = (byte) (alpha(s, j, i) & 0xFF);
                 }
             }
+            return data;
+        }
 
-            int width = SystemFontSource.round(j - x),
-                    height = SystemFontSource.round(i - y),
-                    alloc_w = SystemFontSource.round(box.getWidth()),
-                    alloc_h = SystemFontSource.round(height - box.getHeight() - y + box.
-                    getY()),
-                    c = 0;
-            byte[] data = new byte[list.size()];
-
-            for (Byte b : list) {
-                data[c] = b;
-                ++c;
+        @Override
+        public CUFGlyph apply (Shape args, Rectangle2D box) throws Exception {
+            Grid g = new Grid(args, box);
+            return new CUFGlyph(g.dim, render(args, g.x, g.y, g.cols, g.rows));
+        }
+
+        /**
+         * Compute the dimension of the {@link CUFGlyph} that {@link #apply(java.awt.Shape, java.awt.geom.Rectangle2D) }
+         * returns for the same arguments, without rendering its bitmap.
+         * Subclasses which override {@link #apply(java.awt.Shape, java.awt.geom.Rectangle2D) } should override
+         * this method as well; otherwise this method returns null.
+         * @param args the glyph shape object to measure
+         * @param box the alignment box of the glyph
+         * @return the dimension of the glyph, or null if it cannot be computed without rendering the glyph.
+         */
+        public CUFGlyphDimension measure (Shape args, Rectangle2D box) {
+            return measurable ? new Grid(args, box).dim : null;
+        }
+        private final boolean measurable = measurable(getClass());
+
+        private static boolean measurable (Class<?> type) {
+            try {
+                return type.getMethod("apply", Shape.class, Rectangle2D.class).
+                        getDeclaringClass() == ShapeGlyph.class
+                        || type.getMethod("measure", Shape.class,
+                                          Rectangle2D.class).getDeclaringClass() != ShapeGlyph.class;
+            }
+            catch (NoSuchMethodException e) {
+                return false;
             }
+        }
 
-            return new CUFGlyph(
-                    new CUFGlyphDimensionImpl(width,
-                                          height,
-                                          alloc_w,
-                                          alloc_h),
-                    data);
+        /**
+         * The pixel grid of a glyph: pixels are placed at 1.0 intervals from the top left corner of
+         * the bounds of the glyph shape, for as long as they start inside the bounds.
+         */
+        private static class Grid {
+
+            private final double x, y;
+            private final int cols, rows;
+            private final CUFGlyphDimension dim;
+
+            private Grid (Shape args, Rectangle2D box) {
+                Rectangle2D r2d = args.getBounds2D();
+                x = r2d.getX();
+                y = r2d.getY();
+                double w = r2d.getWidth() + x, j = 0;
+                double h = r2d.getHeight() + y, i = 0;
+                int c = 0, r = 0;
+
+                for (i = y; i < h; i += 1.0) {
+                    ++r;
+                }
+                if (r > 0) {
+                    for (j = x; j < w; j += 1.0) {
+                        ++c;
+                    }
+                }
+                cols = c;
+                rows = r;
+
+                int width = SystemFontSource.round(j - x),
+                        height = SystemFontSource.round(i - y),
+                        alloc_w = SystemFontSource.round(box.getWidth()),
+                        alloc_h = SystemFontSource.round(height - box.getHeight() - y + box.
+                        getY());
+                dim = new CUFGlyphDimensionImpl(width,
+                                                height,
+                                                alloc_w,
+                                                alloc_h);
+            }
         }
     }
 
@@ -375,7 +789,12 @@ public interface Transform<O, I, C> {
      * to extract these values from a given {@link FontInformation} object.
      */
     public static abstract class SingleLineTransform implements
-            Transform<Shape, Shape, FontInformation> {
+            Transform<Shape, Shape, FontInformation>, CacheableTransform {
+
+        @Override
+        public String identity () {
+            return getClass().getName();
+        }
 
         /**
          * Get the thickness of the line to be drawn.
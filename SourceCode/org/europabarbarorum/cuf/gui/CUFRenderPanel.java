@@ -34,19 +34,31 @@ import org.europabarbarorum.cuf.support.ProgressMonitor;
 import javax.swing.JPanel;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import javax.swing.SwingWorker;
 import org.europabarbarorum.cuf.font.CUFFont;
+import org.europabarbarorum.cuf.font.CachingSource;
+import org.europabarbarorum.cuf.font.GlyphAtlas;
 import org.europabarbarorum.cuf.font.CUFSource;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
+import org.europabarbarorum.cuf.font.impl.CUFSourceEditor.EditListener;
 import org.europabarbarorum.cuf.font.impl.FormatConstants.CUFProperty;
 import org.europabarbarorum.cuf.support.IOHelp;
-import org.europabarbarorum.cuf.support.ResourceHelp.BundleKey;
 
 /**
  * Provides a panel to render text on with caching of the result.
+ * <p>
+ * The text is rendered line by line: each line is rendered, cached and painted independently of the others.
+ * When the text is changed only lines which have not been rendered before are rendered, starting with the lines
+ * which are visible; lines are painted as soon as they are available.
+ * Edits made through the editor of the font cause the lines which contain the edited character to be rendered again.
+ * A render which is superseded by a new one is abandoned between glyphs.
+ * </p>
  * @author Johan Ouwerkerk
  */
 public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource> {
@@ -73,27 +85,112 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
      * The {@link CUFSource} to preview.
      */
     protected CUFSource cufFont = null;
+    /**
+     * Glyphs of the {@link #cufFont} which have been rendered for previous previews.
+     * This cache is discarded whenever a different font is set through {@link #updateModel(org.europabarbarorum.cuf.font.CUFSource) }.
+     */
+    private CachingSource glyphCache = null;
+    /**
+     * The {@link EditListener} objects which invalidate the preview when the font of the {@link #glyphCache} is edited.
+     */
+    private Invalidator[] listeners = null;
+    /**
+     * Glyphs of the {@link #glyphCache} in the colour of the preview, which lines of the preview are drawn from.
+     * This atlas is discarded along with the {@link #glyphCache}, or when the colour of the preview changes.
+     */
+    private GlyphAtlas atlas = null;
     private static int xOffset = 5;
     private static int yOffset = 5;
 
+    /**
+     * A single line of the preview text, which is rendered separately from the other lines.
+     */
+    private static class Tile {
+
+        private final String text;
+        private final int rgb;
+        /**
+         * Render of the line, or null if the line is empty. Only meaningful once {@link #done} is set.
+         */
+        private volatile BufferedImage image;
+        private volatile boolean done;
+
+        private Tile (String text, int rgb) {
+            this.text = text;
+            this.rgb = rgb;
+        }
+    }
+    /**
+     * Lines of the current preview text.
+     */
+    private volatile Tile[] tiles = new Tile[0];
+
     /**
      * Helper to factor out common update code.
-     * This method schedules {@link #pic} to be rerendered,
+     * This method schedules lines of the preview which are not yet available to be rendered,
      * and marks this {@link CUFRenderPanel} as “in-progress”.
      */
     public void update () {
         this.setEnabled();
         if (isEnabled()) {
-            rendered = false;
             if (worker != null && !worker.isDone()) {
                 worker.cancel(true);
                 if (monitor != null) {
                     monitor.done();
                 }
             }
-            pic = null;
-            worker = renderService.submit(new RenderWorker());
+            tiles = layout(tiles);
+            current = new RenderWorker(atlas(getForeground().getRGB() & 0x00FFFFFF),
+                                       tiles, order(tiles));
+            worker = renderService.submit(current);
+            repaint();
+        }
+    }
+
+    /**
+     * Split the {@link #renderText} into lines, reusing lines which have been rendered before.
+     * @param old the lines of the previous preview text.
+     * @return the lines of the current preview text.
+     */
+    private Tile[] layout (Tile[] old) {
+        int rgb = getForeground().getRGB() & 0x00FFFFFF;
+        HashMap<String, Tile> done = new HashMap<String, Tile>();
+        for (Tile t : old) {
+            if (t.done && t.rgb == rgb) {
+                done.put(t.text, t);
+            }
         }
+        String[] lines = renderText.split(CUFFont.splitPattern);
+        Tile[] result = new Tile[lines.length];
+        for (int i = 0; i < lines.length; ++i) {
+            Tile t = done.get(lines[i]);
+            result[i] = t == null ? new Tile(lines[i], rgb) : t;
+        }
+        return result;
+    }
+
+    /**
+     * Determine the order in which lines are rendered: visible lines first.
+     * @param lines the lines to render.
+     * @return indices of the given lines in the order in which they are to be rendered.
+     */
+    private int[] order (Tile[] lines) {
+        int pitch = Math.max(1, prop(CUFProperty.VSize));
+        Rectangle visible = getVisibleRect();
+        int first = Math.max(0, (visible.y - originY()) / pitch);
+        int last = Math.min(lines.length - 1,
+                            (visible.y + visible.height - originY()) / pitch);
+        int[] order = new int[lines.length];
+        int n = 0;
+        for (int i = first; i <= last; ++i) {
+            order[n++] = i;
+        }
+        for (int i = 0; i < lines.length; ++i) {
+            if (i < first || i > last) {
+                order[n++] = i;
+            }
+        }
+        return order;
     }
 
     /**
@@ -109,16 +206,113 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
                 || !cufFont.equals(source);
         if (needsUpdate) {
             this.cufFont = source;
+            setGlyphCache(null);
+            tiles = new Tile[0];
+        }
+    }
+
+    private synchronized void setGlyphCache (CachingSource cache) {
+        if (atlas != null) {
+            atlas.dispose();
+            atlas = null;
+        }
+        if (glyphCache != null) {
+            glyphCache.dispose();
+            CachingSource.unlisten(listeners[0].font, listeners[0], listeners[1]);
         }
+        this.glyphCache = cache;
     }
+
     /**
-     * Status flag to track whether cache is current or stale.
+     * Get the {@link CachingSource} to render the preview from.
+     * @return the {@link #glyphCache}, which is created for the current {@link #cufFont} if necessary.
      */
-    private boolean rendered = false;
+    private synchronized CachingSource glyphCache () {
+        if (glyphCache == null && cufFont != null && cufFont.isPrepared()) {
+            glyphCache = new CachingSource(cufFont.getCufSource(), cufFont);
+            listeners = new Invalidator[] {
+                        new Invalidator(this, cufFont, true),
+                        new Invalidator(this, cufFont, false)
+                    };
+            CachingSource.listen(cufFont, listeners[0], listeners[1]);
+        }
+        return glyphCache;
+    }
+
+    /**
+     * Get the {@link GlyphAtlas} to draw the preview from.
+     * @param rgb the colour of the preview.
+     * @return the {@link #atlas}, which is created for the {@link #glyphCache() } and the given colour if necessary.
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized GlyphAtlas atlas (int rgb) {
+        CachingSource cache = glyphCache();
+        if (atlas != null && atlas.getColor() != rgb) {
+            atlas.dispose();
+            atlas = null;
+        }
+        if (atlas == null && cache != null) {
+            atlas = new GlyphAtlas(cache, rgb);
+        }
+        return atlas;
+    }
+
+    /**
+     * An {@link EditListener} which causes lines of the preview to be rendered again when the font is edited.
+     * It only holds a weak reference to its {@link CUFRenderPanel}, so that
+     * registering it with an editor does not keep the panel in memory.
+     */
+    private static class Invalidator implements EditListener {
+
+        private final WeakReference<CUFRenderPanel> ref;
+        private final CUFSource font;
+        private final boolean precise;
+
+        private Invalidator (CUFRenderPanel panel, CUFSource font,
+                             boolean precise) {
+            this.ref = new WeakReference<CUFRenderPanel>(panel);
+            this.font = font;
+            this.precise = precise;
+        }
+
+        @Override
+        public void edited (Character c) {
+            CUFRenderPanel panel = ref.get();
+            if (panel != null) {
+                panel.invalidate(font, precise ? c : null);
+            }
+        }
+    }
+
     /**
-     * Cached render of the preview text.
+     * Render lines which contain an edited character again.
+     * @param font the font which was edited.
+     * @param c the character which was edited, or null if any line may be affected.
      */
-    private BufferedImage pic;
+    private void invalidate (final CUFSource font, final Character c) {
+        EventQueue.invokeLater(new Runnable() {
+
+            @Override
+            public void run () {
+                if (font != cufFont) {
+                    return;
+                }
+                Tile[] lines = tiles.clone();
+                boolean changed = false;
+                for (int i = 0; i < lines.length; ++i) {
+                    Tile t = lines[i];
+                    if (t.done && (c == null || t.text.indexOf(c) >= 0)) {
+                        lines[i] = new Tile(t.text, t.rgb);
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    tiles = lines;
+                    update();
+                }
+            }
+        });
+    }
     /**
      * Preview text.
      */
@@ -155,17 +349,14 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
     /**
      * Custom {@link JPanel#paintComponent(java.awt.Graphics) } implementation.
      * This method first calls the superclass implementation; and then
-     * if {@link #isEnabled() } returns true and the render is available draws the
-     * cached image.
+     * if {@link #isEnabled() } returns true draws the lines of the preview which have been rendered so far.
      * @param g the {@link Graphics} to draw on.
      */
     @Override
     public void paintComponent (Graphics g) {
         super.paintComponent(g); // clear out old junk
         if (isEnabled()) {
-            if (rendered) { // wait until the render is available...
-                drawRender(g);
-            }
+            drawRender(g);
         }
     }
     /**
@@ -175,35 +366,83 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
      * @see #finish()
      */
     private Future worker;
+    /**
+     * The {@link RenderWorker} of the current render.
+     */
+    private RenderWorker current;
 
-    private class RenderWorker extends SwingWorker<BufferedImage, Progress> {
+    private class RenderWorker extends SwingWorker<Void, Progress> {
 
-        @Override
-        protected BufferedImage doInBackground () throws Exception {
+        private final GlyphAtlas atlas;
+        private final Tile[] lines;
+        private final int[] order;
+        private final int baseline, pitch, hmap;
 
-            CUFFont font = new CUFFont(cufFont) {
+        private RenderWorker (GlyphAtlas atlas, Tile[] lines, int[] order) {
+            this.atlas = atlas;
+            this.lines = lines;
+            this.order = order;
+            this.baseline = prop(CUFProperty.Baseline);
+            this.pitch = prop(CUFProperty.VSize);
+            int x = prop(CUFProperty.LayoutXOffset);
+            this.hmap = x < 0 ? 0 : x;
+        }
 
-                @Override
-                protected void signalProgress (BundleKey message, Object... args) {
-                    publish(new Progress(Messages.RenderingJobTitle.getText(),
-                                         message.format(args)));
-                }
+        @Override
+        protected Void doInBackground () throws Exception {
+            CUFFont font = new CUFFont(atlas.getSource()) {
 
                 @Override
-                protected void signalProgress (int value, int maximum,
-                                               BundleKey message, Object... args) {
-                    publish(new Progress(Messages.RenderingJobTitle.getText(),
-                                         message.format(value,
-                                                        maximum)));
+                protected boolean isCancelled () {
+                    return Thread.currentThread().isInterrupted();
                 }
             };
             publish(new Progress(Messages.RenderingJobTitle.getText(),
                                  Messages.RenderingJobTitle.getText()));
-            return font.render(renderText, getForeground().getRGB() & 0x00FFFFFF);
+            int count = 0;
+            for (int i : order) {
+                Tile t = lines[i];
+                ++count;
+                if (t.done) {
+                    continue;
+                }
+                BufferedImage image = render(font, t);
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                t.image = image;
+                t.done = true;
+                publish(new Progress(Messages.RenderingJobTitle.getText(),
+                                     Messages.RenderedLine.format(count,
+                                                                  lines.length)));
+            }
+            return null;
+        }
+
+        private BufferedImage render (CUFFont font, Tile t) {
+            if (t.text.equals("")) {
+                return null;
+            }
+            CUFGlyphDimension dim = font.calculateRenderDimensions(t.text);
+            int w = Math.max(dim.getWidth(), dim.getAdvanceWith()) + hmap;
+            int h = Math.max(pitch, baseline + dim.getHeight());
+            BufferedImage image = new BufferedImage(w > 0 ? w : 1, h > 0 ? h : 1,
+                                                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            try {
+                font.drawText(t.text, g, 0, 0, atlas);
+            }
+            finally {
+                g.dispose();
+            }
+            return image;
         }
 
         @Override
         protected void process (java.util.List<Progress> chunks) {
+            if (current != this) {
+                return;
+            }
             if (!started) {
                 started = true;
                 signalStart(chunks.get(0));
@@ -212,6 +451,8 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
             if (monitor != null && chunks.size() > 1) {
                 monitor.setText(last);
             }
+            updateSize();
+            repaint();
         }
         private boolean started = false;
 
@@ -227,18 +468,18 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
         @Override
         protected void done () {
             try {
-                pic = get();
+                get();
             }
             catch (ExecutionException except) {
-                pic = null;
                 Throwable _err = except.getCause();
                 IOHelp.handleExceptions(RenderWorker.class, "done", _err, _err.
                         getLocalizedMessage());
             }
             catch (InterruptedException ignored) {
-                pic = null;
             }
-            finish();
+            if (current == this) {
+                finish();
+            }
         }
     }
 
@@ -246,21 +487,12 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
      * Cause this {@link CUFRenderPanel} to switch to its “done” GUI state.
      * In particular the markers that this panel is intermediate (cursor/tooltip) are
      * reversed to defaults/finished status markers; and panel dimension state is re-adjusted to match
-     * the current {@link #pic render}.
+     * the rendered lines.
      */
     protected synchronized void finish () {
         worker = null;
-        if (pic != null) {
-            // set preferred size for the benefit of scrollbars around the corresponding Viewport in the ScrollPane
-            setPreferredSize(new Dimension(pic.getWidth() + xOffset * 2, pic.
-                    getHeight() + yOffset * 2));
-        }
-        // set rendered to true before revalidating because it may trigger a repaint == infinite loop?
-        rendered = true;
-
-        // revalidate: trigger an update of the ScrollPane (show/hide scrollbars)
-        // may not be necessary, but ScrollPane tutorials use it for updates??
-        revalidate();
+        current = null;
+        updateSize();
         // repaint the view port, necessary if revalidation does not trigger it
         repaint();
 
@@ -271,19 +503,47 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
             monitor.done();
         }
     }
+
+    /**
+     * Set the preferred size of this panel to fit the lines rendered so far,
+     * for the benefit of scrollbars around the corresponding Viewport in the ScrollPane.
+     */
+    private void updateSize () {
+        Tile[] lines = tiles;
+        int pitch = prop(CUFProperty.VSize), w = 0, h = lines.length * pitch;
+        for (int i = 0; i < lines.length; ++i) {
+            BufferedImage image = lines[i].done ? lines[i].image : null;
+            if (image != null) {
+                w = Math.max(w, image.getWidth());
+                h = Math.max(h, i * pitch + image.getHeight());
+            }
+        }
+        Dimension size = new Dimension(w + xOffset * 2, h + yOffset * 2);
+        if (!size.equals(getPreferredSize())) {
+            setPreferredSize(size);
+            // revalidate: trigger an update of the ScrollPane (show/hide scrollbars)
+            revalidate();
+        }
+    }
     private static ExecutorService renderService = Executors.
             newSingleThreadExecutor();
 
     private void drawRender (Graphics g) {
-        if (pic != null) {
+        Tile[] lines = tiles;
+        if (lines.length > 0) {
             int posX = xOffset();
             int posY = yOffset();
             int width = this.getWidth(), height = this.getHeight(), w = width - xOffset, h = height - yOffset;
 
-            g.drawImage(pic,
-                        posX > 0 ? posX + xOffset : xOffset,
-                        posY > 0 ? posY + yOffset : yOffset,
-                        null);
+            int x = originX(), y = originY(), pitch = prop(CUFProperty.VSize);
+            Rectangle clip = g.getClipBounds();
+            for (int i = 0; i < lines.length; ++i) {
+                BufferedImage image = lines[i].done ? lines[i].image : null;
+                if (image != null && (clip == null || clip.intersects(
+                        x, y + i * pitch, image.getWidth(), image.getHeight()))) {
+                    g.drawImage(image, x, y + i * pitch, null);
+                }
+            }
             Color k = this.getForeground();
             g.drawLine(0, yOffset, width, yOffset);
             g.drawLine(xOffset, 0, xOffset, height);
@@ -304,6 +564,16 @@ public class CUFRenderPanel extends JPanel implements UpdatableModel<CUFSource>
         }
     }
 
+    private int originX () {
+        int posX = xOffset();
+        return posX > 0 ? posX + xOffset : xOffset;
+    }
+
+    private int originY () {
+        int posY = yOffset();
+        return posY > 0 ? posY + yOffset : yOffset;
+    }
+
     private Integer xOffset () {
         return prop(CUFProperty.LayoutXOffset);
     }
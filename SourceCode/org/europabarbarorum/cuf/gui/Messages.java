@@ -53,6 +53,7 @@ public enum Messages implements BundleKey {
     RenderingToolTip(CUFRenderPanel.class),
     RenderedToolTip(CUFRenderPanel.class),
     RenderingJobTitle(CUFRenderPanel.class),
+    RenderedLine(CUFRenderPanel.class),
     UnsupportedEncoding(CompileDialog.class),
     InvalidEncodingFormat(CompileDialog.class);
 
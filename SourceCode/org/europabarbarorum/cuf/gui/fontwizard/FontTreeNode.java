@@ -615,7 +615,8 @@ public abstract class FontTreeNode implements TreeNode {
 
         /**
          * Convenience method to obtain typed object instances from evaluated
-         * user script code.
+         * user script code. Script code is evaluated while holding the lock of the {@link #shell() shell},
+         * because the children of a {@link MixedFontNode} may be built in parallel.
          * @param <R> the type of object required.
          * @param type the {@link Class} denoting the type of object required.
          * Use {@link Void} to denote a {@code void} return type.
@@ -628,7 +629,10 @@ public abstract class FontTreeNode implements TreeNode {
         protected <R> R script (Class<R> type,
                                 String code,
                                 boolean fromFile) throws ScriptException {
-            Object result = fromFile ? shell.interpret(code) : shell.eval(code);
+            Object result;
+            synchronized (shell) {
+                result = fromFile ? shell.interpret(code) : shell.eval(code);
+            }
             return verifyType(type, result);
         }
 
@@ -656,7 +660,9 @@ public abstract class FontTreeNode implements TreeNode {
          */
         protected void script (Runnable r) throws ScriptException {
             try {
-                r.run();
+                synchronized (shell) {
+                    r.run();
+                }
             }
             catch (Throwable t) {
                 throw new ScriptException(this, t);
@@ -841,7 +847,7 @@ public abstract class FontTreeNode implements TreeNode {
 
         @Override
         public CUFSource build (String name) throws BuildException {
-            CUFSource[] childs = childNodes(CUFSource.class);
+            CUFSource[] childs = realiseAll();
             try {
                 MixedSource ms = new MixedSource(childs,
                                                  childNodes(MixinMode.class));
@@ -855,6 +861,41 @@ public abstract class FontTreeNode implements TreeNode {
             }
         }
 
+        /**
+         * Realise all child {@link FontTreeNode} objects, in parallel if possible.
+         * @return the created fonts in order of the child nodes.
+         * @throws org.europabarbarorum.cuf.gui.fontwizard.FontTreeNode.BuildException
+         * the error of the first child node (in order) which failed.
+         * @see MixedSource#prepare(java.util.List)
+         */
+        private CUFSource[] realiseAll () throws BuildException {
+            final ArrayList<Callable<CUFSource>> tasks =
+                    new ArrayList<Callable<CUFSource>>();
+            Enumeration<FontTreeNode> nodes = children();
+            while (nodes.hasMoreElements()) {
+                final FontTreeNode n = nodes.nextElement();
+                tasks.add(new Callable<CUFSource>() {
+
+                    @Override
+                    public CUFSource call () throws Exception {
+                        return realise(n);
+                    }
+                });
+            }
+            try {
+                return MixedSource.prepare(tasks);
+            }
+            catch (BuildException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new BuildException(e,
+                                         this,
+                                         Messages.UnspecifiedError,
+                                         e.getLocalizedMessage());
+            }
+        }
+
         @SuppressWarnings("unchecked")
         private <T> T childNode (Class<T> cls, FontTreeNode n) throws
                 BuildException {
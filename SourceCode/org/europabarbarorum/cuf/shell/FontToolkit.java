@@ -33,6 +33,7 @@ import java.awt.GraphicsEnvironment;
 import java.awt.font.TextAttribute;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -41,6 +42,7 @@ import java.util.Map;
 import java.util.Set;
 import org.europabarbarorum.cuf.font.CUFSource;
 import org.europabarbarorum.cuf.font.CUFWriter;
+import org.europabarbarorum.cuf.font.GlyphAtlas;
 import org.europabarbarorum.cuf.font.MappedSource;
 import org.europabarbarorum.cuf.font.MappedSource.Mapping;
 import org.europabarbarorum.cuf.font.MixedSource;
@@ -384,6 +386,29 @@ public class FontToolkit extends Toolkit {
         this.useAutoValue(p, enabled);
     }
 
+    /**
+     * Controls whether a {@link CUFWriter} streams glyph data straight into the destination
+     * file, or stages it in a temporary file first, when this {@link FontToolkit} is used to compile a CUF file.
+     * @param enabled use true to write directly to the destination, false to stage output in a temporary file.
+     * @see CUFWriter.OutputMode
+     */
+    public void useDirectOutput (boolean enabled) {
+        options.put(CUFWriter.OutputMode.class,
+                    enabled ? CUFWriter.OutputMode.Direct : CUFWriter.OutputMode.Staged);
+    }
+
+    /**
+     * Controls whether a {@link CUFWriter} rasterizes glyphs on a pool of worker threads
+     * when this {@link FontToolkit} is used to compile a CUF file. The number of workers is
+     * determined by {@link CUFWriter#GlyphWorkers}.
+     * @param enabled use true to rasterize glyphs in parallel, false to rasterize them one at a time.
+     * @see CUFWriter.Rasterization
+     */
+    public void useParallelRasterization (boolean enabled) {
+        options.put(CUFWriter.Rasterization.class,
+                    enabled ? CUFWriter.Rasterization.Parallel : CUFWriter.Rasterization.Sequential);
+    }
+
     /**
      * Sets up a {@link CompileUnit} for compilation of either
      * a {@link CUFSource} to either a CUF file or Macro file depending on
@@ -415,6 +440,21 @@ public class FontToolkit extends Toolkit {
         return compile(toCompile, result, true);
     }
 
+    /**
+     * Exports all glyphs of a {@link CUFSource} packed into a single PNG image, together with
+     * a metrics file listing where each glyph is found in the image. This is useful for quick visual inspection of a font.
+     * @param font the {@link CUFSource} to export.
+     * @param image the file to save the image to.
+     * @param metrics the file to save the metrics to.
+     * @throws IOException if either file cannot be written.
+     * @see GlyphAtlas#export(java.io.File, java.io.File)
+     */
+    @SuppressWarnings("unchecked")
+    public void exportAtlas (CUFSource font, String image, String metrics)
+            throws IOException {
+        new GlyphAtlas(font, 0).export(file(image), file(metrics));
+    }
+
     /**
      * Restrict a given font to a subset of its supported characters.
      * This subset is all characters between ‘start’ and ‘end’ inclusive; characters are compared to each other according to
@@ -675,7 +715,7 @@ public class FontToolkit extends Toolkit {
                     }
 
                     SystemFontSource sfs = new SystemFontSource();
-                    sfs.init(font, source);
+                    sfs.init(font, source, file);
                     return sfs;
                 }
                 catch (Exception e) {
@@ -46,10 +46,13 @@ import java.util.regex.Pattern;
 import org.europabarbarorum.cuf.font.CUFSource;
 import org.europabarbarorum.cuf.shell.Shell.Toolkit;
 import org.europabarbarorum.cuf.strings.StringsReader;
+import org.europabarbarorum.cuf.strings.StringsLinter;
 import org.europabarbarorum.cuf.strings.StringsReader.KeyList;
+import org.europabarbarorum.cuf.strings.StringsRenderer;
 import org.europabarbarorum.cuf.strings.StringsWriter.EmptyStringOption;
 import org.europabarbarorum.cuf.strings.StringsWriter.EncodingOption;
 import org.europabarbarorum.cuf.strings.StringsWriter.FormatOption;
+import org.europabarbarorum.cuf.strings.StringsWriter.OutputMode;
 import org.europabarbarorum.cuf.strings.StringsWriter.StringsFeeder;
 import org.europabarbarorum.cuf.strings.impl.EscapeMapping;
 import org.europabarbarorum.cuf.strings.impl.IdentityMapping;
@@ -543,6 +546,73 @@ public class StringsToolkit extends Toolkit {
 
     }
 
+    /**
+     * Sets up a {@link CompileUnit} which renders every entry of a Strings file with a given font, and saves the
+     * renders as PNG images. This does not require a GUI.
+     * @param stringsFile the Strings file to render.
+     * @param font the font to render entries with.
+     * @param directory the directory to save images to. It is created if it does not exist.
+     * @param perSheet the number of entries per image. Use 1 to save each entry to its own image, named after its
+     * position in the file and its key; or a larger number to group entries on contact sheets labelled with their keys.
+     * @return a {@link CompileUnit} to render the file.
+     * @see #render(org.europabarbarorum.cuf.strings.StringsReader, org.europabarbarorum.cuf.font.CUFSource, java.lang.String, int)
+     * @see CompileUnit#run()
+     */
+    public CompileUnit render (String stringsFile, CUFSource font,
+                               String directory, int perSheet) {
+        return render(new StringsReader(file(stringsFile)), font, directory,
+                      perSheet);
+    }
+
+    /**
+     * Sets up a {@link CompileUnit} which renders every entry of a Strings file with a given font, and saves the
+     * renders as PNG images. This does not require a GUI.
+     * @param reader a {@link StringsReader} which provides the entries to render.
+     * @param font the font to render entries with.
+     * @param directory the directory to save images to. It is created if it does not exist.
+     * @param perSheet the number of entries per image.
+     * @return a {@link CompileUnit} to render the entries.
+     * @see #render(java.lang.String, org.europabarbarorum.cuf.font.CUFSource, java.lang.String, int)
+     * @see StringsRenderer
+     */
+    public CompileUnit render (StringsReader reader, CUFSource font,
+                               String directory, int perSheet) {
+        return new CompileUnit(new StringsRenderer(reader, font,
+                                                   file(directory), perSheet));
+    }
+
+    /**
+     * Sets up a {@link CompileUnit} which checks every entry of a Strings file for lines that are too wide
+     * when rendered with a given font. No glyphs are rendered: text is measured from glyph dimensions only.
+     * @param stringsFile the Strings file to check.
+     * @param font the font to measure text in.
+     * @param width the maximum width of a line, in pixels.
+     * @param report the file to write a tab separated report of lines which are too wide to.
+     * @return a {@link CompileUnit} to check the file.
+     * @see StringsLinter
+     * @see CompileUnit#run()
+     */
+    public CompileUnit lint (String stringsFile, CUFSource font, int width,
+                             String report) {
+        return lint(new StringsReader(file(stringsFile)), font, width, report);
+    }
+
+    /**
+     * Sets up a {@link CompileUnit} which checks every entry of a Strings file for lines that are too wide
+     * when rendered with a given font.
+     * @param reader a {@link StringsReader} which provides the entries to check.
+     * @param font the font to measure text in.
+     * @param width the maximum width of a line, in pixels.
+     * @param report the file to write a tab separated report of lines which are too wide to.
+     * @return a {@link CompileUnit} to check the entries.
+     * @see #lint(java.lang.String, org.europabarbarorum.cuf.font.CUFSource, int, java.lang.String)
+     */
+    public CompileUnit lint (StringsReader reader, CUFSource font, int width,
+                             String report) {
+        return new CompileUnit(new StringsLinter(reader, font, width,
+                                                 file(report)));
+    }
+
     /**
      * Sets up a {@link CompileUnit} for compilation of a given {@link StringsFeeder} to a Strings file.
      * @param source a {@link StringsFeeder} which generates the strings to compile.
@@ -1061,6 +1131,17 @@ public class StringsToolkit extends Toolkit {
                     type ? FormatOption.Ordered : FormatOption.Keyed);
     }
 
+    /**
+     * Controls whether the Strings compiler streams records straight into the destination
+     * file, or stages them in a temporary file first, when this {@link StringsToolkit} is used to compile a Strings file.
+     * @param enabled use true to write directly to the destination, false to stage output in a temporary file.
+     * @see OutputMode
+     */
+    public void useDirectOutput (boolean enabled) {
+        options.put(OutputMode.class,
+                    enabled ? OutputMode.Direct : OutputMode.Staged);
+    }
+
     /**
      * Specify the {@link FormatOption format} of the Strings file to generate.
      * @param spec the name of a {@link FormatOption}.
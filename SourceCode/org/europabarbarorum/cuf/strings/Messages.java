@@ -48,6 +48,8 @@ public enum Messages implements BundleKey {
     StringsFileInvalid(StringsReader.class),
     StringsInitError(StringsReader.class),
     StringsReadError(StringsReader.class),
+    StringsIndexError(StringsReader.class),
+    StringsIndexKept(StringsReader.class),
     IllegalFormatCall(StringsWriter.class),
     AppendLookupTable(StringsWriter.class),
     WriterKeyedProgress(StringsWriter.class),
@@ -58,11 +60,27 @@ public enum Messages implements BundleKey {
     Open(StringsWriter.class),
     MetaData(StringsWriter.class),
     Copying(StringsWriter.class),
+    Reserve(StringsWriter.class),
+    Patch(StringsWriter.class),
+    WriteIndex(StringsWriter.class),
     ParsingInput(StringsWriter.class),
     PreparingInput(StringsWriter.class),
     Start(StringsWriter.class),
     JobTitle(StringsWriter.class),
-    IllegalStringLength(StringsWriter.class);
+    IllegalStringLength(StringsWriter.class),
+    RendererJobTitle(StringsRenderer.class),
+    RendererStart(StringsRenderer.class),
+    RendererProgress(StringsRenderer.class),
+    RendererDone(StringsRenderer.class),
+    RendererNotPrepared(StringsRenderer.class),
+    RendererDirectoryError(StringsRenderer.class),
+    LinterJobTitle(StringsLinter.class),
+    LinterStart(StringsLinter.class),
+    LinterProgress(StringsLinter.class),
+    LinterOverflow(StringsLinter.class),
+    LinterDone(StringsLinter.class),
+    LinterNotPrepared(StringsLinter.class),
+    LinterReportError(StringsLinter.class);
 
     private Messages (Class type) {
         this.type = type;
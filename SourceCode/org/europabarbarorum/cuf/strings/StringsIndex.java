@@ -0,0 +1,341 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.LongBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * A key index of a keyed Strings file, stored in a file of its own next to the Strings file.
+ * The index lists the keys which a {@link StringsReader} can look up in lexical order, together with the
+ * offset of their values in the Strings file, and the order of the records in the Strings file.
+ * It is mapped into memory when opened: keys are decoded only when they are looked at.
+ * <p>
+ * An index is only used if the size, modification time and {@link #checksum(java.nio.channels.FileChannel) checksum}
+ * of the Strings file match those recorded in the index, and if it was built with the same
+ * {@link StringsReader#EmptyStrings} preference. Otherwise it is stale, and the Strings file must be scanned again.
+ * </p>
+ * @author Johan Ouwerkerk
+ */
+class StringsIndex {
+
+    private static final int MAGIC = 0x43555349; // CUSI
+    private static final int VERSION = 2;
+    private static final int HEADER = 44;
+    /**
+     * Number of bytes at the start and at the end of a Strings file which are covered by its checksum.
+     */
+    private static final int SAMPLE = 0x2000;
+    private static final String SUFFIX = ".idx";
+    private final int declared;
+    private final int count;
+    private final LongBuffer offsets;
+    private final IntBuffer starts;
+    private final IntBuffer order;
+    private final CharBuffer keys;
+
+    private StringsIndex (ByteBuffer map, int declared, int count) {
+        this.declared = declared;
+        this.count = count;
+        map.position(HEADER);
+        offsets = slice(map, count << 3).asLongBuffer();
+        starts = slice(map, (count + 1) << 2).asIntBuffer();
+        order = slice(map, count << 2).asIntBuffer();
+        keys = slice(map, map.remaining()).asCharBuffer();
+    }
+
+    private static ByteBuffer slice (ByteBuffer map, int length) {
+        ByteBuffer b = map.slice();
+        b.limit(length);
+        map.position(map.position() + length);
+        return b;
+    }
+
+    /**
+     * Get the file in which the index of a Strings file is stored.
+     * @param source the Strings file.
+     * @return the index file of the given Strings file.
+     */
+    static File sidecar (File source) {
+        return new File(source.getPath() + SUFFIX);
+    }
+
+    /**
+     * Compute a checksum of a Strings file which is cheap enough to verify each time an index is opened.
+     * It covers the first and the last {@link #SAMPLE} bytes of the file, that is: the header, the first record and
+     * the last record (or the part of those records which is closest to the start and end of the file).
+     * Together with the size and modification time this catches edits which preserve both.
+     * @param source a {@link FileChannel} of the Strings file.
+     * @return the CRC-32 of the start and the end of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    static long checksum (FileChannel source) throws IOException {
+        long size = source.size();
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(SAMPLE, size));
+        CRC32 crc = new CRC32();
+        update(crc, source, buf, 0L);
+        update(crc, source, buf, size - buf.capacity());
+        return crc.getValue();
+    }
+
+    private static void update (CRC32 crc, FileChannel source, ByteBuffer buf,
+                                long from) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            if (source.read(buf, from + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        crc.update(buf.array(), 0, buf.position());
+    }
+
+    /**
+     * Open the index of a Strings file.
+     * @param source the Strings file.
+     * @param channel a {@link FileChannel} of the Strings file, used to verify its {@link #checksum(java.nio.channels.FileChannel) checksum}.
+     * @param option the ordinal of the {@link StringsReader#EmptyStrings} preference in use.
+     * @return the {@link StringsIndex} of the file, or null if there is no index or if it is stale or corrupt.
+     */
+    static StringsIndex open (File source, FileChannel channel, int option) {
+        File f = sidecar(source);
+        if (!f.isFile()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "r");
+            if (raf.length() < HEADER || raf.readInt() != MAGIC
+                    || raf.readInt() != VERSION
+                    || raf.readLong() != source.length()
+                    || raf.readLong() != source.lastModified()
+                    || raf.readLong() != checksum(channel)
+                    || raf.readInt() != option) {
+                return null;
+            }
+            int declared = raf.readInt();
+            int count = raf.readInt();
+            long keyData = HEADER + 16L * count + 4L;
+            if (count < 0 || raf.length() < keyData) {
+                return null;
+            }
+            ByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                                  0,
+                                                  raf.length());
+            StringsIndex index = new StringsIndex(map, declared, count);
+            return index.keys.limit() == index.starts.get(count) ? index : null;
+        }
+        catch (Exception e) {
+            // corrupt or truncated: scan the Strings file instead
+            return null;
+        }
+        finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                }
+                catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the index of a Strings file, if there is one.
+     * @param source the Strings file.
+     */
+    static void delete (File source) {
+        sidecar(source).delete();
+    }
+
+    /**
+     * Write the index of a Strings file.
+     * @param source the Strings file.
+     * @param length the size of the Strings file when it was scanned.
+     * @param modified the modification time of the Strings file when it was scanned.
+     * @param checksum the {@link #checksum(java.nio.channels.FileChannel) checksum} of the Strings file when it was scanned.
+     * @param option the ordinal of the {@link StringsReader#EmptyStrings} preference used to scan the file.
+     * @param declared the number of records declared by the Strings file.
+     * @param keys the keys which can be looked up, in the order in which their records occur in the file.
+     * @param offsets the offset of the value of each key.
+     * @return true if the index was written, false if an existing index could not be replaced. This happens on
+     * platforms which do not allow files to be removed while they are in use, for instance when another
+     * {@link StringsReader} has the index open.
+     * @throws IOException if the index cannot be written.
+     */
+    static boolean write (File source, long length, long modified,
+                          long checksum, int option, int declared,
+                          final String[] keys, long[] offsets)
+            throws IOException {
+        Integer[] sorted = new Integer[keys.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+
+            @Override
+            public int compare (Integer o1, Integer o2) {
+                return keys[o1].compareTo(keys[o2]);
+            }
+        });
+        int[] rank = new int[keys.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            rank[sorted[i]] = i;
+        }
+        File f = sidecar(source);
+        File tmp = new File(f.getPath() + "." + Thread.currentThread().getId()
+                + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeLong(checksum);
+            out.writeInt(option);
+            out.writeInt(declared);
+            out.writeInt(keys.length);
+            for (Integer i : sorted) {
+                out.writeLong(offsets[i]);
+            }
+            int start = 0;
+            for (Integer i : sorted) {
+                out.writeInt(start);
+                start += keys[i].length();
+            }
+            out.writeInt(start);
+            for (int r : rank) {
+                out.writeInt(r);
+            }
+            for (Integer i : sorted) {
+                out.writeChars(keys[i]);
+            }
+            out.close();
+            out = null;
+            if (tmp.renameTo(f)) {
+                return true;
+            }
+            // renaming does not replace existing files on all platforms
+            return f.delete() && tmp.renameTo(f);
+        }
+        finally {
+            if (out != null) {
+                out.close();
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Get the number of records declared by the Strings file.
+     * @return the number of records declared by the Strings file, including those which cannot be looked up.
+     */
+    int declared () {
+        return declared;
+    }
+
+    /**
+     * Get the number of keys in this index.
+     * @return the number of keys which can be looked up.
+     */
+    int size () {
+        return count;
+    }
+
+    private CharBuffer chars (int i) {
+        CharBuffer b = keys.duplicate();
+        b.limit(starts.get(i + 1));
+        b.position(starts.get(i));
+        return b;
+    }
+
+    /**
+     * Get a key.
+     * @param i the position of the key in lexical order.
+     * @return the key.
+     */
+    String key (int i) {
+        return chars(i).toString();
+    }
+
+    /**
+     * Get the offset of the value of a key.
+     * @param i the position of the key in lexical order.
+     * @return the offset of the value in the Strings file.
+     */
+    long offset (int i) {
+        return offsets.get(i);
+    }
+
+    /**
+     * Get the position in lexical order of the key of a record.
+     * @param record the position of the record in the Strings file, counting only records which can be looked up.
+     * @return the position of its key in lexical order.
+     */
+    int inFileOrder (int record) {
+        return order.get(record);
+    }
+
+    /**
+     * Look up a key.
+     * @param key the key to look up.
+     * @return the position of the key in lexical order, or -1 if it is not in this index.
+     */
+    int find (String key) {
+        CharBuffer k = CharBuffer.wrap(key);
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = chars(mid).compareTo(k);
+            if (c < 0) {
+                lo = mid + 1;
+            }
+            else if (c > 0) {
+                hi = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.europabarbarorum.cuf.font.CUFSource;
+import org.europabarbarorum.cuf.font.TextMeasure;
+import org.europabarbarorum.cuf.strings.impl.SimpleStringsFeeder.StringsData;
+import org.europabarbarorum.cuf.support.Classloader;
+import org.europabarbarorum.cuf.support.CompileJob.FileJob;
+import org.europabarbarorum.cuf.support.ProgressMonitor.Progress;
+import org.europabarbarorum.cuf.support.ResourceHelp.PositiveInteger;
+import org.europabarbarorum.cuf.support.Setting;
+import org.europabarbarorum.cuf.support.Setting.Modifiable;
+
+/**
+ * This class checks every entry of a Strings file for lines which are too wide to fit a given width when
+ * rendered with a given font. Widths are computed with a {@link TextMeasure}, so no glyphs are rendered.
+ * <p>
+ * Entries are read from the {@link StringsReader} in file order on the compile thread, and measured in batches
+ * on a pool of {@link #LintWorkers workers}. Each line that is too wide is reported as a status update, and written
+ * to a report file as a tab separated record of the key, the line number (starting at 1), the measured width
+ * and the maximum width. Tabs, line breaks and backslashes in keys are escaped in the report.
+ * </p>
+ * @author Johan Ouwerkerk
+ */
+public class StringsLinter extends FileJob {
+
+    /**
+     * {@link Integer} preference which determines how many threads a {@link StringsLinter} uses to
+     * measure text. This setting defaults to the number of cores available to the program.
+     */
+    public static final Setting<Integer> LintWorkers =
+            new Setting<Integer>("cuf.strings.lint.workers",
+                                 "" + Runtime.getRuntime().availableProcessors(),
+                                 new PositiveInteger(),
+                                 Modifiable.Conf);
+    /**
+     * Number of entries measured by a worker at a time.
+     */
+    private static final int BATCH = 1024;
+    private final StringsReader reader;
+    private final CUFSource font;
+    private final int width;
+    private int checked, lines, keys;
+    private long elapsed;
+
+    /**
+     * Create a new {@link StringsLinter}.
+     * @param reader the {@link StringsReader} which provides the entries to check.
+     * @param font the {@link CUFSource} in which text is to be measured.
+     * @param width the maximum width of a line, in pixels.
+     * @param report the file to write the report to.
+     */
+    public StringsLinter (StringsReader reader, CUFSource font, int width,
+                          File report) {
+        super(Messages.LinterJobTitle.format(report), report);
+        this.reader = reader;
+        this.font = font;
+        this.width = width;
+    }
+
+    /**
+     * A line which is too wide.
+     */
+    private static class Overflow {
+
+        private final String key;
+        private final int line;
+        private final int width;
+
+        private Overflow (String key, int line, int width) {
+            this.key = key;
+            this.line = line;
+            this.width = width;
+        }
+    }
+
+    @Override
+    protected void compile () throws Exception {
+        if (!reader.isPrepared() || !font.isPrepared()) {
+            throw new IllegalArgumentException(
+                    Messages.LinterNotPrepared.format(destination()));
+        }
+        long start = System.nanoTime();
+        int total = reader.keySet().size();
+        postUpdate(Messages.LinterStart, total, width);
+        TextMeasure measure = new TextMeasure(font);
+        int workers = LintWorkers.get();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                workers,
+                Classloader.threadFactory("StringsLinter.worker(%d)"));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(destination()), "UTF-8"));
+        try {
+            out.println("# key\tline\twidth\tlimit");
+            ArrayDeque<Future<List<Overflow>>> pending =
+                    new ArrayDeque<Future<List<Overflow>>>();
+            ArrayList<StringsData> batch = new ArrayList<StringsData>(BATCH);
+            for (final StringsData data : reader) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                final String value = data.value();
+                final String key = data.key();
+                batch.add(new StringsData() {
+
+                    @Override
+                    public String key () {
+                        return key;
+                    }
+
+                    @Override
+                    public String value () {
+                        return value;
+                    }
+                });
+                if (batch.size() == BATCH) {
+                    pending.add(pool.submit(new Measure(measure, batch)));
+                    batch = new ArrayList<StringsData>(BATCH);
+                    collect(pending, workers << 2, out, total);
+                }
+            }
+            if (!batch.isEmpty()) {
+                pending.add(pool.submit(new Measure(measure, batch)));
+            }
+            collect(pending, 0, out, total);
+        }
+        finally {
+            pool.shutdownNow();
+            out.close();
+            elapsed = System.nanoTime() - start;
+        }
+        if (out.checkError()) {
+            throw new IOException(Messages.LinterReportError.format(
+                    destination()));
+        }
+    }
+
+    /**
+     * Wait for pending batches until no more than a given number are left, and report their results.
+     */
+    private void collect (ArrayDeque<Future<List<Overflow>>> pending,
+                          int limit, PrintWriter out, int total) throws
+            Exception {
+        while (pending.size() > limit) {
+            List<Overflow> result;
+            try {
+                result = pending.poll().get();
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            String last = null;
+            for (Overflow o : result) {
+                if (!o.key.equals(last)) {
+                    ++keys;
+                    last = o.key;
+                }
+                ++lines;
+                postUpdate(Messages.LinterOverflow, o.key, o.line, o.width,
+                           width);
+                out.printf("%s\t%d\t%d\t%d%n", escape(o.key), o.line, o.width,
+                           width);
+            }
+            checked += Math.min(BATCH, total - checked);
+            postUpdate(checked, total, Messages.LinterProgress, checked, total);
+        }
+    }
+
+    private static String escape (String key) {
+        return key.replace("\\", "\\\\").replace("\t", "\\t").
+                replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    @Override
+    protected Progress doneMessage () {
+        return toProgress(Messages.LinterDone, checked, width, lines, keys,
+                          elapsed / 1e9d, destination());
+    }
+
+    /**
+     * Measures a batch of entries.
+     */
+    private class Measure implements Callable<List<Overflow>> {
+
+        private final TextMeasure measure;
+        private final List<StringsData> entries;
+
+        private Measure (TextMeasure measure, List<StringsData> entries) {
+            this.measure = measure;
+            this.entries = entries;
+        }
+
+        @Override
+        public List<Overflow> call () {
+            ArrayList<Overflow> result = new ArrayList<Overflow>();
+            for (StringsData data : entries) {
+                String value = data.value();
+                if (value == null) {
+                    continue; // the entry could not be read, which has been reported already
+                }
+                int[] widths = measure.widths(value);
+                for (int i = 0; i < widths.length; ++i) {
+                    if (widths[i] > width) {
+                        result.add(new Overflow(data.key(), i + 1, widths[i]));
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
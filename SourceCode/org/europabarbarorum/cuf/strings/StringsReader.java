@@ -28,17 +28,26 @@
  */
 package org.europabarbarorum.cuf.strings;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import org.europabarbarorum.cuf.support.Setting.Modifiable;
 import org.europabarbarorum.cuf.strings.StringsWriter.EmptyStringOption;
@@ -47,6 +56,7 @@ import org.europabarbarorum.cuf.support.IOHelp;
 import org.europabarbarorum.cuf.support.MimeTag;
 import org.europabarbarorum.cuf.support.NotEditableException;
 import org.europabarbarorum.cuf.support.Preview;
+import org.europabarbarorum.cuf.support.ResourceHelp.BooleanResource;
 import org.europabarbarorum.cuf.support.ResourceHelp.EnumConstant;
 import org.europabarbarorum.cuf.support.Setting;
 
@@ -62,6 +72,16 @@ import org.europabarbarorum.cuf.support.Setting;
  * Therefore memory consumption scales with the total amount of data for keys rather than the total amount of
  * data for a given file.
  * </p>
+ * <p>
+ * Values are read without moving a shared file pointer, so {@link #get(java.lang.String)} may be called from
+ * several threads at once. A {@link StringsReader} may also {@link #MapFiles map} the file into memory, in which case
+ * both the keys and the values are decoded straight from the mapping.
+ * </p>
+ * <p>
+ * Finding the keys requires a scan of the whole file. To avoid that, a {@link StringsReader} may store the
+ * keys of a keyed Strings file in an {@link #IndexFiles index} next to it, and use that index the next time the
+ * file is opened for as long as the file is not changed.
+ * </p>
  * @author Johan Ouwerkerk
  */
 public class StringsReader extends Preview.AbstractPreview implements
@@ -222,9 +242,51 @@ public class StringsReader extends Preview.AbstractPreview implements
      */
     @Override
     public Iterator<StringsData> iterator () {
-        TreeSet<StringsData> record = new TreeSet<StringsData>();
-        record.addAll(offsetMap.values());
-        return record.iterator();
+        final StringsIndex idx = index;
+        if (idx != null) {
+            return new Iterator<StringsData>() {
+
+                private int next = 0;
+
+                @Override
+                public boolean hasNext () {
+                    return next < idx.size();
+                }
+
+                @Override
+                public StringsData next () {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int i = idx.inFileOrder(next++);
+                    return new StringsRecord(idx.key(i), idx.offset(i));
+                }
+
+                @Override
+                public void remove () {
+                    throw new NotEditableException();
+                }
+            };
+        }
+        return Collections.<StringsData>unmodifiableList(records()).iterator();
+    }
+
+    /**
+     * Get the records which can be looked up, in the order in which they occur in the file.
+     */
+    private List<StringsRecord> records () {
+        Map<String, StringsRecord> map = offsetMap;
+        ArrayList<StringsRecord> record = new ArrayList<StringsRecord>(records.size());
+        for (StringsRecord r : records) {
+            // only the last of several records with the same key can be looked up
+            if (!duplicates || map.get(r.key) == r) {
+                record.add(r);
+            }
+        }
+        if (!ordered) {
+            Collections.sort(record);
+        }
+        return record;
     }
 
     @Override
@@ -234,7 +296,7 @@ public class StringsReader extends Preview.AbstractPreview implements
 
     @Override
     public String defaultKey () {
-        Iterator<String> keys = offsetMap.keySet().iterator();
+        Iterator<String> keys = keySet().iterator();
         return keys.hasNext() ? keys.next() : null;
     }
 
@@ -253,34 +315,118 @@ public class StringsReader extends Preview.AbstractPreview implements
      * @param l the offset at which the record occurs in the file.
      */
     protected void putEntry (String key, long l) {
-        offsetMap.put(key, new StringsRecord(key, l));
+        StringsRecord r = new StringsRecord(key, l);
+        if (!records.isEmpty() && records.get(records.size() - 1).l > l) {
+            ordered = false;
+        }
+        if (offsetMap.put(key, r) != null) {
+            duplicates = true;
+        }
+        records.add(r);
+        sortedKeys = null;
     }
     private RandomAccessFile reader;
+    private volatile FileChannel channel;
+    private volatile ByteBuffer mapping;
     private int numEntries;
-    private TreeMap<String, StringsRecord> offsetMap;
-    private boolean prepared;
+    private volatile Map<String, StringsRecord> offsetMap;
+    private List<StringsRecord> records;
+    private boolean ordered, duplicates;
+    private volatile Set<String> sortedKeys;
+    private volatile StringsIndex index;
+    private volatile boolean prepared;
+    /**
+     * Size of the buffer used to scan a Strings file which is not mapped into memory. This is large enough to hold
+     * the longest string the format allows, including its length field.
+     */
+    private static final int WINDOW = 1 << 18;
 
     /**
-     * Create a new {@link StringsReader} for a keyed strings file.
+     * {@link Boolean} preference which determines whether or not a {@link StringsReader} created
+     * without an explicit choice maps the Strings file into memory. This setting defaults to false.
+     */
+    public static final Setting<Boolean> MapFiles = new Setting<Boolean>(
+            "cuf.strings.mapped",
+            "false",
+            new BooleanResource(),
+            Modifiable.Conf);
+
+    /**
+     * {@link Boolean} preference which determines whether or not a {@link StringsReader} stores the keys of
+     * a keyed Strings file in an index file next to it, and uses that index when the Strings file is opened again.
+     * The index file has the name of the Strings file with “.idx” appended. This setting defaults to false.
+     * @see #index(java.io.File)
+     */
+    public static final Setting<Boolean> IndexFiles = new Setting<Boolean>(
+            "cuf.strings.index",
+            "false",
+            new BooleanResource(),
+            Modifiable.Conf);
+
+    /**
+     * Create a new {@link StringsReader} for a keyed strings file. Whether or not the file is mapped
+     * into memory is determined by the {@link #MapFiles} preference.
      * @param source the source file that supplies this {@link Preview} with its data.
      */
     public StringsReader (File source) {
-        prepared = init(source, MimeTag.KeyedStringsFile, null);
+        this(source, MapFiles.get());
+    }
+
+    /**
+     * Create a new {@link StringsReader} for a keyed strings file.
+     * @param source the source file that supplies this {@link Preview} with its data.
+     * @param mapped whether or not to map the file into memory. Note that on some platforms
+     * a file cannot be deleted or overwritten while it is mapped.
+     */
+    public StringsReader (File source, boolean mapped) {
+        this(source, mapped, IndexFiles.get());
+    }
+
+    private StringsReader (File source, boolean mapped, boolean indexed) {
+        prepared = init(source, MimeTag.KeyedStringsFile, null, mapped,
+                        indexed);
         file = source;
     }
 
     /**
-     * Create a new {@link StringsReader} for an ordered strings file.
+     * Write the index of a keyed Strings file, regardless of the {@link #IndexFiles} preference.
+     * Nothing is written if the file already has an index which is up to date.
+     * @param source the Strings file to index.
+     * @return true if the file could be read, false if not.
+     */
+    public static boolean index (File source) {
+        StringsReader r = new StringsReader(source, false, true);
+        boolean ok = r.isPrepared();
+        r.close();
+        return ok;
+    }
+
+    /**
+     * Create a new {@link StringsReader} for an ordered strings file. Whether or not the file is mapped
+     * into memory is determined by the {@link #MapFiles} preference.
      * @param source the file to read
      * @param keys a {@link List} of keys that are used to look up the values in the file.
      * @see MimeTag#OrderedStringsFile
      */
     public StringsReader (File source, Set<String> keys) {
+        this(source, keys, MapFiles.get());
+    }
+
+    /**
+     * Create a new {@link StringsReader} for an ordered strings file.
+     * @param source the file to read
+     * @param keys a {@link List} of keys that are used to look up the values in the file.
+     * @param mapped whether or not to map the file into memory. Note that on some platforms
+     * a file cannot be deleted or overwritten while it is mapped.
+     * @see MimeTag#OrderedStringsFile
+     */
+    public StringsReader (File source, Set<String> keys, boolean mapped) {
         if (keys == null) {
             throw new IllegalArgumentException(
                     Messages.StringsKeyListRequired.getText());
         }
-        prepared = init(source, MimeTag.OrderedStringsFile, keys);
+        prepared = init(source, MimeTag.OrderedStringsFile, keys, mapped,
+                        false);
         file = source;
     }
 
@@ -288,33 +434,56 @@ public class StringsReader extends Preview.AbstractPreview implements
      * Creates a dummy, empty {@link StringsReader}. Useful for testing purposes.
      */
     protected StringsReader () {
-        offsetMap = new TreeMap<String, StringsRecord>();
+        offsetMap = new HashMap<String, StringsRecord>();
+        records = new ArrayList<StringsRecord>();
+        ordered = true;
         prepared = false;
         file = null;
     }
 
     /**
-     * Initalisation logic
+     * Initalisation logic: scans the file once from start to end to find the offset of each value.
      * @param source source file
      * @param mime {@link MimeTag} of the file type the source file should conform to.
      * @param keys a list of keys. Ignored if the
+     * @param mapped whether or not to map the file into memory.
+     * @param indexed whether or not to use (and write) an index of the keys in the file.
      * @return true if the {@link StringsReader} was initialised successfully, false if not.
      */
-    private boolean init (File source, MimeTag mime, Set<String> keys) {
+    private boolean init (File source, MimeTag mime, Set<String> keys,
+                          boolean mapped, boolean indexed) {
         mime.check(source);
         try {
             reader = new RandomAccessFile(source, "r");
+            channel = reader.getChannel();
+            if (mapped) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY,
+                                      0,
+                                      channel.size()).order(
+                        ByteOrder.LITTLE_ENDIAN);
+            }
         }
         catch (Exception e) {
+            close();
             throw new IllegalArgumentException(
                     Messages.StringsFileInvalid.format(source,
                                                        e.getLocalizedMessage()));
         }
 
+        int option = EmptyStrings.get().ordinal();
+        if (indexed) {
+            StringsIndex idx = StringsIndex.open(source, channel, option);
+            if (idx != null) {
+                numEntries = idx.declared();
+                index = idx;
+                return true;
+            }
+        }
+        long length = source.length(), modified = source.lastModified();
         try {
-            long cumulativeOffset = mime.tag().length;
-            reader.seek(cumulativeOffset);
-            numEntries = length(4);
+            long checksum = indexed ? StringsIndex.checksum(channel) : 0L;
+            Scanner scan = new Scanner(mime.tag().length);
+            numEntries = scan.int32();
             Iterator<String> list; // iterator of the key list if applicable
 
             if (keys != null) {
@@ -331,23 +500,27 @@ public class StringsReader extends Preview.AbstractPreview implements
                 list = null;
             }
 
-            cumulativeOffset += 4;
-            offsetMap = new TreeMap<String, StringsRecord>();
+            // each record takes up at least two bytes: do not trust the count of a corrupt file
+            int expect = (int) Math.max(0, Math.min(numEntries,
+                                                    channel.size() >> 1));
+            offsetMap = new HashMap<String, StringsRecord>(expect * 2);
+            records = new ArrayList<StringsRecord>(expect);
+            ordered = true;
             String curKey;
             for (int n = 0, k = 1; k <= numEntries; ++k) {
-                if (list == null) {
-                    curKey = readString(cumulativeOffset);
-                    cumulativeOffset += (2 + 2 * curKey.length());
-                }
-                else {
-                    reader.seek(cumulativeOffset);
-                    curKey = list.next();
-                }
-                n = 2 + 2 * length(2);
+                curKey = list == null ? scan.string() : list.next();
+                long offset = scan.position();
+                n = 2 + 2 * scan.int16();
                 if (acceptEntry(curKey, n, k)) {
-                    putEntry(curKey, cumulativeOffset);
+                    putEntry(curKey, offset);
                 }
-                cumulativeOffset += n;
+                scan.skip(n - 2);
+            }
+            if (scan.position() > channel.size()) {
+                throw new EOFException();
+            }
+            if (indexed) {
+                writeIndex(source, length, modified, checksum, option);
             }
             return true;
         }
@@ -363,6 +536,108 @@ public class StringsReader extends Preview.AbstractPreview implements
         }
     }
 
+    private void writeIndex (File source, long length, long modified,
+                             long checksum, int option) {
+        List<StringsRecord> list = records();
+        String[] keys = new String[list.size()];
+        long[] offsets = new long[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = list.get(i).key;
+            offsets[i] = list.get(i).l;
+        }
+        try {
+            if (!StringsIndex.write(source, length, modified, checksum, option,
+                                    numEntries, keys, offsets)) {
+                IOHelp.warn(StringsReader.class, Messages.StringsIndexKept,
+                            StringsIndex.sidecar(source));
+            }
+        }
+        catch (IOException e) {
+            IOHelp.warn(StringsReader.class, Messages.StringsIndexError,
+                        StringsIndex.sidecar(source), e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Reads a Strings file from start to end: either directly from the {@link #mapping}, or through a buffer
+     * which is refilled from the file as needed.
+     */
+    private class Scanner {
+
+        private final ByteBuffer buf;
+        private long base;
+
+        private Scanner (long offset) throws IOException {
+            ByteBuffer m = mapping;
+            if (m == null) {
+                buf = ByteBuffer.allocate(WINDOW).order(ByteOrder.LITTLE_ENDIAN);
+                buf.limit(0);
+                base = offset;
+            }
+            else {
+                buf = m.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                base = 0;
+                skip(offset);
+            }
+        }
+
+        private long position () {
+            return base + buf.position();
+        }
+
+        /**
+         * Ensure a number of bytes is available in the buffer.
+         */
+        private void need (int bytes) throws IOException {
+            if (buf.remaining() >= bytes) {
+                return;
+            }
+            if (mapping == null) {
+                base += buf.position();
+                buf.compact();
+                while (buf.position() < bytes) {
+                    if (channel.read(buf, base + buf.position()) < 0) {
+                        break;
+                    }
+                }
+                buf.flip();
+                if (buf.remaining() >= bytes) {
+                    return;
+                }
+            }
+            throw new EOFException();
+        }
+
+        private int int32 () throws IOException {
+            need(4);
+            return buf.getInt();
+        }
+
+        private int int16 () throws IOException {
+            need(2);
+            return buf.getShort() & 0xFFFF;
+        }
+
+        private String string () throws IOException {
+            int n = int16();
+            need(n << 1);
+            return decode(buf, n);
+        }
+
+        private void skip (long bytes) throws IOException {
+            if (bytes <= buf.remaining()) {
+                buf.position(buf.position() + (int) bytes);
+            }
+            else if (mapping == null) {
+                base = position() + bytes;
+                buf.clear().limit(0);
+            }
+            else {
+                throw new EOFException();
+            }
+        }
+    }
+
     /**
      * Wraps a Strings key and offset value together so that order of Strings key-value pairs can be
      * programmatically retrieved by comparing offsets. Note that records have no meaning outside of the context
@@ -450,7 +725,89 @@ public class StringsReader extends Preview.AbstractPreview implements
      * @return the keys that this {@link StringsReader} can retrieve a value for in the file.
      */
     public Set<String> keySet () {
-        return offsetMap == null ? null : offsetMap.keySet();
+        final StringsIndex idx = index;
+        if (idx != null) {
+            Set<String> keys = sortedKeys;
+            if (keys == null) {
+                sortedKeys = keys = new AbstractSet<String>() {
+
+                    @Override
+                    public Iterator<String> iterator () {
+                        return new Iterator<String>() {
+
+                            private int next = 0;
+
+                            @Override
+                            public boolean hasNext () {
+                                return next < idx.size();
+                            }
+
+                            @Override
+                            public String next () {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                return idx.key(next++);
+                            }
+
+                            @Override
+                            public void remove () {
+                                throw new NotEditableException();
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size () {
+                        return idx.size();
+                    }
+
+                    @Override
+                    public boolean contains (Object o) {
+                        return o instanceof String && idx.find((String) o) >= 0;
+                    }
+                };
+            }
+            return keys;
+        }
+        Map<String, StringsRecord> map = offsetMap;
+        if (map == null) {
+            return null;
+        }
+        Set<String> keys = sortedKeys;
+        if (keys == null) {
+            String[] sorted = map.keySet().toArray(new String[map.size()]);
+            Arrays.sort(sorted);
+            sortedKeys = keys = new SortedKeys(sorted);
+        }
+        return keys;
+    }
+
+    /**
+     * Read-only {@link Set} of keys in lexical order, backed by a sorted array.
+     */
+    private static class SortedKeys extends AbstractSet<String> {
+
+        private final String[] keys;
+
+        private SortedKeys (String[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public Iterator<String> iterator () {
+            return Collections.unmodifiableList(Arrays.asList(keys)).iterator();
+        }
+
+        @Override
+        public int size () {
+            return keys.length;
+        }
+
+        @Override
+        public boolean contains (Object o) {
+            return o instanceof String && Arrays.binarySearch(keys, o) >= 0;
+        }
     }
 
     /**
@@ -469,7 +826,12 @@ public class StringsReader extends Preview.AbstractPreview implements
      * @return true if the {@link StringsReader} found the given key in the file, false if not.
      */
     public boolean containsKey (String key) {
-        return offsetMap == null ? false : offsetMap.containsKey(key);
+        StringsIndex idx = index;
+        if (idx != null) {
+            return idx.find(key) >= 0;
+        }
+        Map<String, StringsRecord> map = offsetMap;
+        return map == null ? false : map.containsKey(key);
     }
 
     /**
@@ -479,38 +841,35 @@ public class StringsReader extends Preview.AbstractPreview implements
      * occurred.
      */
     public String get (String key) {
-        if (offsetMap == null) {
+        StringsIndex idx = index;
+        if (idx != null) {
+            int i = idx.find(key);
+            return i < 0 ? null : readString(idx.offset(i));
+        }
+        Map<String, StringsRecord> map = offsetMap;
+        if (map == null) {
             return null;
         }
-        StringsRecord sr = offsetMap.get(key);
+        StringsRecord sr = map.get(key);
         return sr == null ? null : readString(sr.l);
     }
 
-    /**
-     * Read a length field in the strings file.
-     * @param len the length of the field to read.
-     * @return the first few bytes at the current position in the Strings file interpreted as little-endian 
-     * integer.
-     * @throws IOException if an error occurs.
-     */
-    protected int length (int len) throws IOException {
-        byte[] buf = new byte[len];
-        reader.read(buf);
-
-        return IOHelp.endianConversion(buf, 0, len);
-    }
-
     /**
      * Read a length prefixed string from the given offset in the Strings file.
+     * This method does not depend on any shared file pointer, and may be called from several threads at once.
      * @param offset the offset to read from.
      * @return the String found, or null if an error occurs.
      */
     protected String readString (final long offset) {
         try {
-            reader.seek(offset);
-            byte[] buf = new byte[length(2) << 1];
-            reader.read(buf);
-            return fromBuffer(buf);
+            ByteBuffer m = mapping;
+            if (m != null) {
+                ByteBuffer view = m.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                view.position((int) offset);
+                return decode(view, view.getShort() & 0xFFFF);
+            }
+            int n = read(offset, 2).getShort() & 0xFFFF;
+            return decode(read(offset + 2, n << 1), n);
         }
         catch (Exception e) {
             IOHelp.handleExceptions(StringsReader.class,
@@ -523,17 +882,94 @@ public class StringsReader extends Preview.AbstractPreview implements
         }
     }
 
+    /**
+     * Read a length field in the strings file.
+     * @param len the length of the field to read.
+     * @return the first few bytes at the current position in the Strings file interpreted as little-endian
+     * integer.
+     * @throws IOException if an error occurs.
+     * @deprecated a {@link StringsReader} no longer reads through the shared file pointer of the Strings file,
+     * so that it can be used by several threads at once. The position of a record is available from the table of
+     * records built when the file is opened; use {@link #readString(long) } to read it.
+     */
+    @Deprecated
+    protected int length (int len) throws IOException {
+        long from = reader.getFilePointer();
+        ByteBuffer b = read(from, len);
+        reader.seek(from + len);
+        return IOHelp.endianConversion(b.array(), 0, len);
+    }
+
+    /**
+     * Read bytes from the Strings file, without affecting any shared file pointer.
+     * @param from absolute offset in the file of the first byte to read.
+     * @param length the number of bytes to read.
+     * @return a little-endian {@link ByteBuffer} containing the bytes read.
+     * @throws IOException if reading fails or if the file ends before all bytes are read.
+     */
+    private ByteBuffer read (final long from, final int length) throws
+            IOException {
+        ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (true) {
+            FileChannel ch = channel;
+            if (ch == null) {
+                throw new ClosedChannelException();
+            }
+            try {
+                while (b.hasRemaining()) {
+                    if (ch.read(b, from + b.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                b.flip();
+                return b;
+            }
+            catch (ClosedChannelException e) {
+                /*
+                 * A thread interrupted while reading closes the channel for all threads, including those which
+                 * only start reading afterwards: re-open it so the reader remains usable, and retry unless
+                 * this thread was the one interrupted. If the reader was closed, the retry fails.
+                 */
+                reopen(ch);
+                if (e instanceof ClosedByInterruptException) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private synchronized void reopen (FileChannel closed) throws IOException {
+        if (channel == closed && reader != null) {
+            reader = new RandomAccessFile(file, "r");
+            channel = reader.getChannel();
+        }
+    }
+
+    /**
+     * Decode UTF-16LE text from a buffer, starting at its current position. The position
+     * of the buffer is advanced past the text.
+     * @param buf a little-endian {@link ByteBuffer} to decode.
+     * @param length the number of characters to decode.
+     * @return the decoded text.
+     * @see IOHelp#fromCode(int)
+     */
+    private static String decode (ByteBuffer buf, int length) {
+        char[] cs = new char[length];
+        buf.asCharBuffer().get(cs);
+        buf.position(buf.position() + (length << 1));
+        String s = new String(cs);
+        // IOHelp.fromCode() reads 0xFFFF as the NULL character
+        return s.indexOf('\uFFFF') < 0 ? s : s.replace('\uFFFF', '\0');
+    }
+
     /**
      * Interpret a byte buffer as string.
      * @param buf the data to interpret.
      * @return the encoded string.
      */
     protected String fromBuffer (byte[] buf) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < buf.length; i += 2) {
-            sb.append(IOHelp.fromCode(IOHelp.endianConversion(buf, i, 2)));
-        }
-        return sb.toString();
+        return decode(ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN),
+                      buf.length >> 1);
     }
     private final File file;
 
@@ -548,12 +984,21 @@ public class StringsReader extends Preview.AbstractPreview implements
     /**
      * Closes the {@link StringsReader} and disposes of underlying resources.
      * The object will no longer be usable after this method has been called.
+     * This method is synchronized with re-opening the file after a reading thread was interrupted,
+     * so that a closed {@link StringsReader} stays closed.
      */
-    public void close () {
+    public synchronized void close () {
         numEntries = 0;
         offsetMap = null;
+        index = null;
+        records = Collections.emptyList();
+        sortedKeys = null;
+        mapping = null;
+        channel = null;
         try {
-            reader.close();
+            if (reader != null) {
+                reader.close();
+            }
         }
         catch (IOException ignored) {
             IOHelp.handleExceptions(StringsReader.class,
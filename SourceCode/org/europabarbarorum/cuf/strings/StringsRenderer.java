@@ -0,0 +1,292 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import org.europabarbarorum.cuf.font.CUFFont;
+import org.europabarbarorum.cuf.font.CUFSource;
+import org.europabarbarorum.cuf.font.CachingSource;
+import org.europabarbarorum.cuf.strings.impl.SimpleStringsFeeder.StringsData;
+import org.europabarbarorum.cuf.support.Classloader;
+import org.europabarbarorum.cuf.support.CompileJob.FileJob;
+import org.europabarbarorum.cuf.support.ProgressMonitor.Progress;
+import org.europabarbarorum.cuf.support.ResourceHelp.PositiveInteger;
+import org.europabarbarorum.cuf.support.Setting;
+import org.europabarbarorum.cuf.support.Setting.Modifiable;
+
+/**
+ * This class renders every entry of a Strings file with a given font, and saves the renders as PNG images in a
+ * directory. It does not require a GUI, so it can be used to check all entries of a translation in one go.
+ * <p>
+ * Entries are read from the {@link StringsReader} in file order on the compile thread, and rendered and saved
+ * on a pool of {@link #RenderWorkers workers}. Either each entry is saved to its own image, named after its position
+ * in the file and its key; or entries are grouped on contact sheets of a fixed number of entries, each labelled with
+ * its key. The font must support calls to {@link CUFSource#getGlyph(java.lang.Object) } from several threads at once.
+ * </p>
+ * @author Johan Ouwerkerk
+ */
+public class StringsRenderer extends FileJob {
+
+    /**
+     * {@link Integer} preference which determines how many threads a {@link StringsRenderer} uses to
+     * render and save images. This setting defaults to the number of cores available to the program.
+     */
+    public static final Setting<Integer> RenderWorkers =
+            new Setting<Integer>("cuf.strings.render.workers",
+                                 "" + Runtime.getRuntime().availableProcessors(),
+                                 new PositiveInteger(),
+                                 Modifiable.Conf);
+    /**
+     * Space around entries on a contact sheet, in pixels.
+     */
+    private static final int MARGIN = 4;
+    private final StringsReader reader;
+    private final CUFSource<?> font;
+    private final int perSheet;
+    private int done;
+    private long elapsed;
+
+    /**
+     * Create a new {@link StringsRenderer}.
+     * @param reader the {@link StringsReader} which provides the entries to render.
+     * @param font the {@link CUFSource} to render entries with.
+     * @param directory the directory to save images to. It is created if it does not exist.
+     * @param perSheet the number of entries per image. Use 1 to save each entry to its own image, or a larger
+     * number to group entries on contact sheets.
+     */
+    public StringsRenderer (StringsReader reader, CUFSource font,
+                            File directory, int perSheet) {
+        super(Messages.RendererJobTitle.format(directory), directory);
+        this.reader = reader;
+        this.font = font;
+        this.perSheet = perSheet < 1 ? 1 : perSheet;
+    }
+
+    /**
+     * A Strings entry together with its position in the file.
+     */
+    private static class Entry {
+
+        private final int index;
+        private final String key;
+        private final String value;
+
+        private Entry (int index, StringsData data) {
+            this.index = index;
+            this.key = data.key();
+            this.value = data.value();
+        }
+    }
+
+    @Override
+    protected void compile () throws Exception {
+        File dir = destination();
+        if (!reader.isPrepared() || !font.isPrepared()) {
+            throw new IllegalArgumentException(
+                    Messages.RendererNotPrepared.format(dir));
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(Messages.RendererDirectoryError.format(dir));
+        }
+        int total = reader.keySet().size();
+        int workers = RenderWorkers.get();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                workers,
+                Classloader.threadFactory("StringsRenderer.worker(%d)"));
+        ArrayDeque<Future<Integer>> pending = new ArrayDeque<Future<Integer>>();
+        // characters recur across entries: keep their glyphs for the duration of this job
+        CachingSource<?> glyphs = cache(font);
+        long start = System.nanoTime();
+        postUpdate(Messages.RendererStart, total, dir);
+        try {
+            ArrayList<Entry> batch = new ArrayList<Entry>(perSheet);
+            int index = 0, sheet = 0;
+            for (StringsData data : reader) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                batch.add(new Entry(++index, data));
+                if (batch.size() == perSheet) {
+                    pending.add(pool.submit(new Render(glyphs, batch, ++sheet)));
+                    batch = new ArrayList<Entry>(perSheet);
+                    collect(pending, workers << 2, total, start);
+                }
+            }
+            if (!batch.isEmpty()) {
+                pending.add(pool.submit(new Render(glyphs, batch, ++sheet)));
+            }
+            collect(pending, 0, total, start);
+        }
+        finally {
+            pool.shutdownNow();
+            glyphs.dispose();
+            elapsed = System.nanoTime() - start;
+        }
+    }
+
+    private static <C> CachingSource<C> cache (CUFSource<C> src) {
+        return new CachingSource<C>(src.getCufSource(), src);
+    }
+
+    /**
+     * Wait for pending renders until no more than a given number are left.
+     */
+    private void collect (ArrayDeque<Future<Integer>> pending, int limit,
+                          int total, long start) throws Exception {
+        while (pending.size() > limit) {
+            try {
+                done += pending.poll().get();
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            postUpdate(done, total, Messages.RendererProgress, done, total,
+                       rate(done, System.nanoTime() - start));
+        }
+    }
+
+    private static double rate (int count, long nanos) {
+        return nanos <= 0L ? 0d : count * 1e9d / nanos;
+    }
+
+    @Override
+    protected Progress doneMessage () {
+        return toProgress(Messages.RendererDone, done, destination(),
+                          elapsed / 1e9d, rate(done, elapsed));
+    }
+
+    /**
+     * Renders a batch of entries and saves the result.
+     */
+    private class Render implements Callable<Integer> {
+
+        private final CUFSource<?> glyphs;
+        private final List<Entry> entries;
+        private final int sheet;
+
+        private Render (CUFSource<?> glyphs, List<Entry> entries, int sheet) {
+            this.glyphs = glyphs;
+            this.entries = entries;
+            this.sheet = sheet;
+        }
+
+        @Override
+        public Integer call () throws Exception {
+            CUFFont f = new CUFFont(glyphs);
+            if (perSheet == 1) {
+                Entry e = entries.get(0);
+                write(f.render(e.value, 0), String.format("%06d-%s.png",
+                                                          e.index,
+                                                          fileName(e.key)));
+            }
+            else {
+                BufferedImage[] images = new BufferedImage[entries.size()];
+                for (int i = 0; i < images.length; ++i) {
+                    images[i] = f.render(entries.get(i).value, 0);
+                }
+                write(sheet(images), String.format("sheet-%05d.png", sheet));
+            }
+            return entries.size();
+        }
+
+        private void write (BufferedImage image, String name) throws
+                IOException {
+            File file = new File(destination(), name);
+            if (!ImageIO.write(image, "png", file)) {
+                throw new IOException(Messages.RendererDirectoryError.format(
+                        file));
+            }
+        }
+
+        /**
+         * Stack renders on a white contact sheet, each below a label with its key.
+         */
+        private BufferedImage sheet (BufferedImage[] images) {
+            BufferedImage probe = new BufferedImage(1, 1,
+                                                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = probe.createGraphics();
+            FontMetrics metrics = g.getFontMetrics();
+            g.dispose();
+            int label = metrics.getHeight();
+            int w = 0, h = MARGIN;
+            for (int i = 0; i < images.length; ++i) {
+                w = Math.max(w, Math.max(images[i].getWidth(),
+                                         metrics.stringWidth(label(i))));
+                h += label + images[i].getHeight() + MARGIN;
+            }
+            BufferedImage result = new BufferedImage(w + 2 * MARGIN, h,
+                                                     BufferedImage.TYPE_INT_RGB);
+            g = result.createGraphics();
+            try {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, result.getWidth(), h);
+                int y = MARGIN;
+                for (int i = 0; i < images.length; ++i) {
+                    g.setColor(Color.GRAY);
+                    g.drawString(label(i), MARGIN, y + metrics.getAscent());
+                    y += label;
+                    g.drawImage(images[i], MARGIN, y, null);
+                    y += images[i].getHeight() + MARGIN;
+                }
+            }
+            finally {
+                g.dispose();
+            }
+            return result;
+        }
+
+        private String label (int i) {
+            Entry e = entries.get(i);
+            return String.format("#%d %s", e.index, e.key);
+        }
+    }
+
+    /**
+     * Turn a Strings key into something which is safe to use in a file name.
+     */
+    private static String fileName (String key) {
+        String name = key.replaceAll("[^A-Za-z0-9._-]", "_");
+        return name.length() > 64 ? name.substring(0, 64) : name;
+    }
+}
@@ -29,15 +29,18 @@
 package org.europabarbarorum.cuf.strings;
 
 import org.europabarbarorum.cuf.strings.impl.SimpleStringsFeeder;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.LinkedList;
 import org.europabarbarorum.cuf.shell.Shell;
+import org.europabarbarorum.cuf.support.ChannelSink;
 import org.europabarbarorum.cuf.support.IOHelp;
 import org.europabarbarorum.cuf.support.MimeTag;
 import org.europabarbarorum.cuf.support.CompileJob;
@@ -169,6 +172,28 @@ public class StringsWriter extends FileJob {
         }
     }
 
+    /**
+     * Controls how {@link StringsWriter} produces the Strings file on disk.
+     */
+    public static enum OutputMode implements DefaultOption {
+
+        /**
+         * Records are streamed straight into a file next to the destination after a region reserved for the
+         * header, which is back-patched with the number of records once all records have been written. The file
+         * then replaces the destination, so an existing file (and its index) is left intact if compilation fails.
+         */
+        Direct,
+        /**
+         * Records are written to a temporary file first and copied to the destination afterwards.
+         */
+        Staged;
+
+        @Override
+        public DefaultOption defaultOption () {
+            return Direct;
+        }
+    }
+
     /**
      * This interface describes the mechanism of feeding output to the compiler: it provides a way to
      * use the same compiler structure with different input sources.
@@ -195,18 +220,20 @@ public class StringsWriter extends FileJob {
     }
 
     /**
-     * Wrapper around a {@link BufferedOutputStream} to write data in the
-     * Strings file format.
+     * Wrapper around a {@link ChannelSink} to write data in the
+     * Strings file format. Strings are encoded straight into the buffer of the sink, which is
+     * written out in large batches.
      */
     public final class StringWriter {
 
         private int k, v;
         private final EmptyStringOption emptyOption;
-        private final BufferedOutputStream output;
+        private final ChannelSink output;
+        private final char[] chars = new char[0xFFFF];
 
-        private StringWriter (OutputStream stream) throws
+        private StringWriter (ChannelSink sink) throws
                 Exception {
-            output = new BufferedOutputStream(stream);
+            output = sink;
             k = 0;
             v = 0;
             format(options.getOption(FormatOption.class));
@@ -244,7 +271,9 @@ public class StringsWriter extends FileJob {
                     lookup(key);
                 case PlainKeys:
                     write(key);
-                    progress(Messages.WriterKeyedProgress, k, v);
+                    if (k % PROGRESS_INTERVAL == 0) {
+                        progress(Messages.WriterKeyedProgress, k, v);
+                    }
                 default:
                     return;
             }
@@ -254,18 +283,21 @@ public class StringsWriter extends FileJob {
             return v;
         }
 
-        private byte[] map (String s) {
+        /**
+         * Encode a string as UTF-16LE with a length prefix into the buffer of the {@link ChannelSink}.
+         * Characters are written as they are: surrogate pairs are kept intact.
+         */
+        private void map (String s) throws IOException {
             int l = s.length();
             if (l > 0xFFFF) {
                 throw new IllegalArgumentException(
                         Messages.IllegalStringLength.format(l));
             }
-            byte[] map = new byte[((l + 1) << 1)]; // buffer containing 2* l + 2 bytes
-            map = IOHelp.fillBuffer(l, 0, 2, map, true);
-            for (int i = 0, j = 2; i < l; ++i, j += 2) {
-                map = IOHelp.fillBuffer(s.codePointAt(i), j, 2, map, true);
-            }
-            return map;
+            ByteBuffer buf = output.buffer((l + 1) << 1); // buffer containing 2* l + 2 bytes
+            buf.putShort((short) l);
+            s.getChars(0, l, chars, 0);
+            buf.asCharBuffer().put(chars, 0, l);
+            buf.position(buf.position() + (l << 1));
         }
 
         private IllegalStateException time (String method) {
@@ -285,6 +317,12 @@ public class StringsWriter extends FileJob {
             }
             ++v;
             write(value);
+            if (v % PROGRESS_INTERVAL == 0) {
+                progress();
+            }
+        }
+
+        private void progress () {
             if (Shell.ChattyShell.get()) {
                 FormatOption f = options.getOption(FormatOption.class);
                 if (FormatOption.Ordered == f) {
@@ -332,13 +370,10 @@ public class StringsWriter extends FileJob {
 
         private void finish () throws Exception {
             try {
+                progress();
                 if (lookup != null) {
                     progress(Messages.AppendLookupTable);
-                    output.write(IOHelp.fillBuffer(records(),
-                                                   0,
-                                                   4,
-                                                   new byte[4],
-                                                   true));
+                    output.buffer(4).putInt(records());
                     for (String s : lookup) {
                         write(s);
                     }
@@ -381,7 +416,7 @@ public class StringsWriter extends FileJob {
                         break;
                 }
             }
-            output.write(map(toWrite));
+            map(toWrite);
         }
     }
     private final StringsFeeder src;
@@ -409,39 +444,109 @@ public class StringsWriter extends FileJob {
     @Override
     protected void compile () throws Exception {
         postUpdate(Messages.Start, out);
-        File temp = createTempFile("strings-temporary", ".strings.bin", null);
-        stage1(temp);
-        stage2(temp);
-        temp.delete();
+        switch (options.getOption(OutputMode.class)) {
+            case Staged:
+                File temp = createTempFile("strings-temporary", ".strings.bin",
+                                           null);
+                stage1(temp);
+                // an index of the previous contents of the file might pass for up to date
+                StringsIndex.delete(out);
+                stage2(temp);
+                temp.delete();
+                break;
+            default:
+                File partial = createPartialFile(".strings.bin");
+                try {
+                    direct(partial);
+                    replaceDestination(partial);
+                }
+                finally {
+                    partial.delete();
+                }
+                // an index of the previous contents of the file might pass for up to date
+                StringsIndex.delete(out);
+                break;
+        }
+        if (StringsReader.IndexFiles.get()
+                && options.getOption(FormatOption.class) != FormatOption.Ordered) {
+            postUpdate(Messages.WriteIndex, StringsIndex.sidecar(out));
+            StringsReader.index(out);
+        }
+    }
+
+    /**
+     * Number of records written between progress updates.
+     */
+    private static final int PROGRESS_INTERVAL = 1024;
+    /**
+     * Size of the direct buffer used to stage output to a {@link FileChannel}. This must be large enough to
+     * hold the longest string the format allows, including its length field.
+     */
+    private static final int CHANNEL_BUFFER_SIZE = 0x40000;
+
+    /**
+     * Get the header of the Strings file: the {@link MimeTag} of the format followed by the number of records.
+     * @return the header of the Strings file.
+     */
+    private byte[] header () {
+        byte[] tag = options.getOption(FormatOption.class)
+                == FormatOption.Ordered
+                ? MimeTag.OrderedStringsFile.tag()
+                : MimeTag.KeyedStringsFile.tag();
+        return IOHelp.fillBuffer(calls, tag.length, 4,
+                                 Arrays.copyOf(tag, tag.length + 4), true);
+    }
+
+    /**
+     * Writes the Strings file in a single pass. Room for the header is reserved up front; records are
+     * streamed into the file after that region and the header is back-patched at the end.
+     * @param target the file to write to; this is a temporary file which replaces the destination once complete.
+     * @throws Exception if an error occurs.
+     */
+    private void direct (File target) throws Exception {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(target, "rw");
+            FileChannel channel = file.getChannel();
+
+            int reserved = MimeTag.KeyedStringsFile.tag().length + 4;
+            postUpdate(Messages.Reserve, reserved, target);
+            channel.position(reserved);
+            write(channel);
+
+            postUpdate(Messages.Patch, target, calls);
+            ByteBuffer head = ByteBuffer.wrap(header());
+            while (head.hasRemaining()) {
+                channel.write(head, head.position());
+            }
+        }
+        finally {
+            if (file != null) {
+                file.close();
+            }
+        }
     }
 
     private void stage2 (File infile) throws Exception {
         postUpdate(Messages.Stage2);
         postUpdate(Messages.Open, infile, out);
-        BufferedInputStream read =
-                new BufferedInputStream(new FileInputStream(infile));
-        BufferedOutputStream write =
-                new BufferedOutputStream(new FileOutputStream(out));
+        FileInputStream read = new FileInputStream(infile);
+        FileOutputStream write = null;
         try {
+            write = new FileOutputStream(out);
             postUpdate(Messages.MetaData, out);
-            write.write(options.getOption(FormatOption.class)
-                    == FormatOption.Ordered
-                    ? MimeTag.OrderedStringsFile.tag()
-                    : MimeTag.KeyedStringsFile.tag());
-            write.write(IOHelp.fillBuffer(calls, 0, 4, new byte[4], true));
+            write.write(header());
 
             postUpdate(Messages.Copying, infile, out);
-            byte[] buf;
-            int bufsize = 65536, cap;
-            while (read.available() > 0) {
-                buf = new byte[bufsize];
-                cap = read.read(buf);
-                write.write(buf, 0, cap);
+            FileChannel from = read.getChannel(), to = write.getChannel();
+            for (long pos = 0, size = from.size(); pos < size;) {
+                pos += from.transferTo(pos, size - pos, to);
             }
-            write.flush();
         }
         finally {
-            write.close();
+            if (write != null) {
+                write.close();
+            }
             read.close();
         }
     }
@@ -449,8 +554,20 @@ public class StringsWriter extends FileJob {
     private void stage1 (File out) throws Exception {
         postUpdate(Messages.Stage1);
         postUpdate(Messages.OpenTemp, out);
+        FileOutputStream stream = new FileOutputStream(out);
+        try {
+            write(stream.getChannel());
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    private void write (FileChannel channel) throws Exception {
         postUpdate(Messages.PreparingInput);
-        StringWriter writer = new StringWriter(new FileOutputStream(out));
+        ChannelSink sink = new ChannelSink(channel, CHANNEL_BUFFER_SIZE);
+        sink.buffer(0).order(ByteOrder.LITTLE_ENDIAN);
+        StringWriter writer = new StringWriter(sink);
 
         try {
             postUpdate(Messages.ParsingInput);
@@ -48,6 +48,14 @@ public class EscapeMapping extends BasicMapping {
         super(f);
     }
 
+    /**
+     * Create an {@link EscapeMapping} which shares the macros of another one.
+     * @param source the {@link EscapeMapping} to take macros from.
+     */
+    protected EscapeMapping (EscapeMapping source) {
+        super(source);
+    }
+
     @Override
     public void appendString (String text,String ctx) throws Exception {
         super.appendString(process(text),ctx);
@@ -58,7 +58,7 @@ public class IdentityMapping extends EscapeMapping implements ConfiguredMapping
      * @param uri namespace URI used for identification purposes.
      */
     public IdentityMapping (String uri) {
-        super(null);
+        super((File) null);
         this.uri = uri;
     }
 
@@ -0,0 +1,281 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringWriter;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringsFeeder;
+import org.europabarbarorum.cuf.strings.impl.RawHandler.LineBreakOption;
+import org.europabarbarorum.cuf.strings.impl.RawHandler.NullCharacterOption;
+import org.europabarbarorum.cuf.strings.impl.RawHandler.SpaceSequenceOption;
+import org.europabarbarorum.cuf.strings.impl.RawHandler.TabOption;
+import org.europabarbarorum.cuf.strings.impl.StringMapping.ForkableMapping;
+import org.europabarbarorum.cuf.strings.impl.StringMapping.LayoutMapping;
+import org.europabarbarorum.cuf.support.Classloader;
+import org.europabarbarorum.cuf.support.OptionMap;
+import org.europabarbarorum.cuf.support.ResourceHelp.PositiveInteger;
+import org.europabarbarorum.cuf.support.Setting;
+import org.europabarbarorum.cuf.support.Setting.Modifiable;
+
+/**
+ * This class sits between a {@link StringsFeeder} and the {@link StringWriter} it feeds, and post-processes
+ * values on a pool of {@link #LayoutWorkers workers}.
+ * <p>
+ * The feeder still parses its input and applies macros on its own thread: it hands each entry over as a key and
+ * a {@link RawHandler} which holds the raw output of its {@link StringMapping}. Entries are independent of each other,
+ * so they are post-processed (and laid out) in batches on the workers. Each worker lays out text with its own
+ * {@link ForkableMapping#fork() fork} of a {@link LayoutMapping}, because those keep track of the layout state of the
+ * value being processed. Results are written to the {@link StringWriter} in the order the entries were handed over,
+ * so the output does not depend on the number of workers.
+ * </p>
+ * <p>
+ * A {@link LayoutMapping} which cannot be forked is only used on the thread of the feeder: entries which use one are
+ * post-processed there, after all entries handed over before them have been written.
+ * </p>
+ * <p>
+ * With a single worker entries are post-processed and written right away, on the thread of the feeder.
+ * </p>
+ * @see StringsFeeder
+ * @author Johan Ouwerkerk
+ */
+public class LayoutPipeline {
+
+    /**
+     * {@link Integer} preference which determines how many threads a {@link LayoutPipeline} uses to
+     * post-process and lay out values. This setting defaults to the number of cores available to the program.
+     */
+    public static final Setting<Integer> LayoutWorkers =
+            new Setting<Integer>("cuf.strings.layout.workers",
+                                 "" + Runtime.getRuntime().availableProcessors(),
+                                 new PositiveInteger(),
+                                 Modifiable.Conf);
+    /**
+     * Number of entries post-processed by a worker at a time.
+     */
+    private static final int BATCH = 256;
+    private final StringWriter writer;
+    private final ExecutorService pool;
+    private final int window;
+    private final ArrayDeque<Future<String[]>> pending;
+    private final ArrayDeque<String[]> keys;
+    private ArrayList<RawHandler> batch;
+    private String[] batchKeys;
+    /**
+     * Forks of {@link ForkableMapping} objects used by the thread of a worker, by the mapping they were forked from.
+     */
+    private final ThreadLocal<Map<StringMapping, StringMapping>> forks =
+            new ThreadLocal<Map<StringMapping, StringMapping>>() {
+
+                @Override
+                protected Map<StringMapping, StringMapping> initialValue () {
+                    return new IdentityHashMap<StringMapping, StringMapping>();
+                }
+            };
+
+    /**
+     * Create a {@link LayoutPipeline} which uses the number of workers determined by the
+     * {@link #LayoutWorkers} preference.
+     * @param writer the {@link StringWriter} to write entries to.
+     * @param options the compilation options used by the {@link RawHandler} objects handed to this
+     * {@link LayoutPipeline}.
+     */
+    public LayoutPipeline (StringWriter writer, OptionMap options) {
+        this(writer, options, LayoutWorkers.get());
+    }
+
+    /**
+     * Create a {@link LayoutPipeline}.
+     * @param writer the {@link StringWriter} to write entries to.
+     * @param options the compilation options used by the {@link RawHandler} objects handed to this
+     * {@link LayoutPipeline}.
+     * @param workers the number of threads to post-process values on. If this is 1 or less, values
+     * are post-processed on the calling thread instead.
+     */
+    public LayoutPipeline (StringWriter writer, OptionMap options,
+                           int workers) {
+        this.writer = writer;
+        this.window = workers << 2;
+        this.pending = new ArrayDeque<Future<String[]>>();
+        this.keys = new ArrayDeque<String[]>();
+        if (workers > 1) {
+            /*
+             * OptionMap stores defaults on first lookup; look the options up now
+             * so that workers only ever read from it.
+             */
+            options.getOption(LineBreakOption.class);
+            options.getOption(NullCharacterOption.class);
+            options.getOption(SpaceSequenceOption.class);
+            options.getOption(TabOption.class);
+            pool = Executors.newFixedThreadPool(workers,
+                                                Classloader.threadFactory(
+                    "LayoutPipeline.worker(%d)"));
+            batch = new ArrayList<RawHandler>(BATCH);
+            batchKeys = new String[BATCH];
+        }
+        else {
+            pool = null;
+        }
+    }
+
+    /**
+     * Get the {@link StringWriter} this {@link LayoutPipeline} writes to.
+     * @return the {@link StringWriter} this {@link LayoutPipeline} was created with.
+     */
+    public StringWriter writer () {
+        return writer;
+    }
+
+    /**
+     * Hand over an entry to be post-processed and written.
+     * @param key the key of the entry.
+     * @param value the {@link RawHandler} holding the raw output for the value of the entry. It must not be used by
+     * the caller after this method returns.
+     * @throws Exception if post-processing or writing a previous entry failed, or if post-processing or writing this
+     * entry fails when it is done on the calling thread.
+     */
+    public void send (String key, RawHandler value) throws Exception {
+        if (pool == null || !concurrent(value.mapping())) {
+            if (pool != null) {
+                // keep the output in order
+                if (!batch.isEmpty()) {
+                    submit();
+                }
+                collect(0);
+            }
+            writer.key(key);
+            writer.value(value.toString());
+            return;
+        }
+        batchKeys[batch.size()] = key;
+        batch.add(value);
+        if (batch.size() == BATCH) {
+            submit();
+            collect(window);
+        }
+    }
+
+    /**
+     * Post-process and write all entries that have been handed over but not yet written.
+     * This method must be called once the feeder has handed over its last entry; afterwards
+     * this {@link LayoutPipeline} should be {@link #dispose() disposed} of.
+     * @throws Exception if post-processing or writing an entry failed.
+     */
+    public void finish () throws Exception {
+        if (pool != null) {
+            if (!batch.isEmpty()) {
+                submit();
+            }
+            collect(0);
+        }
+    }
+
+    /**
+     * Stop the workers of this {@link LayoutPipeline}. Entries that have not been written yet are discarded.
+     */
+    public void dispose () {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    private void submit () {
+        final List<RawHandler> values = batch;
+        pending.add(pool.submit(new Callable<String[]>() {
+
+            @Override
+            public String[] call () throws Exception {
+                String[] result = new String[values.size()];
+                for (int i = 0; i < result.length; ++i) {
+                    RawHandler raw = values.get(i);
+                    result[i] = new RawHandler(raw, fork(raw.mapping())).
+                            toString();
+                }
+                return result;
+            }
+        }));
+        keys.add(batchKeys);
+        batch = new ArrayList<RawHandler>(BATCH);
+        batchKeys = new String[BATCH];
+    }
+
+    /**
+     * Wait for pending batches until no more than a given number are left, and write their results.
+     */
+    private void collect (int limit) throws Exception {
+        while (pending.size() > limit) {
+            String[] values;
+            try {
+                values = pending.poll().get();
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            String[] k = keys.poll();
+            for (int i = 0; i < values.length; ++i) {
+                writer.key(k[i]);
+                writer.value(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Check if values which use a {@link StringMapping} can be post-processed by the workers.
+     * @param mapping the {@link StringMapping} of a value.
+     * @return true if the {@link StringMapping} does not keep track of layout state, or can be forked; false otherwise.
+     */
+    private static boolean concurrent (StringMapping mapping) {
+        return !(mapping instanceof LayoutMapping) || mapping instanceof ForkableMapping;
+    }
+
+    /**
+     * Get the {@link StringMapping} the current worker should use in place of a given one.
+     */
+    private StringMapping fork (StringMapping mapping) {
+        if (!(mapping instanceof ForkableMapping)) {
+            return mapping;
+        }
+        Map<StringMapping, StringMapping> local = forks.get();
+        StringMapping fork = local.get(mapping);
+        if (fork == null) {
+            fork = ((ForkableMapping) mapping).fork();
+            local.put(mapping, fork);
+        }
+        return fork;
+    }
+}
@@ -89,6 +89,17 @@ public class PlainSource implements StringsFeeder {
 
     @Override
     public void deliverEvents (StringWriter writer) throws Exception {
+        LayoutPipeline pipeline = new LayoutPipeline(writer, opts);
+        try {
+            deliverEvents(pipeline);
+            pipeline.finish();
+        }
+        finally {
+            pipeline.dispose();
+        }
+    }
+
+    private void deliverEvents (LayoutPipeline writer) throws Exception {
         reader = new BufferedReader(open());
         String key = null; // key of current working entry
         int splitAt = -1; // index used to split strings around tags.
@@ -155,10 +166,9 @@ public class PlainSource implements StringsFeeder {
         }
     }
 
-    private void sendData (StringMapping map, String key, StringWriter writer) throws
+    private void sendData (StringMapping map, String key, LayoutPipeline writer) throws
             Exception {
-        writer.key(key);
-        writer.value(new RawHandler(opts, map, key).toString());
+        writer.send(key, new RawHandler(opts, map, key));
     }
 
     @Override
@@ -29,6 +29,7 @@
 package org.europabarbarorum.cuf.strings.impl;
 
 import java.util.Map;
+import org.europabarbarorum.cuf.strings.impl.StringMapping.ForkableMapping;
 import org.europabarbarorum.cuf.strings.impl.StringMapping.LayoutMapping;
 import org.europabarbarorum.cuf.support.DefaultOption;
 import org.europabarbarorum.cuf.support.IOHelp;
@@ -63,6 +64,31 @@ public class RawHandler {
         length = raw.length();
         outputBuffer = new StringBuilder();
     }
+
+    /**
+     * Create a new {@link RawHandler} object for the raw output of another one, which uses a different
+     * {@link StringMapping} for post-processing. This allows raw output to be post-processed on another thread
+     * than the one it was obtained on.
+     * @param source the {@link RawHandler} which holds the raw output. It should not have been run yet.
+     * @param mapping a {@link StringMapping} which is configured like the one used by the given {@link RawHandler}.
+     * @see ForkableMapping#fork()
+     */
+    protected RawHandler (RawHandler source, StringMapping mapping) {
+        this.compileOpts = source.compileOpts;
+        this.raw = source.raw;
+        this.key = source.key;
+        this.mapping = mapping;
+        length = raw.length();
+        outputBuffer = new StringBuilder();
+    }
+
+    /**
+     * Get the {@link StringMapping} used by this {@link RawHandler}.
+     * @return the {@link StringMapping} that was used to create the raw output string.
+     */
+    protected StringMapping mapping () {
+        return mapping;
+    }
     private final String key;
     /**
      * Length of the {@link #raw output string}.
@@ -101,6 +101,10 @@ public class SAXHandler extends DefaultHandler {
      * Object to write out a string in the strings.bin format.
      */
     protected final StringWriter writer;
+    /**
+     * Object to post-process values and hand them to the {@link #writer} in order.
+     */
+    protected final LayoutPipeline pipeline;
     /**
      * Current XML namespace being used to interpret input.
      */
@@ -136,8 +140,25 @@ public class SAXHandler extends DefaultHandler {
     public SAXHandler (URIResolver resolver,
                        StringWriter writer,
                        OptionMap options) {
+        this(resolver, new LayoutPipeline(writer, options, 1), options);
+    }
+
+    /**
+     * Create a SAXHandler instance which post-processes values on a {@link LayoutPipeline}.
+     * The caller is responsible for {@link LayoutPipeline#finish() finishing} the pipeline once the
+     * document has been parsed.
+     * @param resolver the {@link URIResolver} to use.
+     * @param pipeline the {@link LayoutPipeline} to hand entries to.
+     * @param options a {@link Map} of {@link DefaultOption} class keys to use with
+     * corresponding values for the settings represented. This {@link Map} must be
+     * modifiable and must not be null.
+     */
+    public SAXHandler (URIResolver resolver,
+                       LayoutPipeline pipeline,
+                       OptionMap options) {
         this.resolver = resolver;
-        this.writer = writer;
+        this.pipeline = pipeline;
+        this.writer = pipeline.writer();
         compileOpts = options;
         stack = new Stack<String>();
         currentURI = docNameSpace;
@@ -280,7 +301,7 @@ public class SAXHandler extends DefaultHandler {
     /**
      * Callback to handle “core” elements (namely those in the {@link #docNameSpace} XML namespace).
      * This method check if the element does not appear inside a {@link #sectionName} and if its
-     * {@link #keyAttrName} attribute is set. If those checks succeed, the key is written to the output.
+     * {@link #keyAttrName} attribute is set. If those checks succeed, the key is kept for the entry.
      * @param key the key of the strings entry. Must not be null.
      * @throws Exception if some error occurs (the element is invalid)
      */
@@ -294,7 +315,6 @@ public class SAXHandler extends DefaultHandler {
             _err(Messages.MissingKey.format(KeyWord.key.name(),
                                             KeyWord.value.name()));
         }
-        writer.key(key);
         currentKey = key;
     }
 
@@ -342,8 +362,8 @@ public class SAXHandler extends DefaultHandler {
             if (localName.equals(KeyWord.value.name())) {
                 inSection = false;
                 StringMapping map = namespaceMapping.get(mappingURI);
-                RawHandler rw = new RawHandler(compileOpts, map, currentKey);
-                writer.value(rw.toString());
+                pipeline.send(currentKey,
+                              new RawHandler(compileOpts, map, currentKey));
                 currentURI = docNameSpace;
                 mappingURI = docNameSpace;
                 return;
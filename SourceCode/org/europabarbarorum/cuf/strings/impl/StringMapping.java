@@ -157,6 +157,21 @@ public interface StringMapping {
         public static final int NO_BREAK = -1;
     }
 
+    /**
+     * A {@link LayoutMapping} which can be copied for use on other threads. Values which use
+     * a {@link LayoutMapping} that does not implement this interface are laid out one at a time.
+     */
+    public interface ForkableMapping extends LayoutMapping {
+
+        /**
+         * Create a {@link ForkableMapping} which is configured like this one, but keeps track of its
+         * own layout state. A fork can lay out text on another thread than the one this
+         * {@link ForkableMapping} is used on.
+         * @return a new {@link ForkableMapping} which lays out text like this one.
+         */
+        public ForkableMapping fork ();
+    }
+
     /**
      * Representation of an XML attribute used to configure a {@link ConfiguredMapping} type.
      */
@@ -213,6 +228,16 @@ public interface StringMapping {
             this.text = new StringBuilder();
         }
 
+        /**
+         * Create a {@link StringMapping} which shares the macros of another {@link BasicMapping}.
+         * It does not share the text mapped so far, nor the macro selected.
+         * @param source the {@link BasicMapping} to take macros from.
+         */
+        protected BasicMapping (BasicMapping source) {
+            this.macros = source.macros;
+            this.text = new StringBuilder();
+        }
+
         /**
          * Extracts macros from a given file.
          * @param macrofile input file to {@link MacroFile}.
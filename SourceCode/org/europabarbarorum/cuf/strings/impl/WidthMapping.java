@@ -36,7 +36,7 @@ import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
 import org.europabarbarorum.cuf.shell.FontToolkit;
 import org.europabarbarorum.cuf.strings.impl.StringMapping.ConfigurationKey;
 import org.europabarbarorum.cuf.strings.impl.StringMapping.ConfiguredMapping;
-import org.europabarbarorum.cuf.strings.impl.StringMapping.LayoutMapping;
+import org.europabarbarorum.cuf.strings.impl.StringMapping.ForkableMapping;
 import org.europabarbarorum.cuf.support.IOHelp;
 import org.europabarbarorum.cuf.support.NotEditableException;
 import org.europabarbarorum.cuf.support.PathParser;
@@ -54,7 +54,7 @@ import org.europabarbarorum.cuf.support.ResourceHelp.ResourceType;
  * @author Johan Ouwerkerk
  */
 public class WidthMapping extends EscapeMapping implements ConfiguredMapping,
-                                                           LayoutMapping {
+                                                           ForkableMapping {
 
     // internal data:
     private CUFSource font; // font used for rendering text
@@ -319,8 +319,23 @@ public class WidthMapping extends EscapeMapping implements ConfiguredMapping,
      * @see CUFSource#getGlyphDimension(java.lang.Object)
      * @see CUFGlyphDimension#getAdvanceWith()
      */
-    @SuppressWarnings("unchecked")
     protected int forChar (Character c) {
+        if (widths == null) {
+            return measure(c);
+        }
+        int w = widths[c];
+        if (w < 0) {
+            // the font is shared with the mapping this one was forked from
+            synchronized (font) {
+                w = measure(c);
+            }
+            widths[c] = w;
+        }
+        return w;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int measure (Character c) {
         Object entry = font.getCharTable().get(c);
         CUFGlyphDimension dim = font.getGlyphDimension(entry);
         return dim == null ? 0 : dim.getAdvanceWith();
@@ -374,6 +389,34 @@ public class WidthMapping extends EscapeMapping implements ConfiguredMapping,
         super(macroFile);
         this.uri = uri;
         this.pathParser = parser;
+        this.widths = null;
+    }
+
+    /**
+     * Creates a {@link WidthMapping} which is configured like another one, with its own layout state.
+     * @param source the {@link WidthMapping} to copy the configuration of.
+     * @see #fork()
+     */
+    protected WidthMapping (WidthMapping source) {
+        super(source);
+        this.uri = source.uri;
+        this.pathParser = source.pathParser;
+        this.font = source.font;
+        this.tabCharWidth = source.tabCharWidth;
+        this.width = source.width;
+        this.blockSize = source.blockSize;
+        this.breaks = source.breaks;
+        this.widths = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(widths, -1);
+    }
+
+    @Override
+    public ForkableMapping fork () {
+        return new WidthMapping(this);
     }
     private final PathParser pathParser;
+    /**
+     * Widths of characters looked up by a fork, or null if this {@link WidthMapping} is not a fork.
+     */
+    private final int[] widths;
 }
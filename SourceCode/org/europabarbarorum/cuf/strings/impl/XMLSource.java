@@ -151,13 +151,20 @@ public class XMLSource extends SAXHelp implements StringsFeeder {
     @Override
     public void deliverEvents (StringWriter writer) throws Exception {
         XSLTOption opt = options.getOption(XSLTOption.class);
-        SAXHandler sax = new SAXHandler(uriResolver, writer, options);
-        String enc = options.getOption(EncodingOption.class).value();
-        if (opt.xsl == null) {
-            parse(xmlFile, enc, sax);
+        LayoutPipeline pipeline = new LayoutPipeline(writer, options);
+        try {
+            SAXHandler sax = new SAXHandler(uriResolver, pipeline, options);
+            String enc = options.getOption(EncodingOption.class).value();
+            if (opt.xsl == null) {
+                parse(xmlFile, enc, sax);
+            }
+            else {
+                transform(source(xmlFile, enc), source(opt.xsl, opt.value()), handler(sax));
+            }
+            pipeline.finish();
         }
-        else {
-            transform(source(xmlFile, enc), source(opt.xsl, opt.value()), handler(sax));
+        finally {
+            pipeline.dispose();
         }
     }
 
@@ -0,0 +1,115 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link OutputStream} which stages bytes in a direct {@link ByteBuffer} and drains
+ * that buffer to a {@link FileChannel} whenever it fills up. Closing a {@link ChannelSink} does not close
+ * the channel: it remains available for writing a header or other data once the stream is done.
+ * @author Johan Ouwerkerk
+ */
+public class ChannelSink extends OutputStream {
+
+    private final FileChannel channel;
+    private final ByteBuffer buf;
+
+    /**
+     * Create a new {@link ChannelSink}.
+     * @param channel the {@link FileChannel} to write to, at its current position.
+     * @param capacity the size of the buffer in bytes.
+     */
+    public ChannelSink (FileChannel channel, int capacity) {
+        this.channel = channel;
+        this.buf = ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    public void write (int b) throws IOException {
+        if (!buf.hasRemaining()) {
+            drain();
+        }
+        buf.put((byte) b);
+    }
+
+    @Override
+    public void write (byte[] b, int off, int len) throws IOException {
+        int n;
+        while (len > 0) {
+            if (!buf.hasRemaining()) {
+                drain();
+            }
+            n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Get the buffer of this {@link ChannelSink}, to put data into it directly. The buffer is drained first
+     * if it does not have enough room left. Data put into the buffer is written to the channel
+     * when the buffer is drained next. The caller may change the byte order of the buffer.
+     * @param needed the number of bytes the caller is going to put into the buffer.
+     * @return the buffer, with at least the given number of bytes remaining.
+     * @throws IOException if the buffer cannot be drained.
+     * @throws IllegalArgumentException if the buffer is smaller than the number of bytes needed.
+     */
+    public ByteBuffer buffer (int needed) throws IOException {
+        if (needed > buf.capacity()) {
+            throw new IllegalArgumentException(String.valueOf(needed));
+        }
+        if (needed > buf.remaining()) {
+            drain();
+        }
+        return buf;
+    }
+
+    @Override
+    public void flush () throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close () throws IOException {
+        drain();
+    }
+
+    private void drain () throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
@@ -30,6 +30,7 @@ package org.europabarbarorum.cuf.support;
 
 import java.awt.EventQueue;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -448,6 +449,53 @@ public abstract class CompileJob<T> extends FutureTask<T> {
             f.deleteOnExit();
             return f;
         }
+
+        /**
+         * Create a temporary file in the same directory as the {@link #destination() destination}, so that
+         * it can be {@link #replaceDestination(java.io.File) renamed} over the destination once it is complete.
+         * Until then an existing destination file is left alone.
+         * @param suffix the suffix for the random file name.
+         * @return a unique, empty file next to the destination.
+         * @throws Exception if an error occurs.
+         */
+        protected File createPartialFile (final String suffix) throws Exception {
+            File dir = outfile.getAbsoluteFile().getParentFile();
+            return createTempFile("." + outfile.getName() + "-", suffix, dir);
+        }
+
+        /**
+         * Replace the {@link #destination() destination} by a completed file.
+         * Where renaming does not replace existing files, the existing destination is first renamed to a backup
+         * next to it, which is restored if the completed file cannot be renamed into place after all. So the
+         * destination is never lost, although it is briefly absent on such platforms.
+         * @param complete the file to rename over the destination, typically obtained from
+         * {@link #createPartialFile(java.lang.String) }.
+         * @throws IOException if the file cannot be renamed.
+         */
+        protected void replaceDestination (File complete) throws IOException {
+            if (complete.renameTo(outfile)) {
+                return;
+            }
+            // renaming does not replace existing files on all platforms
+            File dir = outfile.getAbsoluteFile().getParentFile();
+            File backup = File.createTempFile("." + outfile.getName() + "-", ".bak", dir);
+            if (!backup.delete() || !outfile.renameTo(backup)) {
+                backup.delete();
+                throw new IOException(Messages.ReplaceFileError.format(
+                        outfile, complete));
+            }
+            if (!complete.renameTo(outfile)) {
+                if (!backup.renameTo(outfile)) {
+                    throw new IOException(Messages.RestoreFileError.format(
+                            outfile, backup));
+                }
+                throw new IOException(Messages.ReplaceFileError.format(
+                        outfile, complete));
+            }
+            if (!backup.delete()) {
+                backup.deleteOnExit();
+            }
+        }
         private final File outfile;
 
         /**
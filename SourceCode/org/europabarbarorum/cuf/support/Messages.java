@@ -124,6 +124,16 @@ public enum Messages implements BundleKey {
      * Takes no arguments.
      */
     Tempfile(FileJob.class),
+    /**
+     * Emitted when a completed file cannot be renamed over the destination of a compiler.
+     * Takes the destination and the completed file as arguments.
+     */
+    ReplaceFileError(FileJob.class),
+    /**
+     * Emitted when a destination file cannot be restored from its backup after a failed replacement.
+     * Takes the destination and the backup file as arguments.
+     */
+    RestoreFileError(FileJob.class),
     /**
      * Emitted when compilation finishes. Takes no arguments.
      */
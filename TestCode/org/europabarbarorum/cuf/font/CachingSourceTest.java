@@ -0,0 +1,111 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font;
+
+import java.awt.Font;
+import java.lang.reflect.Field;
+import java.util.List;
+import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CUFSourceEditor;
+import org.europabarbarorum.cuf.font.pipes.SystemFontSource;
+import org.europabarbarorum.cuf.support.Harness;
+
+/**
+ * Checks that a {@link CachingSource} does not keep a glyph which was computed while the font was being edited,
+ * that fonts are only cached when a cache is passed explicitly, and that disposing a cache does not leave listeners
+ * behind in the editor of the font.
+ * @author Johan Ouwerkerk
+ */
+public class CachingSourceTest {
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        staleGlyph();
+        listeners();
+    }
+
+    /**
+     * A font which is edited while each glyph is being rendered, as happens when an edit lands between a cache miss
+     * and storing its result.
+     */
+    private static class EditedWhileRendering extends SystemFontSource {
+
+        @Override
+        public CUFGlyph getGlyph (Character entry) {
+            getEditor().toggleKerning(!getEditor().kerningEnabled());
+            return super.getGlyph(entry);
+        }
+    }
+
+    private static void staleGlyph () {
+        SystemFontSource font = new EditedWhileRendering();
+        font.init(new Font(Font.DIALOG, Font.PLAIN, 12));
+        CachingSource<Character> cache =
+                new CachingSource<Character>(font.getCufSource(), font);
+        Character c = Character.valueOf('A');
+        cache.getGlyph(c);
+        cache.getGlyph(c);
+        Harness.check(cache.getHits() == 0 && cache.getMisses() == 2,
+                      "a glyph rendered during an edit was cached: %d hits, %d misses",
+                      cache.getHits(), cache.getMisses());
+        cache.dispose();
+        Harness.report(CachingSourceTest.class, "glyphs rendered during edits are not cached");
+    }
+
+    private static void listeners () throws Exception {
+        SystemFontSource font = Fixtures.systemFont(12);
+        int before = listeners(font.getEditor());
+        for (int i = 0; i < 100; ++i) {
+            new CUFFont(font).render("cache", 0);
+        }
+        Harness.check(listeners(font.getEditor()) == before,
+                      "fonts registered %d listeners without being passed a cache",
+                      listeners(font.getEditor()) - before);
+
+        CachingSource<Character> own =
+                new CachingSource<Character>(font.getCufSource(), font);
+        Harness.check(listeners(font.getEditor()) == before + 1,
+                      "a cache did not listen to the editor");
+        own.dispose();
+        Harness.check(listeners(font.getEditor()) == before,
+                      "a disposed cache is still listening to the editor");
+        Harness.report(CachingSourceTest.class, "caches do not pile up listeners");
+    }
+
+    private static int listeners (CUFSourceEditor editor) throws Exception {
+        Field f = CUFSourceEditor.class.getDeclaredField("listeners");
+        f.setAccessible(true);
+        return ((List<?>) f.get(editor)).size();
+    }
+}
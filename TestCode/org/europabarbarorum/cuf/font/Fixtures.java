@@ -0,0 +1,86 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font;
+
+import java.awt.Font;
+import java.io.File;
+import org.europabarbarorum.cuf.font.pipes.SystemFontSource;
+import org.europabarbarorum.cuf.support.OptionMap;
+
+/**
+ * Fonts used by the test programs in this source tree.
+ * @author Johan Ouwerkerk
+ */
+public final class Fixtures {
+
+    private Fixtures () {
+    }
+
+    /**
+     * Create a {@link SystemFontSource} of the logical “Dialog” font, which is available on every platform.
+     * @param size the point size of the font.
+     * @return a prepared {@link SystemFontSource}.
+     */
+    public static SystemFontSource systemFont (int size) {
+        SystemFontSource s = new SystemFontSource();
+        s.init(new Font(Font.DIALOG, Font.PLAIN, size));
+        return s;
+    }
+
+    /**
+     * Restrict a font to the printable characters of Latin-1 and the Latin extensions,
+     * which keeps compiling it reasonably quick.
+     * @param src the font to restrict.
+     * @return a prepared {@link RestrictedSource}.
+     */
+    @SuppressWarnings("unchecked")
+    public static CUFSource latin (CUFSource src) {
+        RestrictedSource r = new RestrictedSource(src,
+                                                  RestrictedSource.range('!',
+                                                                         (char) 0x2FF,
+                                                                         true));
+        r.init("latin");
+        return r;
+    }
+
+    /**
+     * Compile a font to a CUF file with default options.
+     * @param src the font to compile.
+     * @param out the CUF file to write.
+     * @return the given CUF file.
+     * @throws Exception if compilation fails.
+     */
+    @SuppressWarnings("unchecked")
+    public static File compile (CUFSource src, File out) throws Exception {
+        CUFWriter w = new CUFWriter(src, out, new OptionMap());
+        w.run();
+        w.get();
+        return out;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.impl;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.europabarbarorum.cuf.font.CUFSource;
+import org.europabarbarorum.cuf.font.Fixtures;
+import org.europabarbarorum.cuf.font.pipes.SystemFontSource;
+import org.europabarbarorum.cuf.support.Harness;
+
+/**
+ * Checks that a {@link ResolutionPlan} is only computed when it is used, supplies the same glyphs as the font
+ * it flattens, and stops listening to the editors of the hierarchy when it is disposed.
+ * @author Johan Ouwerkerk
+ */
+public class ResolutionPlanTest {
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    @SuppressWarnings("unchecked")
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        SystemFontSource leaf = Fixtures.systemFont(12);
+        CUFSource font = Fixtures.latin(leaf);
+        int before = listeners(leaf.getEditor());
+
+        ResolutionPlan plan = new ResolutionPlan(font);
+        Harness.check(field(plan, "table") == null, "the plan was computed before it was used");
+        Harness.check(listeners(leaf.getEditor()) == before + 1, "the plan does not track edits");
+
+        Map<Character, Object> table = font.getCharTable();
+        for (Map.Entry<Character, Object> e : table.entrySet()) {
+            CUFGlyph expected = font.getGlyph(e.getValue());
+            CUFGlyph actual = plan.getGlyph(e.getKey());
+            Harness.check(expected == null ? actual == null
+                          : actual != null && Arrays.equals(expected.getBitMapData(), actual.getBitMapData()),
+                          "glyph of %s differs", e.getKey());
+        }
+        Harness.check(field(plan, "table") != null, "the plan was not computed when it was used");
+
+        plan.dispose();
+        Harness.check(listeners(leaf.getEditor()) == before, "a disposed plan still tracks edits");
+        Harness.report(ResolutionPlanTest.class, "%d glyphs resolved", table.size());
+    }
+
+    private static Object field (ResolutionPlan plan, String name) throws Exception {
+        Field f = ResolutionPlan.class.getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(plan);
+    }
+
+    private static int listeners (CUFSourceEditor editor) throws Exception {
+        Field f = CUFSourceEditor.class.getDeclaredField("listeners");
+        f.setAccessible(true);
+        return ((List<?>) f.get(editor)).size();
+    }
+}
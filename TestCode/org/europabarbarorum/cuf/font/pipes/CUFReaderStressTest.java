@@ -0,0 +1,287 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.pipes;
+
+import java.io.File;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Filter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.europabarbarorum.cuf.font.Fixtures;
+import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
+import org.europabarbarorum.cuf.font.impl.CharTableEntry;
+import org.europabarbarorum.cuf.support.Harness;
+
+/**
+ * Reads glyphs, dimensions and kerning from one {@link CUFReader} on several threads at once, while another
+ * thread keeps interrupting them, and checks every result against a reader which is only used by one thread.
+ * Interrupting a thread which is reading from a {@link java.nio.channels.FileChannel} closes the channel for all
+ * threads, so this exercises re-opening the file. Then it closes the reader while threads are still reading and
+ * being interrupted, and checks that the file is not re-opened after it was closed.
+ * Any warning logged by the reader or its pipeline fails the test, except those caused by an interrupt or,
+ * once the reader is closed, by the closed file.
+ * Both modes of the reader are tested: positional reads and a mapped file.
+ * @author Johan Ouwerkerk
+ */
+public class CUFReaderStressTest {
+
+    private static final int THREADS = 4;
+    private static final int READS = 20000;
+    private static final Character KERN = 'A';
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        File dir = Harness.tempDir(CUFReaderStressTest.class);
+        File cuf = new File(dir, "stress.cuf");
+        Watch watch = new Watch();
+        watch.attach(Phase.class);
+        watch.attach(CUFReader.class);
+        try {
+            Fixtures.compile(Fixtures.latin(Fixtures.systemFont(14)), cuf);
+            stress(cuf, false, watch);
+            stress(cuf, true, watch);
+        }
+        finally {
+            cuf.delete();
+        }
+    }
+
+    private static void stress (File cuf, boolean mapped, Watch watch) throws
+            Exception {
+        CUFReader expected = new CUFReader(false);
+        expected.init(cuf.getPath());
+        Map<Character, CharTableEntry> table = expected.getCharTable();
+        final List<Character> chars = new ArrayList<Character>(table.keySet());
+        final byte[][] bitmaps = new byte[chars.size()][];
+        final int[] kerning = new int[chars.size()];
+        for (int i = 0; i < bitmaps.length; ++i) {
+            CharTableEntry e = table.get(chars.get(i));
+            bitmaps[i] = expected.getGlyph(e).getBitMapData();
+            kerning[i] = expected.getGlyphDimension(e).kerning(KERN);
+        }
+        expected.close();
+
+        watch.expect(ClosedByInterruptException.class);
+        final CUFReader reader = new CUFReader(mapped);
+        reader.init(cuf.getPath());
+        final Map<Character, CharTableEntry> shared = reader.getCharTable();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger checked = new AtomicInteger(), skipped = new AtomicInteger();
+        final AtomicBoolean closing = new AtomicBoolean(false);
+        final AtomicIntegerArray interrupts = new AtomicIntegerArray(THREADS);
+
+        Thread[] workers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; ++t) {
+            final int index = t;
+            workers[t] = new Thread(new Runnable() {
+
+                @Override
+                public void run () {
+                    Random r = new Random(index);
+                    try {
+                        for (int n = 0; n < READS && !closing.get(); ++n) {
+                            int before = interrupts.get(index);
+                            Thread.interrupted();
+                            int i = r.nextInt(bitmaps.length);
+                            CharTableEntry e = shared.get(chars.get(i));
+                            CUFGlyph g = reader.getGlyph(e);
+                            CUFGlyphDimension d = reader.getGlyphDimension(e);
+                            int k = d.kerning(KERN);
+                            if ((before & 1) != 0 || interrupts.get(index) != before) {
+                                /*
+                                 * reads of an interrupted thread may fail; the interrupt status is not
+                                 * reliable for this because logging the failure may clear it.
+                                 */
+                                skipped.incrementAndGet();
+                                continue;
+                            }
+                            Harness.check(g != null && Arrays.equals(bitmaps[i], g.getBitMapData()),
+                                          "glyph of %s differs", chars.get(i));
+                            Harness.check(k == kerning[i],
+                                          "kerning of %s differs: %d, expected %d",
+                                          chars.get(i), k, kerning[i]);
+                            checked.incrementAndGet();
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread w : workers) {
+            w.start();
+        }
+        interrupt(workers, interrupts, 5000);
+        for (Thread w : workers) {
+            w.join();
+        }
+        rethrow(failure);
+        watch.verify();
+        Harness.check(!reader.tainted(), "reader was tainted: %s",
+                      reader.getError());
+        Harness.report(CUFReaderStressTest.class,
+                       "mapped: %s, %d reads checked, %d interrupted",
+                       mapped, checked.get(), skipped.get());
+
+        // close while threads are still reading and being interrupted
+        failure.set(null);
+        watch.expect(ClosedChannelException.class);
+        for (int t = 0; t < THREADS; ++t) {
+            workers[t] = new Thread(workers[t].getName()) {
+
+                @Override
+                public void run () {
+                    Random r = new Random();
+                    while (!closing.get()) {
+                        reader.getGlyph(shared.get(chars.get(r.nextInt(chars.size()))));
+                        Thread.interrupted();
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        Thread.sleep(50);
+        for (Thread w : workers) {
+            w.interrupt();
+        }
+        reader.close();
+        interrupt(workers, interrupts, 100);
+        closing.set(true);
+        for (Thread w : workers) {
+            w.join();
+        }
+        watch.verify();
+        Harness.check(!reader.tainted(), "reader was tainted after it was closed: %s",
+                      reader.getError());
+        // neither the file nor the mapping may be left to read glyphs from
+        Harness.check(reader.getGlyph(shared.get(chars.get(0))) == null,
+                      "the file was re-opened or its mapping was kept after the reader was closed");
+        watch.verify();
+    }
+
+    /**
+     * Keep interrupting random threads until they have all finished, or a number of interrupts was sent.
+     * The count of each thread is odd while an interrupt is being sent to it, so a thread can detect
+     * interrupts by comparing an even count with the one after reading.
+     */
+    private static void interrupt (Thread[] workers,
+                                   AtomicIntegerArray interrupts, int limit) throws
+            InterruptedException {
+        Random r = new Random(0);
+        for (int n = 0; n < limit; ++n) {
+            boolean alive = false;
+            for (Thread w : workers) {
+                alive |= w.isAlive();
+            }
+            if (!alive) {
+                return;
+            }
+            int t = r.nextInt(workers.length);
+            interrupts.incrementAndGet(t);
+            workers[t].interrupt();
+            interrupts.incrementAndGet(t);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void rethrow (AtomicReference<Throwable> failure) throws
+            Exception {
+        Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    /**
+     * Records warnings which are not caused by the expected kind of error, without filtering any.
+     */
+    private static class Watch implements Filter {
+
+        private final List<String> unexpected = new ArrayList<String>();
+        // loggers are only weakly referenced by the log manager, so keep them around with this filter set
+        private final List<Logger> loggers = new ArrayList<Logger>();
+        private volatile Class<? extends Throwable> allowed;
+
+        void attach (Class<?> subsystem) {
+            // the log replaces the handlers of its loggers, but leaves their filter alone
+            Logger l = Logger.getLogger(subsystem.getSimpleName());
+            l.setFilter(this);
+            loggers.add(l);
+        }
+
+        void expect (Class<? extends Throwable> cause) {
+            allowed = cause;
+        }
+
+        void verify () {
+            synchronized (unexpected) {
+                Harness.check(unexpected.isEmpty(), "%d unexpected warning(s) logged, first: %s",
+                              unexpected.size(),
+                              unexpected.isEmpty() ? null : unexpected.get(0));
+            }
+        }
+
+        @Override
+        public boolean isLoggable (LogRecord record) {
+            if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+                return true;
+            }
+            for (Throwable t = record.getThrown(); t != null; t = t.getCause()) {
+                if (allowed.isInstance(t)) {
+                    return true;
+                }
+            }
+            synchronized (unexpected) {
+                unexpected.add(record.getMessage());
+            }
+            return true;
+        }
+    }
+}
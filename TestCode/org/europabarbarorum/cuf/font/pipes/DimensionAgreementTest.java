@@ -0,0 +1,98 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.pipes;
+
+import java.awt.Font;
+import java.awt.font.TextAttribute;
+import java.util.Collections;
+import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.impl.CUFGlyphDimension;
+import org.europabarbarorum.cuf.font.pipes.SystemFontSource.ShapeRasterizer;
+import org.europabarbarorum.cuf.support.Harness;
+
+/**
+ * Checks for every glyph of a few fonts that the dimension {@link SystemFontSource#getGlyphDimension(java.lang.Character) }
+ * computes without rasterizing the glyph agrees with the dimension of the rasterized glyph.
+ * The fonts cover a proportional, an underlined and a monospaced font at different sizes.
+ * @author Johan Ouwerkerk
+ */
+public class DimensionAgreementTest {
+
+    private static final String KERNING = "AVTo.";
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        ShapeRasterizer previous = SystemFontSource.Rasterizer.get();
+        // dimensions do not depend on the rasterizer; use the quick one
+        SystemFontSource.Rasterizer.set(ShapeRasterizer.Scanline, false);
+        try {
+            check("Dialog 18", new Font(Font.DIALOG, Font.PLAIN, 18));
+            check("Serif 11 underlined", new Font(Font.SERIF, Font.PLAIN, 11).deriveFont(
+                    Collections.singletonMap(TextAttribute.UNDERLINE,
+                                             TextAttribute.UNDERLINE_ON)));
+            check("Monospaced 27", new Font(Font.MONOSPACED, Font.PLAIN, 27));
+        }
+        finally {
+            SystemFontSource.Rasterizer.set(previous, false);
+        }
+    }
+
+    private static void check (String label, Font font) {
+        SystemFontSource measured = new SystemFontSource(), rendered = new SystemFontSource();
+        measured.init(font);
+        rendered.init(font);
+        int n = 0;
+        for (Character c : measured.getCharTable().keySet()) {
+            CUFGlyphDimension m = measured.getGlyphDimension(c);
+            CUFGlyph g = rendered.getGlyph(c);
+            if (m == null || g == null) {
+                Harness.check(m == null && g == null, "%s of %s: dimension %s, glyph %s", c, label, m, g);
+                continue;
+            }
+            CUFGlyphDimension r = g.getDimension();
+            Harness.check(m.getWidth() == r.getWidth() && m.getHeight() == r.getHeight()
+                          && m.getAdvanceWith() == r.getAdvanceWith() && m.getY() == r.getY()
+                          && m.getSize() == r.getSize(),
+                          "%s of %s: measured %dx%d advance %d y %d, rendered %dx%d advance %d y %d",
+                          c, label, m.getWidth(), m.getHeight(), m.getAdvanceWith(), m.getY(),
+                          r.getWidth(), r.getHeight(), r.getAdvanceWith(), r.getY());
+            for (int k = 0; k < KERNING.length(); ++k) {
+                Character o = KERNING.charAt(k);
+                Harness.check(m.kerning(o) == r.kerning(o), "kerning of %s%s in %s differs", c, o, label);
+            }
+            ++n;
+        }
+        Harness.report(DimensionAgreementTest.class, "%s: %d glyphs agree", label, n);
+    }
+}
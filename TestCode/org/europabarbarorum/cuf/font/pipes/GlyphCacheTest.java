@@ -0,0 +1,78 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.pipes;
+
+import java.io.File;
+import org.europabarbarorum.cuf.font.Fixtures;
+import org.europabarbarorum.cuf.support.Harness;
+
+/**
+ * Checks that the size a {@link GlyphCache} keeps track of matches the size of the files it stored,
+ * including the first glyph written to a cache whose directory has not been scanned yet, and glyphs
+ * which are stored more than once.
+ * @author Johan Ouwerkerk
+ */
+public class GlyphCacheTest {
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        File dir = Harness.tempDir(GlyphCacheTest.class);
+        SystemFontSource font = Fixtures.systemFont(16);
+        GlyphCache cache = new GlyphCache(dir, Long.MAX_VALUE);
+        try {
+            for (int round = 0; round < 2; ++round) {
+                for (char c = 'A'; c <= 'Z'; ++c) {
+                    cache.write("glyph-" + c, font.getGlyph(c));
+                    long scanned = new GlyphCache(dir, Long.MAX_VALUE).size();
+                    Harness.check(cache.size() == scanned,
+                                  "size after storing %s: %d, files: %d", c, cache.size(), scanned);
+                }
+            }
+            Harness.report(GlyphCacheTest.class, "size tracks the files stored: %d bytes", cache.size());
+        }
+        finally {
+            delete(dir);
+        }
+    }
+
+    private static void delete (File f) {
+        File[] fs = f.listFiles();
+        if (fs != null) {
+            for (File sub : fs) {
+                delete(sub);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.font.pipes;
+
+import java.awt.Font;
+import org.europabarbarorum.cuf.font.impl.CUFGlyph;
+import org.europabarbarorum.cuf.font.pipes.SystemFontSource.ShapeRasterizer;
+import org.europabarbarorum.cuf.support.Harness;
+
+/**
+ * Checks that bitmaps rendered by {@link Transform.ScanlineGlyph} differ from those rendered by
+ * {@link Transform.SubResolutionGlyph} by at most 1 per pixel, by rendering the Latin characters of a few fonts
+ * with both. Both count the same sample points, so apart from rounding they should agree exactly. The
+ * {@link GlyphCache} is disabled while rendering, so that bitmaps stored by an earlier run are not compared.
+ * @author Johan Ouwerkerk
+ */
+public class ScanlineGlyphTest {
+
+    private static final int BOUND = 1;
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        ShapeRasterizer previous = SystemFontSource.Rasterizer.get();
+        Boolean cached = GlyphCache.Enabled.get();
+        long[] histogram = new long[0x100];
+        GlyphCache.Enabled.set(false, false);
+        try {
+            for (String name : new String[] {Font.DIALOG, Font.SERIF, Font.MONOSPACED}) {
+                for (int size : new int[] {8, 13, 24, 36}) {
+                    compare(name, size, histogram);
+                }
+            }
+        }
+        finally {
+            SystemFontSource.Rasterizer.set(previous, false);
+            GlyphCache.Enabled.set(cached, false);
+        }
+        long pixels = 0, total = 0, close = 0;
+        int max = 0;
+        for (int d = 0; d < histogram.length; ++d) {
+            pixels += histogram[d];
+            total += d * histogram[d];
+            close += d <= 1 ? histogram[d] : 0;
+            max = histogram[d] > 0 ? d : max;
+        }
+        double mean = (double) total / pixels;
+        Harness.check(max <= BOUND, "pixels differ by up to %d, expected at most %d", max, BOUND);
+        Harness.report(ScanlineGlyphTest.class,
+                       "%d pixels: %.1f%% within 1, at most %d apart, %.3f on average",
+                       pixels, 100.0 * close / pixels, max, mean);
+    }
+
+    private static void compare (String name, int size, long[] histogram) {
+        SystemFontSource sub = font(ShapeRasterizer.SubResolution, name, size);
+        SystemFontSource scan = font(ShapeRasterizer.Scanline, name, size);
+        for (char c = '!'; c <= 0x17F; ++c) {
+            if (!sub.getCharTable().containsKey(c)) {
+                continue;
+            }
+            CUFGlyph a = sub.getGlyph(c), b = scan.getGlyph(c);
+            byte[] x = a.getBitMapData(), y = b.getBitMapData();
+            Harness.check(x.length == y.length, "%s of %s %d: the bitmaps differ in size", c, name, size);
+            for (int i = 0; i < x.length; ++i) {
+                ++histogram[Math.abs((x[i] & 0xFF) - (y[i] & 0xFF))];
+            }
+        }
+    }
+
+    private static SystemFontSource font (ShapeRasterizer rasterizer, String name, int size) {
+        SystemFontSource.Rasterizer.set(rasterizer, false);
+        SystemFontSource s = new SystemFontSource();
+        s.init(new Font(name, Font.PLAIN, size));
+        return s;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringWriter;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringsFeeder;
+import org.europabarbarorum.cuf.support.Harness;
+import org.europabarbarorum.cuf.support.OptionMap;
+
+/**
+ * Checks that the key index of a Strings file is not used after the file was changed in a way that preserves
+ * its size and modification time, and that an existing index is replaced when the file is indexed again.
+ * @author Johan Ouwerkerk
+ */
+public class StringsIndexTest {
+
+    private static final int ENTRIES = 1000;
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        File dir = Harness.tempDir(StringsIndexTest.class);
+        File out = new File(dir, "index.strings.bin");
+        File index = StringsIndex.sidecar(out);
+        int option = StringsReader.EmptyStrings.get().ordinal();
+        try {
+            compile(out);
+            Harness.check(StringsReader.index(out) && open(out, option),
+                          "the index of a new file is not used");
+
+            // same size and modification time, different last record
+            long modified = out.lastModified();
+            RandomAccessFile raf = new RandomAccessFile(out, "rw");
+            raf.seek(raf.length() - 2);
+            raf.writeByte('x');
+            raf.close();
+            out.setLastModified(modified);
+            Harness.check(!open(out, option), "the index was used after the file was changed");
+
+            long stale = index.lastModified();
+            Harness.check(StringsReader.index(out) && open(out, option),
+                          "the index was not replaced");
+            Harness.check(index.lastModified() >= stale && dir.list().length == 2,
+                          "files were left behind while replacing the index");
+            Harness.report(StringsIndexTest.class, "changed files are scanned again");
+        }
+        finally {
+            index.delete();
+            out.delete();
+        }
+    }
+
+    private static boolean open (File f, int option) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            return StringsIndex.open(f, raf.getChannel(), option) != null;
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static void compile (File out) throws Exception {
+        StringsWriter w = new StringsWriter(new StringsFeeder() {
+
+            @Override
+            public void deliverEvents (StringWriter writer) throws Exception {
+                for (int i = 0; i < ENTRIES; ++i) {
+                    writer.key("key" + i);
+                    writer.value("value " + i);
+                }
+            }
+
+            @Override
+            public void dispose () {
+            }
+        }, out, new OptionMap());
+        w.run();
+        w.get();
+    }
+}
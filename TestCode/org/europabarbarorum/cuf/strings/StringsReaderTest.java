@@ -0,0 +1,111 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings;
+
+import java.io.File;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringWriter;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringsFeeder;
+import org.europabarbarorum.cuf.support.Harness;
+import org.europabarbarorum.cuf.support.IOHelp;
+import org.europabarbarorum.cuf.support.MimeTag;
+import org.europabarbarorum.cuf.support.OptionMap;
+
+/**
+ * Checks that subclasses of {@link StringsReader} which read length fields through the deprecated
+ * {@link StringsReader#length(int) } still work: fields are read one after the other from the start of the file.
+ * @author Johan Ouwerkerk
+ */
+public class StringsReaderTest {
+
+    /**
+     * A subclass of {@link StringsReader} written against the old API.
+     */
+    private static class LegacyReader extends StringsReader {
+
+        private LegacyReader (File source, boolean mapped) {
+            super(source, mapped);
+        }
+
+        @SuppressWarnings("deprecation")
+        private int field (int len) throws Exception {
+            return length(len);
+        }
+    }
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        File dir = Harness.tempDir(StringsReaderTest.class);
+        File out = new File(dir, "legacy.strings.bin");
+        try {
+            compile(out, 3);
+            byte[] bytes = Harness.read(out);
+            int tag = MimeTag.KeyedStringsFile.tag().length;
+            for (boolean mapped : new boolean[] {false, true}) {
+                LegacyReader r = new LegacyReader(out, mapped);
+                try {
+                    Harness.check(r.field(2) == IOHelp.endianConversion(bytes, 0, 2)
+                                  && r.field(tag - 2) == IOHelp.endianConversion(bytes, 2, tag - 2),
+                                  "the fields of the tag were not read in order");
+                    Harness.check(r.field(4) == 3, "the number of records was not read after the tag");
+                }
+                finally {
+                    r.close();
+                }
+            }
+            Harness.report(StringsReaderTest.class, "length fields are read in order");
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    private static void compile (File out, final int entries) throws Exception {
+        StringsWriter w = new StringsWriter(new StringsFeeder() {
+
+            @Override
+            public void deliverEvents (StringWriter writer) throws Exception {
+                for (int i = 0; i < entries; ++i) {
+                    writer.key("key" + i);
+                    writer.value("value " + i);
+                }
+            }
+
+            @Override
+            public void dispose () {
+            }
+        }, out, new OptionMap());
+        w.run();
+        w.get();
+    }
+}
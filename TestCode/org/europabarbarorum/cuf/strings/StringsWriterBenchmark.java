@@ -0,0 +1,133 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings;
+
+import java.io.File;
+import java.util.Random;
+import org.europabarbarorum.cuf.strings.StringsWriter.OutputMode;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringWriter;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringsFeeder;
+import org.europabarbarorum.cuf.strings.impl.SimpleStringsFeeder.StringsData;
+import org.europabarbarorum.cuf.support.Harness;
+import org.europabarbarorum.cuf.support.OptionMap;
+
+/**
+ * Measures how long a {@link StringsWriter} takes to write a large Strings file from memory, in each
+ * {@link OutputMode}. The corpus is generated up front, so the time measured is that of encoding and writing.
+ * Afterwards the number of records in the file and the last value are checked, including a character outside
+ * the Basic Multilingual Plane.
+ * <p>
+ * Arguments (optional): the number of entries, 1000000 by default; and the number of runs per mode, 3 by default.
+ * The fastest run of each mode is reported.
+ * </p>
+ * @author Johan Ouwerkerk
+ */
+public class StringsWriterBenchmark {
+
+    /**
+     * Run the benchmark.
+     * @param args the number of entries and the number of runs per mode, both optional.
+     * @throws Exception if writing fails or the result is wrong.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        final String[] keys = new String[entries], values = new String[entries];
+        Random r = new Random(entries);
+        StringBuilder b = new StringBuilder();
+        long chars = 0;
+        for (int i = 0; i < entries; ++i) {
+            keys[i] = String.format("key%07d", i);
+            b.setLength(0);
+            for (int n = 8 + r.nextInt(80); n > 0; --n) {
+                b.append((char) ('a' + r.nextInt(26)));
+            }
+            values[i] = b.toString();
+            chars += keys[i].length() + values[i].length();
+        }
+        values[entries - 1] = "last \uD834\uDD1E value";
+
+        File dir = Harness.tempDir(StringsWriterBenchmark.class);
+        File out = new File(dir, "benchmark.strings.bin");
+        try {
+            for (OutputMode mode : OutputMode.values()) {
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < runs; ++run) {
+                    OptionMap options = new OptionMap();
+                    options.put(OutputMode.class, mode);
+                    StringsWriter w = new StringsWriter(new StringsFeeder() {
+
+                        @Override
+                        public void deliverEvents (StringWriter writer) throws Exception {
+                            for (int i = 0; i < keys.length; ++i) {
+                                writer.key(keys[i]);
+                                writer.value(values[i]);
+                            }
+                        }
+
+                        @Override
+                        public void dispose () {
+                        }
+                    }, out, options);
+                    long start = System.nanoTime();
+                    w.run();
+                    w.get();
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                verify(out, entries, values[entries - 1]);
+                Harness.report(StringsWriterBenchmark.class,
+                               "%s: %d entries, %.1f MB in %.0f ms (%.0f MB/s)",
+                               mode, entries, out.length() / 1e6, best / 1e6,
+                               out.length() / 1e6 / (best / 1e9));
+            }
+            Harness.report(StringsWriterBenchmark.class, "%d characters per run", chars);
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    private static void verify (File out, int entries, String last) {
+        StringsReader reader = new StringsReader(out, false);
+        try {
+            int n = 0;
+            String value = null;
+            for (StringsData d : reader) {
+                value = d.value();
+                ++n;
+            }
+            Harness.check(n == entries, "%d entries read, expected %d", n, entries);
+            Harness.check(last.equals(value), "the last value reads back as: %s", value);
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
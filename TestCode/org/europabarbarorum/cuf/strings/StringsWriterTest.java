@@ -0,0 +1,129 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringWriter;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringsFeeder;
+import org.europabarbarorum.cuf.strings.impl.SimpleStringsFeeder.StringsData;
+import org.europabarbarorum.cuf.support.Harness;
+import org.europabarbarorum.cuf.support.OptionMap;
+
+/**
+ * Checks that compiling a Strings file in the default (direct) output mode leaves an existing file and its
+ * index intact when compilation fails, and replaces both when it succeeds.
+ * @author Johan Ouwerkerk
+ */
+public class StringsWriterTest {
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        File dir = Harness.tempDir(StringsWriterTest.class);
+        File out = new File(dir, "test.strings.bin");
+        File index = StringsIndex.sidecar(out);
+        try {
+            Harness.check(compile(out, "old", -1), "compiling the original file failed");
+            Harness.check(StringsReader.index(out) && index.isFile(), "indexing the original file failed");
+            byte[] file = Harness.read(out), idx = Harness.read(index);
+
+            Harness.check(!compile(out, "new", 2), "a failing feeder did not fail compilation");
+            Harness.check(Arrays.equals(file, Harness.read(out)),
+                          "a failed compilation changed the destination");
+            Harness.check(index.isFile() && Arrays.equals(idx, Harness.read(index)),
+                          "a failed compilation changed the index of the destination");
+            Harness.check(dir.list().length == 2, "files were left behind: %s",
+                          Arrays.toString(dir.list()));
+            Harness.report(StringsWriterTest.class, "failed compilation keeps the destination");
+
+            Harness.check(compile(out, "new", -1), "compiling the replacement failed");
+            Harness.check(!index.exists(), "the index of the replaced file was kept");
+            Harness.check(values(out).equals(Arrays.asList("new0", "new1", "new2", "new3")),
+                          "the destination was not replaced: %s", values(out));
+            Harness.report(StringsWriterTest.class, "successful compilation replaces the destination");
+        }
+        finally {
+            index.delete();
+            out.delete();
+        }
+    }
+
+    /**
+     * Compile a Strings file with four entries.
+     * @param out the destination.
+     * @param prefix prefix of the values.
+     * @param fail the entry at which to fail, or -1 to succeed.
+     * @return whether compilation succeeded.
+     */
+    private static boolean compile (File out, final String prefix,
+                                    final int fail) {
+        StringsWriter w = new StringsWriter(new StringsFeeder() {
+
+            @Override
+            public void deliverEvents (StringWriter writer) throws Exception {
+                for (int i = 0; i < 4; ++i) {
+                    if (i == fail) {
+                        throw new Exception("failing at entry " + i);
+                    }
+                    writer.key("key" + i);
+                    writer.value(prefix + i);
+                }
+            }
+
+            @Override
+            public void dispose () {
+            }
+        }, out, new OptionMap());
+        w.run();
+        try {
+            w.get();
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static List<String> values (File f) {
+        List<String> values = new ArrayList<String>();
+        StringsReader r = new StringsReader(f, false);
+        for (StringsData d : r) {
+            values.add(d.value());
+        }
+        r.close();
+        return values;
+    }
+}
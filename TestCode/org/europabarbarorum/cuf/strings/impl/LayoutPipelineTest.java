@@ -0,0 +1,177 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.strings.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import org.europabarbarorum.cuf.strings.StringsReader;
+import org.europabarbarorum.cuf.strings.StringsWriter;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringWriter;
+import org.europabarbarorum.cuf.strings.StringsWriter.StringsFeeder;
+import org.europabarbarorum.cuf.strings.impl.SimpleStringsFeeder.StringsData;
+import org.europabarbarorum.cuf.strings.impl.StringMapping.LayoutMapping;
+import org.europabarbarorum.cuf.support.Harness;
+import org.europabarbarorum.cuf.support.OptionMap;
+
+/**
+ * Checks that a {@link LayoutPipeline} with several workers only uses a {@link LayoutMapping} which cannot be
+ * forked on the thread of the feeder, and still writes all entries in order.
+ * @author Johan Ouwerkerk
+ */
+public class LayoutPipelineTest {
+
+    private static final int ENTRIES = 5000;
+
+    /**
+     * Run the test.
+     * @param args ignored.
+     * @throws Exception if the test fails.
+     */
+    public static void main (String[] args) throws Exception {
+        Harness.boot();
+        File dir = Harness.tempDir(LayoutPipelineTest.class);
+        File out = new File(dir, "layout.strings.bin");
+        final Set<Thread> threads = new CopyOnWriteArraySet<Thread>();
+        final OptionMap options = new OptionMap();
+        try {
+            StringsWriter w = new StringsWriter(new StringsFeeder() {
+
+                @Override
+                public void deliverEvents (StringWriter writer) throws Exception {
+                    threads.add(Thread.currentThread());
+                    LayoutPipeline pipeline = new LayoutPipeline(writer, options, 4);
+                    try {
+                        StringMapping plain = new Plain();
+                        StringMapping layout = new Plain.Layout(threads);
+                        for (int i = 0; i < ENTRIES; ++i) {
+                            StringMapping m = i % 7 == 0 ? layout : plain;
+                            m.appendString("value " + i, null);
+                            pipeline.send("key" + i, new RawHandler(options, m, "key" + i));
+                        }
+                        pipeline.finish();
+                    }
+                    finally {
+                        pipeline.dispose();
+                    }
+                }
+
+                @Override
+                public void dispose () {
+                }
+            }, out, options);
+            w.run();
+            w.get();
+            Harness.check(threads.size() == 1, "a mapping which cannot be forked was used on %d threads",
+                          threads.size());
+
+            List<String> values = new ArrayList<String>();
+            StringsReader r = new StringsReader(out, false);
+            for (StringsData d : r) {
+                values.add(d.value());
+            }
+            r.close();
+            Harness.check(values.size() == ENTRIES, "%d entries written, expected %d", values.size(), ENTRIES);
+            for (int i = 0; i < ENTRIES; ++i) {
+                Harness.check(values.get(i).equals("value " + i), "entry %d is out of order: %s", i,
+                              values.get(i));
+            }
+            Harness.report(LayoutPipelineTest.class, "%d entries written in order", ENTRIES);
+        }
+        finally {
+            out.delete();
+        }
+    }
+
+    /**
+     * A {@link StringMapping} which outputs text as is.
+     */
+    private static class Plain implements StringMapping {
+
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public void appendString (String s, String ctx) {
+            text.append(s);
+        }
+
+        @Override
+        public void select (String macro, String ctx) {
+        }
+
+        @Override
+        public String getMappedString (String ctx) {
+            String s = text.toString();
+            text.setLength(0);
+            return s;
+        }
+
+        @Override
+        public boolean mappedEquals (Character original, Character mapped) {
+            return original.equals(mapped);
+        }
+
+        /**
+         * A {@link LayoutMapping} which cannot be forked, and records the threads it is used on.
+         */
+        private static class Layout extends Plain implements LayoutMapping {
+
+            private final Set<Thread> threads;
+
+            private Layout (Set<Thread> threads) {
+                this.threads = threads;
+            }
+
+            @Override
+            public String layout (String source) {
+                threads.add(Thread.currentThread());
+                return source;
+            }
+
+            @Override
+            public void advance (String precomputed) {
+                threads.add(Thread.currentThread());
+            }
+
+            @Override
+            public String indent () {
+                threads.add(Thread.currentThread());
+                return null;
+            }
+
+            @Override
+            public int layout (char c) {
+                threads.add(Thread.currentThread());
+                return NO_BREAK;
+            }
+        }
+    }
+}
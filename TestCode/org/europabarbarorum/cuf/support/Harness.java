@@ -0,0 +1,111 @@
+/*
+ *
+ *  Copyright (C) 2010, 2011, 2012 The Europa Barbarorum Team
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *      * Redistributions of source code must retain the above copyright
+ *        notice, this list of conditions and the following disclaimer.
+ *      * Redistributions in binary form must reproduce the above copyright
+ *        notice, this list of conditions and the following disclaimer in the
+ *        documentation and/or other materials provided with the distribution.
+ *      * Neither the name of The Europa Barbarorum Team nor the
+ *        names of other contributors may be used to endorse or promote products
+ *        derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ *  DISCLAIMED. IN NO EVENT SHALL The Europa Barbarorum Team BE LIABLE FOR ANY
+ *  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.europabarbarorum.cuf.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Support code for the test programs in this source tree. Each test is a class with a {@code main} method
+ * which {@link #boot() boots} the program {@link Classloader}, runs its checks and throws an
+ * {@link AssertionError} if one of them fails. Tests do not depend on a test framework, so that they can be run
+ * with nothing but the compiled program on the class path.
+ * @author Johan Ouwerkerk
+ */
+public final class Harness {
+
+    private Harness () {
+    }
+
+    /**
+     * Set up the program {@link Classloader}, which is required for loading resources such as messages.
+     */
+    public static void boot () {
+        Classloader.get(Harness.class.getClassLoader());
+    }
+
+    /**
+     * Check a condition.
+     * @param condition the condition which must hold.
+     * @param format format string of the message to fail with, see {@link String#format(java.lang.String, java.lang.Object[]) }.
+     * @param args arguments of the format string.
+     * @throws AssertionError if the condition does not hold.
+     */
+    public static void check (boolean condition, String format, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(format, args));
+        }
+    }
+
+    /**
+     * Print a result of a test.
+     * @param test the class of the test.
+     * @param format format string of the message, see {@link String#format(java.lang.String, java.lang.Object[]) }.
+     * @param args arguments of the format string.
+     */
+    public static void report (Class<?> test, String format, Object... args) {
+        System.out.printf("%s: %s%n", test.getSimpleName(),
+                          String.format(format, args));
+    }
+
+    /**
+     * Read the contents of a file.
+     * @param f the file to read.
+     * @return the bytes of the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static byte[] read (File f) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(f, "r");
+        try {
+            byte[] b = new byte[(int) in.length()];
+            in.readFully(b);
+            return b;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Create an empty directory for the files of a test. It is removed when the program exits, provided
+     * the test removed the files it created in it.
+     * @param test the class of the test.
+     * @return a new, empty directory.
+     * @throws IOException if the directory cannot be created.
+     */
+    public static File tempDir (Class<?> test) throws IOException {
+        File f = File.createTempFile(test.getSimpleName() + "-", "");
+        if (!f.delete() || !f.mkdir()) {
+            throw new IOException(f.getPath());
+        }
+        f.deleteOnExit();
+        return f;
+    }
+}